@@ -0,0 +1,485 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.Arrays;
+
+/** A list of every bond between two codons, so that bonded pairs can be
+ * interacted directly, however far apart they are, instead of being looked
+ * for among the neighbours of every codon.
+ *
+ * Bonds are only ever changed through Codon.changeBond() (or, while the
+ * codons finish the timestep, Codon.releaseBond()), which record the change
+ * here.  The changes are journalled, and only applied to the list
+ * when commit() is called after the codons' states have been copied, so the
+ * list always matches the bonds in the codons' (definitive) _state.
+ *
+ * Each bond is kept once, under the codon with the lower id and its arm.
+ *
+ * Bonds can form on several threads at once, so the journal is
+ * synchronized.  Everything else is only used between timesteps, or from
+ * the simulator's own thread, apart from interactBonded().  Interacting a
+ * pair writes to both codons, so two threads must never interact pairs that
+ * share a codon, and bonded pairs can be any distance apart, so they can't
+ * be shared out by cell as the ParallelGrid does.  Instead, given a
+ * WorkerPool, interactBonded() colours the bonds so that no two of a colour
+ * share a codon (each bond takes the lowest colour that neither of its
+ * codons has had yet, in the order of the list), and the workers interact
+ * one colour at a time, waiting for each other in between.  A codon has
+ * at most CodonParameters.NUM_ARMS partners, so that's never more than
+ * MAX_COLOURS colours, however much of the simulation is bonded.  The order that the changes reach the journal
+ * then depends on the threads, so they are sorted before they're applied,
+ * which keeps the order of the list (and so the order in which bonded pairs
+ * are interacted) the same however many threads there are.
+ *
+ * The changes are passed on to the Components as they're applied.  The
+ * breaks (and switches) are recorded in the EventLog as they're applied,
+ * too, rather than when they're made.  Both ends of a bond can break it in
+ * the same timestep, on different threads, and both breaks are journalled,
+ * whichever thread got there first.  Only the first in the sorted journal
+ * (the break made by the codon with the lower id, as when the codons were
+ * finished one at a time) is applied, so each break is recorded once, the
+ * same way however many threads there are.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class BondList implements WorkerPool.Task {
+
+	/** Journal entry for a bond that has formed. */
+	private static final int ADD = 1;
+
+	/** Journal entry for a bond that has broken. */
+	private static final int REMOVE = 0;
+
+	/** For each codon id and arm, the position of its bond in _bondCodon and
+	 * _bondArm, or -1 if the codon isn't the keeper of a bond on that arm. */
+	private final int[] _slot;
+
+	/** The id of the codon keeping each bond. */
+	private final int[] _bondCodon;
+
+	/** The arm of the keeping codon that each bond is on. */
+	private final int[] _bondArm;
+
+	/** The number of bonds. */
+	private int _size = 0;
+
+	// The fields of a journal entry, as offsets into it.
+
+	/** ADD or REMOVE. */
+	private static final int CHANGE = 0;
+
+	/** The keeper's id. */
+	private static final int KEEPER = 1;
+
+	/** The keeper's arm. */
+	private static final int KEEPER_ARM = 2;
+
+	/** For a REMOVE, the type of event to record (EventLog.BREAK or
+	 * EventLog.SWITCH). */
+	private static final int TYPE = 3;
+
+	/** For a REMOVE, why the bond broke. */
+	private static final int REASON = 4;
+
+	/** The id of the codon that made the change. */
+	private static final int CODON = 5;
+
+	/** The id of its partner. */
+	private static final int OTHER = 6;
+
+	/** The number of ints in a journal entry. */
+	private static final int ENTRY = 7;
+
+	/** The journalled changes, in the order they were made.  Each change
+	 * takes ENTRY ints. */
+	private int[] _journal = new int[ENTRY * 64];
+
+	/** Where sortJournal() puts the journal's entries in order, before it
+	 * swaps this with _journal.  It grows with it. */
+	private int[] _sorted = new int[ENTRY * 64];
+
+	/** The sort key of each journal entry, with its position in the journal
+	 * in the low 32 bits. */
+	private long[] _keys = new long[64];
+
+	/** The number of ints used in _journal. */
+	private int _journalLength = 0;
+
+	/** The number of bonds that have formed, and broken, since the list was
+	 * created. */
+	private long _formed = 0, _broken = 0;
+
+	/** The connected components of the bonds. */
+	private final Components _components;
+
+	/** Where the breaks are recorded. */
+	private EventLog _events = EventLog.NONE;
+
+	/** The most colours the bonds can need: a bond shares a codon with at
+	 * most 2 * (CodonParameters.NUM_ARMS - 1) others. */
+	private static final int MAX_COLOURS = 2 * CodonParameters.NUM_ARMS - 1;
+
+	/** The threads that interact the bonded pairs, or null if they're
+	 * interacted on the calling thread, in the order of the list. */
+	private WorkerPool _pool = null;
+
+	/** For each codon id, a bit for each colour that one of its bonds has
+	 * been given.  Only used while colouring, and cleared afterwards. */
+	private final int[] _colours;
+
+	/** The bonds to be interacted, by position in the list, grouped by colour
+	 * and in the order of the list within each colour. */
+	private final int[] _byColour;
+
+	/** The colour of each bond to be interacted, in the order of the list, or
+	 * -1 if its pair is interacted through another of its arms. */
+	private final int[] _colour;
+
+	/** Where each colour starts in _byColour; the last is where they end. */
+	private final int[] _colourStart = new int[MAX_COLOURS + 1];
+
+	/** The codons being interacted in this timestep. */
+	private Codon[] _codons;
+
+	/** Whether this is the first timestep. */
+	private boolean _firstRun;
+
+	/** Create an empty list. 
+	 * @param maxCodons The number of codons that might be bonded.  Ids must
+	 * be less than this.
+	 * @param components Told about the bonds as they form and break. */
+	/* package */ BondList(int maxCodons, Components components) {
+		this._components = components;
+		this._slot = new int[maxCodons * CodonParameters.NUM_ARMS];
+		for (int i = 0; i < this._slot.length; i++) {
+			this._slot[i] = -1;
+		}
+		// Every bond uses up at least two arms.
+		this._bondCodon = new int[this._slot.length / 2];
+		this._bondArm = new int[this._slot.length / 2];
+
+		this._colours = new int[maxCodons];
+		this._byColour = new int[this._bondCodon.length];
+		this._colour = new int[this._bondCodon.length];
+	}
+
+	/** Set where the breaks are recorded. */
+	/* package */ final void setEventLog(EventLog events) {
+		this._events = events;
+	}
+
+	/** Share out the bonded pairs among the given threads, by colour.  The
+	 * pairs are then interacted in the order of their colours rather than of
+	 * the list, the same way whatever the number of threads. */
+	/* package */ final void setWorkerPool(WorkerPool pool) {
+		this._pool = pool;
+	}
+
+	/** Record that the bond between the given codons has formed. */
+	/* package */ final void add(Codon codon, int arm, Codon partner) {
+		this.journal(ADD, codon, arm, partner, EventLog.BOND, EventLog.NO_REASON);
+	}
+
+	/** Record that the bond between the given codons has broken.
+	 * @param type The event to record once it has: EventLog.BREAK, or
+	 * EventLog.SWITCH if the codon is bonding to another on the same arm.
+	 * @param reason Why it broke. */
+	/* package */ final void remove(Codon codon, int arm, Codon partner, int type, int reason) {
+		this.journal(REMOVE, codon, arm, partner, type, reason);
+	}
+
+	private final synchronized void journal(int change, Codon codon, int arm, Codon partner, int type, int reason) {
+		if (this._journalLength + ENTRY > this._journal.length) {
+			int[] journal = new int[this._journal.length * 2];
+			System.arraycopy(this._journal, 0, journal, 0, this._journalLength);
+			this._journal = journal;
+		}
+
+		// Key the bond by the codon with the lower id.
+		Codon keeper = codon;
+		int keeperArm = arm;
+		if (partner.getId() < codon.getId()) {
+			keeperArm = CodonParameters.BOND_ARM[arm];
+			keeper = partner;
+		}
+
+		int k = this._journalLength;
+		this._journal[k + CHANGE] = change;
+		this._journal[k + KEEPER] = keeper.getId();
+		this._journal[k + KEEPER_ARM] = keeperArm;
+		this._journal[k + TYPE] = type;
+		this._journal[k + REASON] = reason;
+		this._journal[k + CODON] = codon.getId();
+		this._journal[k + OTHER] = partner.getId();
+		this._journalLength += ENTRY;
+	}
+
+	/** Apply all of the journalled changes.  This should be called once the
+	 * codons have copied their states. */
+	/* package */ final synchronized void commit() {
+		this.sortJournal();
+		int[] journal = this._journal;
+		for (int k = 0; k < this._journalLength; k += ENTRY) {
+			int keeper = journal[k + KEEPER];
+			int keeperArm = journal[k + KEEPER_ARM];
+			int key = keeper * CodonParameters.NUM_ARMS + keeperArm;
+			int slot = this._slot[key];
+
+			if (journal[k + CHANGE] == ADD) {
+				if (slot < 0) {
+					this._slot[key] = this._size;
+					this._bondCodon[this._size] = keeper;
+					this._bondArm[this._size] = keeperArm;
+					this._size++;
+					this._formed++;
+					this._components.bonded(keeper, keeperArm);
+				}
+			} else if (slot >= 0) {
+				// The codon that broke it may be either end.
+				int arm = (journal[k + CODON] == keeper) ? keeperArm : CodonParameters.BOND_ARM[keeperArm];
+				this._events.record(journal[k + TYPE], journal[k + REASON], journal[k + CODON], journal[k + OTHER], 
+						arm, CodonParameters.BOND_ARM[arm], 0f);
+
+				// Move the last bond into the hole.
+				this._size--;
+				this._bondCodon[slot] = this._bondCodon[this._size];
+				this._bondArm[slot] = this._bondArm[this._size];
+				this._slot[this._bondCodon[slot] * CodonParameters.NUM_ARMS + this._bondArm[slot]] = slot;
+				this._slot[key] = -1;
+				this._broken++;
+				this._components.invalidate();
+			}
+		}
+		this._journalLength = 0;
+	}
+
+	/** Sort the journal by codon id and arm, with a bond breaking before one
+	 * forming on the same arm.  An arm can only change once per timestep, so
+	 * that's the only order in which both can happen.  Two breaks of the same
+	 * bond (one from each end) go in order of the id of the codon that made
+	 * them, i.e. the keeper's first.  Usually there are only a few changes,
+	 * but the seeded codons' first run, or a shatter or unfolding spreading
+	 * through a mesh, can change thousands of bonds at once, so the keys are
+	 * sorted with Arrays.sort(), and the entries then moved into place. */
+	private final void sortJournal() {
+		int entries = this._journalLength / ENTRY;
+		if (this._keys.length < entries) {
+			this._keys = new long[this._journal.length / ENTRY];
+			this._sorted = new int[this._journal.length];
+		}
+
+		int[] journal = this._journal;
+		long[] keys = this._keys;
+		for (int n = 0; n < entries; n++) {
+			keys[n] = (this.getSortKey(journal, n * ENTRY) << 32) | n;
+		}
+		Arrays.sort(keys, 0, entries);
+
+		int[] sorted = this._sorted;
+		for (int n = 0; n < entries; n++) {
+			System.arraycopy(journal, (int)keys[n] * ENTRY, sorted, n * ENTRY, ENTRY);
+		}
+		this._sorted = journal;
+		this._journal = sorted;
+	}
+
+	/** @return What the journal entry at the given offset is sorted by.  This
+	 * has to fit in 31 bits, which it does for up to 100 million codons. */
+	private final long getSortKey(int[] journal, int k) {
+		long arm = (journal[k + KEEPER] * CodonParameters.NUM_ARMS + journal[k + KEEPER_ARM]) * 2 + journal[k + CHANGE];
+		return arm * 2 + ((journal[k + CODON] == journal[k + KEEPER]) ? 0 : 1);
+	}
+
+	/** Interact every bonded pair of codons, once per pair even if they're
+	 * bonded on more than one arm.  As with the broadphase, the codon with the
+	 * higher id is the one whose interact() is called.  If there's a
+	 * WorkerPool, the pairs are coloured and shared out among its workers
+	 * (see run()). */
+	/* package */ final void interactBonded(Codon[] codons, boolean firstRun) {
+		if (this._pool == null) {
+			for (int k = 0; k < this._size; k++) {
+				if (this.isLowestArm(codons, k)) {
+					Codon codon = codons[this._bondCodon[k]];
+					codons[codon.getBondPartnerID(this._bondArm[k])].interactPair(codon, firstRun);
+				}
+			}
+			return;
+		}
+
+		this.colour(codons);
+		this._codons = codons;
+		this._firstRun = firstRun;
+		this._pool.execute(this);
+		this._codons = null;
+	}
+
+	/** @return Whether the bond at the given position in the list is on the
+	 * lowest of the keeper's arms that are bonded to its partner, i.e. the one
+	 * its pair is interacted through. */
+	private final boolean isLowestArm(Codon[] codons, int k) {
+		Codon codon = codons[this._bondCodon[k]];
+		int arm = this._bondArm[k];
+		int partner = codon.getBondPartnerID(arm);
+
+		assert partner > codon.getId(): "Bond list out of date for " + codon + " @ " + arm;
+
+		for (int i = 0; i < arm; i++) {
+			if (codon.getBondPartnerID(i) == partner) return false;
+		}
+		return true;
+	}
+
+	/** Colour the bonds whose pairs are to be interacted, giving each the
+	 * lowest colour that neither of its codons has had yet, and group them by
+	 * colour in _byColour. */
+	private final void colour(Codon[] codons) {
+		int[] colours = this._colours;
+		int[] colour = this._colour;
+		int[] start = this._colourStart;
+		for (int c = 0; c <= MAX_COLOURS; c++) {
+			start[c] = 0;
+		}
+
+		for (int k = 0; k < this._size; k++) {
+			if (!this.isLowestArm(codons, k)) {
+				colour[k] = -1;
+				continue;
+			}
+			int keeper = this._bondCodon[k];
+			int partner = codons[keeper].getBondPartnerID(this._bondArm[k]);
+			int c = Integer.numberOfTrailingZeros(~(colours[keeper] | colours[partner]));
+			colours[keeper] |= 1 << c;
+			colours[partner] |= 1 << c;
+			colour[k] = c;
+			start[c + 1]++;
+		}
+
+		for (int c = 0; c < MAX_COLOURS; c++) {
+			start[c + 1] += start[c];
+		}
+
+		// Place each bond after the ones of its colour that came before it,
+		// and clear the codons' colours for the next timestep as we go.
+		int[] byColour = this._byColour;
+		for (int k = 0; k < this._size; k++) {
+			int c = colour[k];
+			if (c < 0) continue;
+			int keeper = this._bondCodon[k];
+			colours[keeper] = 0;
+			colours[codons[keeper].getBondPartnerID(this._bondArm[k])] = 0;
+			byColour[start[c]++] = k;
+		}
+
+		// That left each colour's start where the next one starts.
+		for (int c = MAX_COLOURS; c > 0; c--) {
+			start[c] = start[c - 1];
+		}
+		start[0] = 0;
+	}
+
+	/** Interact this worker's share of each colour of bonded pairs, one
+	 * colour at a time.  Run by each worker in the pool. */
+	public final void run(int worker) {
+		Codon[] codons = this._codons;
+		int[] start = this._colourStart;
+
+		for (int c = 0; c < MAX_COLOURS && start[c] < start[MAX_COLOURS]; c++) {
+			int count = start[c + 1] - start[c];
+
+			// Anything thrown has to be passed to the pool rather than thrown,
+			// or the other workers would wait at the barrier forever.
+			try {
+				int end = start[c] + this._pool.getStart(worker + 1, count);
+				for (int n = start[c] + this._pool.getStart(worker, count); n < end; n++) {
+					int k = this._byColour[n];
+					Codon codon = codons[this._bondCodon[k]];
+					codons[codon.getBondPartnerID(this._bondArm[k])].interactPair(codon, this._firstRun);
+				}
+			} catch (Throwable t) {
+				this._pool.fail(t);
+			}
+
+			// Don't start on the next colour until everyone's done with this one.
+			if (c + 1 < MAX_COLOURS && start[c + 1] < start[MAX_COLOURS]) this._pool.barrier(worker);
+		}
+	}
+
+	/** Write out the bonds, in the order they're interacted in, as the
+	 * keeper's id * CodonParameters.NUM_ARMS + its arm.  This should only be
+	 * done between timesteps.
+	 * @param keys Where to put them.  There must be room for size().
+	 * @return The number of bonds. */
+	/* package */ final int save(int[] keys) {
+		for (int k = 0; k < this._size; k++) {
+			keys[k] = this._bondCodon[k] * CodonParameters.NUM_ARMS + this._bondArm[k];
+		}
+		return this._size;
+	}
+
+	/** Replace the bonds with the ones written by save(), in the same order.
+	 * They have to be the ones in the codons' states. */
+	/* package */ final void restore(int[] keys, int size) {
+		for (int k = 0; k < this._size; k++) {
+			this._slot[this._bondCodon[k] * CodonParameters.NUM_ARMS + this._bondArm[k]] = -1;
+		}
+		for (int k = 0; k < size; k++) {
+			this._bondCodon[k] = keys[k] / CodonParameters.NUM_ARMS;
+			this._bondArm[k] = keys[k] % CodonParameters.NUM_ARMS;
+			this._slot[keys[k]] = k;
+		}
+		this._size = size;
+		this._journalLength = 0;
+		this._components.invalidate();
+	}
+
+	/** @return The most bonds there can be. */
+	/* package */ final int getCapacity() { return this._bondCodon.length; }
+
+	/** @return The number of bonds. */
+	/* package */ final int size() { return this._size; }
+
+	/** @return The number of bonds that have formed.  This should only be
+	 * asked between timesteps. */
+	/* package */ final long getFormed() { return this._formed; }
+
+	/** @return The number of bonds that have broken.  This should only be
+	 * asked between timesteps. */
+	/* package */ final long getBroken() { return this._broken; }
+
+}
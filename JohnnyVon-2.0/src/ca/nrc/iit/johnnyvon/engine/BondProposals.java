@@ -0,0 +1,244 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.ArrayList;
+
+/** The bonds that codons would like to form during a timestep.
+ *
+ * An arm can only bond once per timestep, so if bonds were formed as soon as
+ * two arms were found to be close enough and lined up, the bond an arm ended
+ * up with would depend on the order in which the pairs were interacted.
+ * Instead, the pairwise interactions just propose bonds, each thread into
+ * its own buffer.  Once every pair has been interacted, resolve() forms them
+ * best first: the smallest angle difference, then the lowest partner id and
+ * arm, then the lowest proposing codon id and arm, so no two different
+ * proposals are ever tied.  A proposal loses if either of its arms has already bonded in this timestep.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class BondProposals {
+
+	/** A list of proposals.  Each thread has one, and resolve() gathers them
+	 * all into another. */
+	private static final class Buffer {
+
+		/** The codon making each proposal.  As with every other pair, this is
+		 * the one with the higher id. */
+		private Codon[] _codons = new Codon[16];
+
+		/** The arm of the proposing codon. */
+		private int[] _arms = new int[16];
+
+		/** The codon that each proposal is to. */
+		private Codon[] _partners = new Codon[16];
+
+		/** The arm of the partner. */
+		private int[] _partnerArms = new int[16];
+
+		/** The kind of force the bond will apply. */
+		private int[] _forceTypes = new int[16];
+
+		/** How far (in radians) the arms are from lining up exactly. */
+		private double[] _differences = new double[16];
+
+		/** The number of proposals. */
+		private int _size = 0;
+
+		private final void add(Codon codon, int arm, Codon partner, int partnerArm, int forceType, double difference) {
+			if (this._size == this._codons.length) {
+				this.grow();
+			}
+			this._codons[this._size] = codon;
+			this._arms[this._size] = arm;
+			this._partners[this._size] = partner;
+			this._partnerArms[this._size] = partnerArm;
+			this._forceTypes[this._size] = forceType;
+			this._differences[this._size] = difference;
+			this._size++;
+		}
+
+		private final void grow() {
+			int length = this._codons.length * 2;
+
+			Codon[] codons = new Codon[length];
+			System.arraycopy(this._codons, 0, codons, 0, this._size);
+			this._codons = codons;
+
+			Codon[] partners = new Codon[length];
+			System.arraycopy(this._partners, 0, partners, 0, this._size);
+			this._partners = partners;
+
+			int[] arms = new int[length];
+			System.arraycopy(this._arms, 0, arms, 0, this._size);
+			this._arms = arms;
+
+			int[] partnerArms = new int[length];
+			System.arraycopy(this._partnerArms, 0, partnerArms, 0, this._size);
+			this._partnerArms = partnerArms;
+
+			int[] forceTypes = new int[length];
+			System.arraycopy(this._forceTypes, 0, forceTypes, 0, this._size);
+			this._forceTypes = forceTypes;
+
+			double[] differences = new double[length];
+			System.arraycopy(this._differences, 0, differences, 0, this._size);
+			this._differences = differences;
+		}
+
+		/** Move the proposals in another buffer to the end of this one, leaving
+		 * the other empty. */
+		private final void takeAll(Buffer other) {
+			for (int k = 0; k < other._size; k++) {
+				this.add(other._codons[k], other._arms[k], other._partners[k], other._partnerArms[k], other._forceTypes[k], other._differences[k]);
+				other._codons[k] = null;
+				other._partners[k] = null;
+			}
+			other._size = 0;
+		}
+
+		/** @return Whether proposal a should be tried before proposal b. */
+		private final boolean isBefore(int a, int b) {
+			if (this._differences[a] != this._differences[b]) {
+				return this._differences[a] < this._differences[b];
+			}
+			if (this._partners[a] != this._partners[b]) {
+				return this._partners[a].getId() < this._partners[b].getId();
+			}
+			if (this._partnerArms[a] != this._partnerArms[b]) {
+				return this._partnerArms[a] < this._partnerArms[b];
+			}
+			if (this._codons[a] != this._codons[b]) {
+				return this._codons[a].getId() < this._codons[b].getId();
+			}
+			return this._arms[a] < this._arms[b];
+		}
+
+		/** Sort the proposals, best first.  Usually there are only a handful,
+		 * but on the seeded codons' first run there can be thousands, so this is
+		 * a heap sort, which (unlike an insertion sort) stays n log n, and
+		 * (unlike Arrays.sort()) needs nothing allocated.  isBefore() is a total
+		 * order, so it doesn't matter that a heap sort isn't stable. */
+		private final void sort() {
+			for (int k = this._size / 2 - 1; k >= 0; k--) {
+				this.siftDown(k, this._size);
+			}
+			for (int end = this._size - 1; end > 0; end--) {
+				this.swap(0, end);
+				this.siftDown(0, end);
+			}
+		}
+
+		/** Move the proposal at k down the heap made of the first size
+		 * proposals, which has the last to be tried at the top, until it is
+		 * tried no later than its parent. */
+		private final void siftDown(int k, int size) {
+			while (2 * k + 1 < size) {
+				int child = 2 * k + 1;
+				if (child + 1 < size && this.isBefore(child, child + 1)) child++;
+				if (!this.isBefore(k, child)) return;
+				this.swap(k, child);
+				k = child;
+			}
+		}
+
+		/** Swap two proposals. */
+		private final void swap(int a, int b) {
+			Codon codon = this._codons[a]; this._codons[a] = this._codons[b]; this._codons[b] = codon;
+			Codon partner = this._partners[a]; this._partners[a] = this._partners[b]; this._partners[b] = partner;
+			int arm = this._arms[a]; this._arms[a] = this._arms[b]; this._arms[b] = arm;
+			int partnerArm = this._partnerArms[a]; this._partnerArms[a] = this._partnerArms[b]; this._partnerArms[b] = partnerArm;
+			int forceType = this._forceTypes[a]; this._forceTypes[a] = this._forceTypes[b]; this._forceTypes[b] = forceType;
+			double difference = this._differences[a]; this._differences[a] = this._differences[b]; this._differences[b] = difference;
+		}
+
+	}
+
+	/** Every thread's buffer. */
+	private final ArrayList<Buffer> _buffers = new ArrayList<Buffer>();
+
+	/** The current thread's buffer. */
+	private final ThreadLocal<Buffer> _buffer = new ThreadLocal<Buffer>() {
+		protected Buffer initialValue() {
+			Buffer buffer = new Buffer();
+			synchronized (BondProposals.this._buffers) {
+				BondProposals.this._buffers.add(buffer);
+			}
+			return buffer;
+		}
+	};
+
+	/** All of the proposals, gathered up to be resolved. */
+	private final Buffer _all = new Buffer();
+
+	/** Propose a bond.  This can be called from any thread.
+	 * @param difference The angle (in radians, either way) between the arms
+	 * and where they should be if they were lined up exactly. */
+	/* package */ final void propose(Codon codon, int arm, Codon partner, int partnerArm, int forceType, double difference) {
+		// Always proposed from the codon with the higher id, which is the one
+		// that will interact with the partner once they're bonded.
+		if (partner.getId() > codon.getId()) {
+			Codon temp = codon; codon = partner; partner = temp;
+			int tempArm = arm; arm = partnerArm; partnerArm = tempArm;
+		}
+		this._buffer.get().add(codon, arm, partner, partnerArm, forceType, Math.abs(difference));
+	}
+
+	/** Form the proposed bonds, best first.  This has to be called once all of
+	 * the pairs have been interacted (and the threads that did so have
+	 * finished), and before the codons finish the timestep. */
+	/* package */ final void resolve() {
+		Buffer all = this._all;
+
+		synchronized (this._buffers) {
+			for (int i = 0; i < this._buffers.size(); i++) {
+				all.takeAll(this._buffers.get(i));
+			}
+		}
+
+		all.sort();
+
+		for (int k = 0; k < all._size; k++) {
+			all._codons[k].formBond(all._partners[k], all._arms[k], all._partnerArms[k], all._forceTypes[k], all._differences[k]);
+			all._codons[k] = null;
+			all._partners[k] = null;
+		}
+		all._size = 0;
+	}
+
+}
@@ -0,0 +1,68 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** Something that can find the pairs of codons that are close enough to
+ * interact, without looking at every possible pair.  Pairs of codons that
+ * are bonded to each other are not a broadphase's concern; the Simulator
+ * interacts those from its BondList, however far apart they are.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ interface Broadphase {
+
+	/** Call interactPair() once for every pair of the first numCodons codons
+	 * that are within twice the codons' interaction radius of each
+	 * other, but not bonded to each other.  The codon with the higher index is
+	 * the one whose interactPair() is called.
+	 */
+	public void interactNeighbours(Codon[] codons, int numCodons, boolean firstRun);
+
+	/** @return The number of times this broadphase has rebuilt its index of
+	 * the codons' positions. */
+	public int getRebuilds();
+
+	/** @return The number of pairs of codons whose distance this broadphase
+	 * has tested.  This should only be asked between timesteps. */
+	public long getPairTests();
+
+	/** @return The number of the pairs tested that were close enough to
+	 * interact (bonded or not).  The rest were rejected. */
+	public long getPairsFound();
+
+}
@@ -0,0 +1,302 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** A uniform grid laid over the container, used to find the pairs of codons
+ * that are close enough to interact.  Each cell is at least as wide as the
+ * interaction diameter of a codon, so a codon can only interact with codons
+ * in its own cell or one of the eight cells around it.  Used as a
+ * Broadphase, the grid is rebuilt from scratch from the codon positions at
+ * the start of each timestep.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class CellGrid implements Broadphase {
+
+	/** Something that wants to know about pairs of codons found in the grid. */
+	/* package */ interface PairVisitor {
+		/** Called once for each pair found.  i is always greater than j. */
+		public void visit(int i, int j);
+	}
+
+	/** The number of cells along each side of the container. */
+	private final int _cellsPerSide;
+
+	/** The width (and height) of each cell. */
+	private final double _cellSize;
+
+	/** The size of the container.  The container extends this far from the
+	 * origin on each axis. */
+	private final int _containerSize;
+
+	/** The square of the largest distance at which two codons can interact. */
+	private final double _maxDistanceSquared;
+
+	/** The index into _cellCodons of the first codon in each cell.  Cell c
+	 * holds the codons from _cellStart[c] up to (but not including)
+	 * _cellStart[c + 1]. */
+	private final int[] _cellStart;
+
+	/** The indices of the codons, sorted by cell, and by index within each
+	 * cell. */
+	private final int[] _cellCodons;
+
+	/** The cell that each codon is in. */
+	private final int[] _cellOf;
+
+	/** The number of times the grid has been rebuilt. */
+	private int _rebuilds = 0;
+
+	/** For each cell, the number of pairs of codons whose distance has been
+	 * tested, and the number found close enough, by findPairs() from that
+	 * cell.  Kept by cell so that threads searching different cells never
+	 * share a counter. */
+	private final long[] _tests, _found;
+
+	/** Where the positions of the codons are kept. */
+	private final CodonStore _store;
+
+	/** The codons being interacted by interactNeighbours(). */
+	private Codon[] _codons;
+
+	/** Whether interactNeighbours() is doing the first timestep. */
+	private boolean _firstRun;
+
+	/** Interacts the pairs found by interactNeighbours().  This is kept
+	 * around so that a timestep doesn't allocate anything. */
+	private final PairVisitor _interactor = new PairVisitor() {
+		public void visit(int i, int j) {
+			Codon[] codons = CellGrid.this._codons;
+			if (!codons[i].isBondedTo(codons[j])) {
+				codons[i].interactPair(codons[j], CellGrid.this._firstRun);
+			}
+		}
+	};
+
+	/** Create a grid over a container.
+	 *
+	 * @param containerSize The size of the container.
+	 *
+	 * @param interactionDistance The largest distance between two codons that
+	 * will be looked for.  Cells will be at least this wide.
+	 *
+	 * @param store Where the positions of the codons are kept.  The grid can
+	 * hold as many codons as the store does.
+	 */
+	/* package */ CellGrid(int containerSize, double interactionDistance, CodonStore store) {
+		int maxCodons = store.getSize();
+		this._store = store;
+		this._containerSize = containerSize;
+		this._cellsPerSide = Math.max(1, (int)((2.0 * containerSize) / interactionDistance));
+		this._cellSize = (2.0 * containerSize) / this._cellsPerSide;
+		this._maxDistanceSquared = interactionDistance * interactionDistance;
+		this._cellStart = new int[this._cellsPerSide * this._cellsPerSide + 1];
+		this._cellCodons = new int[maxCodons];
+		this._cellOf = new int[maxCodons];
+		this._tests = new long[this._cellsPerSide * this._cellsPerSide];
+		this._found = new long[this._cellsPerSide * this._cellsPerSide];
+	}
+
+	/** Figure out which column or row a coordinate falls in.  Codons can
+	 * (briefly) end up outside of the container, so these are clamped to the
+	 * cells along the edge.  This never separates two codons that are within
+	 * a cell's width of each other by more than one cell. */
+	private final int getSlot(double coordinate) {
+		int slot = (int)((coordinate + this._containerSize) / this._cellSize);
+		if (slot < 0) return 0;
+		if (slot >= this._cellsPerSide) return this._cellsPerSide - 1;
+		return slot;
+	}
+
+	/** Sort the first numCodons codons into their cells, based on their
+	 * current positions.  This is a counting sort, so it is linear in the
+	 * number of codons plus the number of cells. */
+	/* package */ final void rebuild(Codon[] codons, int numCodons) {
+		
+		this._rebuilds++;
+
+		int numCells = this._cellsPerSide * this._cellsPerSide;
+		for (int c = 0; c <= numCells; c++) {
+			this._cellStart[c] = 0;
+		}
+
+		// Count the codons in each cell..
+		double[] x = this._store._x;
+		double[] y = this._store._y;
+		for (int i = 0; i < numCodons; i++) {
+			int cell = this.getSlot(y[i]) * this._cellsPerSide + this.getSlot(x[i]);
+			this._cellOf[i] = cell;
+			this._cellStart[cell + 1]++;
+		}
+
+		// ..turn the counts into starting offsets..
+		for (int c = 0; c < numCells; c++) {
+			this._cellStart[c + 1] += this._cellStart[c];
+		}
+
+		// ..and drop each codon into place.  _cellStart[c] is used as the
+		// insertion point for cell c, so it ends up at the start of cell c + 1
+		// and has to be shifted back afterwards.
+		for (int i = 0; i < numCodons; i++) {
+			this._cellCodons[this._cellStart[this._cellOf[i]]++] = i;
+		}
+		for (int c = numCells; c > 0; c--) {
+			this._cellStart[c] = this._cellStart[c - 1];
+		}
+		this._cellStart[0] = 0;
+
+	}
+
+	/** {@inheritDoc}  This only makes sense if the grid was created with the
+	 * interaction diameter of a codon as its distance. */
+	public final void interactNeighbours(Codon[] codons, int numCodons, boolean firstRun) {
+		this.rebuild(codons, numCodons);
+		this._codons = codons;
+		this._firstRun = firstRun;
+		this.findPairs(codons, this._interactor);
+		this._codons = null;
+	}
+
+	/** {@inheritDoc} */
+	public final int getRebuilds() { return this._rebuilds; }
+
+	/** {@inheritDoc} */
+	public final long getPairTests() { return sum(this._tests); }
+
+	/** {@inheritDoc} */
+	public final long getPairsFound() { return sum(this._found); }
+
+	private static long sum(long[] counts) {
+		long sum = 0;
+		for (int c = 0; c < counts.length; c++) sum += counts[c];
+		return sum;
+	}
+
+	/** Find every pair of codons that is no farther apart than the distance
+	 * the grid was created with, as of the last call to rebuild().  Each pair
+	 * is visited once. */
+	/* package */ final void findPairs(Codon[] codons, PairVisitor visitor) {
+		for (int cy = 0; cy < this._cellsPerSide; cy++) {
+			for (int cx = 0; cx < this._cellsPerSide; cx++) {
+				this.findPairs(codons, cx, cy, visitor);
+			}
+		}
+	}
+
+	/** Find the pairs that have a codon in the given cell, and the other in
+	 * the same cell or in the cells to its right, above-left, above, or
+	 * above-right.  Doing this for every cell finds every pair once.  The
+	 * codons that this touches are all within one cell to the left or right
+	 * of the given cell, and within the same row or the one above it. */
+	/* package */ final void findPairs(Codon[] codons, int cx, int cy, PairVisitor visitor) {
+		int cell = cy * this._cellsPerSide + cx;
+		int count = this.getCount(cell);
+		if (count == 0) return;
+
+		// Pairs within the cell.
+		long tests = (long)count * (count - 1) / 2;
+		int found = this.findPairsBetween(codons, cell, cell, visitor);
+
+		// Pairs with half of the surrounding cells.  The other half will get
+		// their turn when we reach those cells.
+		if (cx + 1 < this._cellsPerSide) {
+			tests += (long)count * this.getCount(cell + 1);
+			found += this.findPairsBetween(codons, cell, cell + 1, visitor);
+		}
+		if (cy + 1 < this._cellsPerSide) {
+			int above = cell + this._cellsPerSide;
+			if (cx > 0) {
+				tests += (long)count * this.getCount(above - 1);
+				found += this.findPairsBetween(codons, cell, above - 1, visitor);
+			}
+			tests += (long)count * this.getCount(above);
+			found += this.findPairsBetween(codons, cell, above, visitor);
+			if (cx + 1 < this._cellsPerSide) {
+				tests += (long)count * this.getCount(above + 1);
+				found += this.findPairsBetween(codons, cell, above + 1, visitor);
+			}
+		}
+
+		this._tests[cell] += tests;
+		this._found[cell] += found;
+	}
+
+	/** @return The number of codons in a cell. */
+	private final int getCount(int cell) {
+		return this._cellStart[cell + 1] - this._cellStart[cell];
+	}
+
+	/** @return The number of cells along each side of the grid. */
+	/* package */ final int getCellsPerSide() { return this._cellsPerSide; }
+
+	/** Find the pairs between the codons in one cell and the codons in
+	 * another.  If the two cells are the same, each pair within the cell is
+	 * found once.
+	 * @return The number of pairs found. */
+	private final int findPairsBetween(Codon[] codons, int cell, int otherCell, PairVisitor visitor) {
+
+		int end = this._cellStart[cell + 1];
+		int otherEnd = this._cellStart[otherCell + 1];
+		double[] x = this._store._x;
+		double[] y = this._store._y;
+		int found = 0;
+
+		for (int a = this._cellStart[cell]; a < end; a++) {
+			int i = this._cellCodons[a];
+			double xi = x[i];
+			double yi = y[i];
+
+			int b = (cell == otherCell) ? a + 1 : this._cellStart[otherCell];
+			for (; b < otherEnd; b++) {
+				int j = this._cellCodons[b];
+				double dx = xi - x[j];
+				double dy = yi - y[j];
+				if (dx * dx + dy * dy <= this._maxDistanceSquared) {
+					found++;
+					if (i > j) {
+						visitor.visit(i, j);
+					} else {
+						visitor.visit(j, i);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+}
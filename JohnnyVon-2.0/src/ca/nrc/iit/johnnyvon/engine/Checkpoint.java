@@ -0,0 +1,536 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.Enumeration;
+import java.util.Properties;
+
+/** Saves the complete state of a simulation every so many iterations, so
+ * that a long run can be carried on from where it got to (see restore())
+ * after the JVM has stopped, for whatever reason.
+ *
+ * A checkpoint is taken between iterations, on the simulation's thread,
+ * by copying the codons' positions, velocities and states, the bond list,
+ * the state of the noise and which codons are asleep into arrays kept for
+ * the purpose.  A background thread writes the copy out, first to a
+ * temporary file that then replaces the checkpoint file, so that there is
+ * always a complete checkpoint on disk.  If the last checkpoint is still being written when the next is
+ * due, the next one waits until the iteration after it has finished, rather
+ * than hold up the simulation.
+ *
+ * The file is big-endian binary: MAGIC and VERSION, the scenario (its
+ * name and properties, with the RandomSeed that was actually used), the
+ * iteration and the number of codons, then each of the store's positions,
+ * angles and velocities for all of the codons in turn, their types, their
+ * CodonStates (CodonState.INTS each), the bond list, the noise's state, the
+ * sleep state (empty if the scenario doesn't sleep; version 1 files, which
+ * can still be read, haven't any), and MAGIC again to show that it's complete.  Restoring maps
+ * the file and reads the arrays in bulk.
+ *
+ * A deterministic run carries on from a checkpoint exactly as if it had
+ * never stopped.  Other runs carry on with the same state and the same
+ * random numbers, but the broadphase may visit neighbouring pairs in a
+ * different order, so the forces can differ in the last bits.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Checkpoint {
+
+	/** The first int of every checkpoint file ("JVCK"). */
+	public static final int MAGIC = 0x4A56434B;
+
+	/** The version of the file format. */
+	public static final int VERSION = 2;
+
+	/** How many iterations apart the checkpoints are, if the scenario doesn't
+	 * say. */
+	public static final int DEFAULT_INTERVAL = 10000;
+
+	/** The size of the buffer that the writer fills before each write. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The file to write to. */
+	private final String _fileName;
+
+	/** How many iterations apart the checkpoints are. */
+	private final int _interval;
+
+	/** The scenario's name and properties, ready to be written. */
+	private final byte[] _scenario;
+
+	// What is checkpointed.
+
+	private final Codon[] _codons;
+	private final CodonStore _store;
+	private final BondList _bondList;
+	private final Noise _noise;
+	private final Sleep _sleep;
+
+	// The copy being written.  The simulation's thread fills it in while
+	// _writing is false, and the writer writes it out while it's true.
+
+	/** The iteration the copy was taken after. */
+	private int _iteration;
+
+	/** Copies of the store's _x, _y, _angle, _velocityX, _velocityY and
+	 * _angularVelocity, in that order. */
+	private final double[][] _doubles;
+
+	/** The type of each codon.  These never change. */
+	private final int[] _types;
+
+	/** The codons' states, as written by CodonState.save(). */
+	private final int[] _states;
+
+	/** The bond list, as written by BondList.save(). */
+	private final int[] _bonds;
+
+	/** The number of bonds in _bonds. */
+	private int _numBonds;
+
+	/** The state of the noise. */
+	private final long[] _noiseState;
+
+	/** Which codons are asleep, as written by Sleep.saveState(), or an empty
+	 * array if the scenario doesn't sleep. */
+	private final int[] _sleepState;
+
+	/** The writer's buffer. */
+	private final ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** Whether a checkpoint is due, but hasn't been taken yet.  Only the
+	 * simulation's thread uses this. */
+	private boolean _due = false;
+
+	/** Whether the writer is busy with the copy. */
+	private volatile boolean _writing = false;
+
+	/** Whether there's a copy for the writer to start on.  Guarded by this. */
+	private boolean _pending = false;
+
+	/** Set once no more checkpoints will be taken. */
+	private volatile boolean _closed = false;
+
+	/** The last problem the writer had, if any. */
+	private volatile IOException _failure;
+
+	/** The number of checkpoints written so far. */
+	private volatile int _written = 0;
+
+	/** Writes the checkpoints. */
+	private final Thread _writer;
+
+	/** Set up checkpointing for a simulation.
+	 * @param fileName The file to write to.  It is replaced each time.
+	 * @param interval How many iterations apart the checkpoints are.
+	 * @param properties The scenarios.
+	 * @param prefix The scenario being simulated.
+	 * @param seed The random seed the simulation actually used.
+	 * @param sleep What puts settled codons to sleep, or null. */
+	/* package */ Checkpoint(String fileName, int interval, Properties properties, String prefix, long seed,
+			Codon[] codons, CodonStore store, BondList bondList, Noise noise, Sleep sleep) throws IOException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("The checkpoint interval must be positive, not " + interval);
+		}
+		this._fileName = fileName;
+		this._interval = interval;
+		this._scenario = encodeScenario(properties, prefix, seed);
+		this._codons = codons;
+		this._store = store;
+		this._bondList = bondList;
+		this._noise = noise;
+		this._sleep = sleep;
+
+		int size = codons.length;
+		this._doubles = new double[6][size];
+		this._types = new int[size];
+		for (int i = 0; i < size; i++) {
+			this._types[i] = codons[i].getType();
+		}
+		this._states = new int[size * CodonState.INTS];
+		this._bonds = new int[bondList.getCapacity()];
+		this._noiseState = new long[size * noise.getStateLongs()];
+		this._sleepState = new int[(sleep == null) ? 0 : size];
+
+		this._writer = new Thread("JohnnyVon Checkpoint Writer") {
+			public void run() { Checkpoint.this.write(); }
+		};
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/** Take a checkpoint, if one is due and the last one has been written.
+	 * This is called by the simulation's thread after every iteration. */
+	/* package */ final void afterIteration(int iteration) {
+		if (iteration % this._interval == 0) this._due = true;
+		if (!this._due || this._writing) return;
+
+		this.copy(iteration);
+		this._due = false;
+		this._writing = true;
+		synchronized (this) {
+			this._pending = true;
+			this.notifyAll();
+		}
+	}
+
+	/** Copy the state of the simulation. */
+	private final void copy(int iteration) {
+		this._iteration = iteration;
+		int size = this._codons.length;
+		CodonStore store = this._store;
+		System.arraycopy(store._x, 0, this._doubles[0], 0, size);
+		System.arraycopy(store._y, 0, this._doubles[1], 0, size);
+		System.arraycopy(store._angle, 0, this._doubles[2], 0, size);
+		System.arraycopy(store._velocityX, 0, this._doubles[3], 0, size);
+		System.arraycopy(store._velocityY, 0, this._doubles[4], 0, size);
+		System.arraycopy(store._angularVelocity, 0, this._doubles[5], 0, size);
+		for (int i = 0; i < size; i++) {
+			this._codons[i].getState().save(this._states, i * CodonState.INTS);
+		}
+		this._numBonds = this._bondList.save(this._bonds);
+		this._noise.saveState(this._noiseState);
+		if (this._sleep != null) this._sleep.saveState(this._sleepState);
+	}
+
+	/** The writer's loop. */
+	private final void write() {
+		while (true) {
+			synchronized (this) {
+				while (!this._pending && !this._closed) {
+					try {
+						this.wait();
+					} catch (InterruptedException ie) { }
+				}
+				if (!this._pending) return;
+				this._pending = false;
+			}
+			try {
+				this.writeFile();
+				this._written++;
+			} catch (IOException ioe) {
+				this._failure = ioe;
+			}
+			this._writing = false;
+		}
+	}
+
+	/** Write the copy to a temporary file, then put it in place of the
+	 * checkpoint file. */
+	private final void writeFile() throws IOException {
+		File file = new File(this._fileName);
+		File temporary = new File(this._fileName + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = out.getChannel();
+			int size = this._codons.length;
+			this._buffer.clear();
+			this.putInt(channel, MAGIC);
+			this.putInt(channel, VERSION);
+			this.putInt(channel, this._scenario.length);
+			this.putBytes(channel, this._scenario);
+			this.putInt(channel, this._iteration);
+			this.putInt(channel, size);
+			for (int k = 0; k < this._doubles.length; k++) {
+				this.putDoubles(channel, this._doubles[k], size);
+			}
+			this.putInts(channel, this._types, size);
+			this.putInts(channel, this._states, this._states.length);
+			this.putInt(channel, this._numBonds);
+			this.putInts(channel, this._bonds, this._numBonds);
+			this.putInt(channel, this._noiseState.length);
+			this.putLongs(channel, this._noiseState, this._noiseState.length);
+			this.putInt(channel, this._sleepState.length);
+			this.putInts(channel, this._sleepState, this._sleepState.length);
+			this.putInt(channel, MAGIC);
+			this.flush(channel);
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+
+		if (!temporary.renameTo(file)) {
+			// Some platforms won't rename over an existing file.
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Couldn't replace " + this._fileName);
+			}
+		}
+	}
+
+	/** Write out everything in the buffer. */
+	private final void flush(FileChannel channel) throws IOException {
+		this._buffer.flip();
+		while (this._buffer.hasRemaining()) {
+			channel.write(this._buffer);
+		}
+		this._buffer.clear();
+	}
+
+	private final void putInt(FileChannel channel, int value) throws IOException {
+		if (this._buffer.remaining() < 4) this.flush(channel);
+		this._buffer.putInt(value);
+	}
+
+	private final void putBytes(FileChannel channel, byte[] values) throws IOException {
+		for (int done = 0; done < values.length; ) {
+			if (!this._buffer.hasRemaining()) this.flush(channel);
+			int n = Math.min(values.length - done, this._buffer.remaining());
+			this._buffer.put(values, done, n);
+			done += n;
+		}
+	}
+
+	private final void putInts(FileChannel channel, int[] values, int length) throws IOException {
+		for (int done = 0; done < length; ) {
+			if (this._buffer.remaining() < 4) this.flush(channel);
+			int n = Math.min(length - done, this._buffer.remaining() / 4);
+			this._buffer.asIntBuffer().put(values, done, n);
+			this._buffer.position(this._buffer.position() + n * 4);
+			done += n;
+		}
+	}
+
+	private final void putLongs(FileChannel channel, long[] values, int length) throws IOException {
+		for (int done = 0; done < length; ) {
+			if (this._buffer.remaining() < 8) this.flush(channel);
+			int n = Math.min(length - done, this._buffer.remaining() / 8);
+			this._buffer.asLongBuffer().put(values, done, n);
+			this._buffer.position(this._buffer.position() + n * 8);
+			done += n;
+		}
+	}
+
+	private final void putDoubles(FileChannel channel, double[] values, int length) throws IOException {
+		for (int done = 0; done < length; ) {
+			if (this._buffer.remaining() < 8) this.flush(channel);
+			int n = Math.min(length - done, this._buffer.remaining() / 8);
+			this._buffer.asDoubleBuffer().put(values, done, n);
+			this._buffer.position(this._buffer.position() + n * 8);
+			done += n;
+		}
+	}
+
+	/** Wait for the checkpoint being written, if there is one, and stop the
+	 * writer.
+	 * @throws IOException If the last checkpoint couldn't be written. */
+	/* package */ final void close() throws IOException {
+		synchronized (this) {
+			this._closed = true;
+			this.notifyAll();
+		}
+		try {
+			this._writer.join();
+		} catch (InterruptedException ie) { }
+		if (this._failure != null) throw this._failure;
+	}
+
+	/** @return The number of checkpoints written so far. */
+	public final int getWritten() {
+		return this._written;
+	}
+
+	/** Write the scenario's name and its properties (without the name in
+	 * front), with the seed as its RandomSeed. */
+	private static byte[] encodeScenario(Properties properties, String prefix, long seed) throws IOException {
+		Properties scenario = new Properties();
+		String start = prefix + ".";
+		for (Enumeration<?> names = properties.propertyNames(); names.hasMoreElements(); ) {
+			String name = (String)names.nextElement();
+			if (name.startsWith(start)) {
+				scenario.setProperty(name.substring(start.length()), properties.getProperty(name));
+			}
+		}
+		scenario.setProperty("RandomSeed", Long.toString(seed));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(prefix);
+		out.writeInt(scenario.size());
+		for (Enumeration<?> names = scenario.propertyNames(); names.hasMoreElements(); ) {
+			String name = (String)names.nextElement();
+			out.writeUTF(name);
+			out.writeUTF(scenario.getProperty(name));
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/** Carry on a simulation from a checkpoint.  The simulator is created
+	 * from the scenario in the checkpoint, and then given the state that was
+	 * saved; its simulate() methods carry on from the checkpoint's iteration.
+	 * If the scenario had an EventLog, a Trajectory or a Populations log, the
+	 * restored simulation's events, frames or counts go to a new file, with
+	 * the iteration added to its name, rather than replace the ones recorded
+	 * so far.  If it had a Checkpoint, it carries on writing
+	 * it.
+	 * @param fileName The checkpoint file.
+	 * @param overrides Properties of the scenario to change (without its
+	 * name in front), e.g. Threads, or null.
+	 * @return The simulator, ready to carry on.
+	 * @throws IOException If the file isn't a checkpoint, or not a complete
+	 * one that this version can read. */
+	public static Simulator restore(String fileName, Properties overrides) throws Exception {
+		ByteBuffer buffer;
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Checkpoint is too big to read: " + fileName);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping stays valid.
+			file.close();
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC) throw new IOException("Not a checkpoint: " + fileName);
+			int version = buffer.getInt();
+			if (version != VERSION && version != 1) throw new IOException("Can't read version " + version + " checkpoints.");
+
+			byte[] scenario = new byte[buffer.getInt()];
+			buffer.get(scenario);
+			int iteration = buffer.getInt();
+			int size = buffer.getInt();
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(scenario));
+			String prefix = in.readUTF();
+			Properties properties = new Properties();
+			for (int count = in.readInt(); count > 0; count--) {
+				String name = in.readUTF();
+				properties.setProperty(prefix + "." + name, in.readUTF());
+			}
+			if (overrides != null) {
+				for (Enumeration<?> names = overrides.propertyNames(); names.hasMoreElements(); ) {
+					String name = (String)names.nextElement();
+					properties.setProperty(prefix + "." + name, overrides.getProperty(name));
+				}
+			}
+			String[] logs = { ".EventLog", ".Trajectory", ".Populations" };
+			for (int i = 0; i < logs.length; i++) {
+				String log = properties.getProperty(prefix + logs[i]);
+				if (log != null) {
+					properties.setProperty(prefix + logs[i], log.trim() + "." + iteration);
+				}
+			}
+
+			Simulator simulator = new Simulator(properties, prefix);
+			Codon[] codons = simulator.getCodons();
+			if (codons.length != size) {
+				throw new IOException("The checkpoint has " + size + " codons, but the scenario makes " + codons.length);
+			}
+
+			CodonStore store = simulator.getStore();
+			getDoubles(buffer, store._x, size);
+			getDoubles(buffer, store._y, size);
+			getDoubles(buffer, store._angle, size);
+			getDoubles(buffer, store._velocityX, size);
+			getDoubles(buffer, store._velocityY, size);
+			getDoubles(buffer, store._angularVelocity, size);
+
+			int[] ints = new int[size * CodonState.INTS];
+			getInts(buffer, ints, size);
+			for (int i = 0; i < size; i++) {
+				if (ints[i] != codons[i].getType()) {
+					throw new IOException("Codon " + i + " was of type " + ints[i] + ", but the scenario makes it " + codons[i].getType());
+				}
+			}
+			getInts(buffer, ints, ints.length);
+			for (int i = 0; i < size; i++) {
+				codons[i].getState().load(ints, i * CodonState.INTS, codons);
+			}
+
+			BondList bondList = simulator.getBondList();
+			int numBonds = buffer.getInt();
+			if (numBonds < 0 || numBonds > bondList.getCapacity()) throw new IOException("Bad number of bonds: " + numBonds);
+			getInts(buffer, ints, numBonds);
+			bondList.restore(ints, numBonds);
+
+			Noise noise = simulator.getNoise();
+			long[] noiseState = new long[buffer.getInt()];
+			if (noiseState.length != size * noise.getStateLongs()) {
+				throw new IOException("The checkpoint's noise doesn't match the scenario's");
+			}
+			buffer.asLongBuffer().get(noiseState);
+			buffer.position(buffer.position() + noiseState.length * 8);
+			noise.restoreState(noiseState);
+
+			// If the scenario has only now been told to sleep (or not to), its
+			// codons all start off awake.
+			if (version > 1) {
+				int sleeping = buffer.getInt();
+				if (sleeping != 0 && sleeping != size) throw new IOException("Bad sleep state: " + sleeping);
+				getInts(buffer, ints, sleeping);
+				Sleep sleep = simulator.getSleep();
+				if (sleeping != 0 && sleep != null) sleep.restoreState(ints);
+			}
+
+			if (buffer.getInt() != MAGIC) throw new IOException("Checkpoint is corrupt: " + fileName);
+
+			simulator.restore(iteration);
+			return simulator;
+
+		} catch (BufferUnderflowException bue) {
+			throw new IOException("Checkpoint is incomplete: " + fileName);
+		}
+	}
+
+	private static void getInts(ByteBuffer buffer, int[] values, int length) {
+		buffer.asIntBuffer().get(values, 0, length);
+		buffer.position(buffer.position() + length * 4);
+	}
+
+	private static void getDoubles(ByteBuffer buffer, double[] values, int length) {
+		buffer.asDoubleBuffer().get(values, 0, length);
+		buffer.position(buffer.position() + length * 8);
+	}
+
+}
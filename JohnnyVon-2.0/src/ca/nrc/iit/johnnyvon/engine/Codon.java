@@ -33,15 +33,19 @@ Postal Contact:
 
 package ca.nrc.iit.johnnyvon.engine;
 
+
 /** An implementation of a Codon that has the desired replication as a
  * behaviour resulting from its configuration.  
+ *
+ * The arithmetic is strictfp and the trigonometry goes through StrictMath,
+ * so that a run can be reproduced exactly on any machine.
  * 
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
  * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
  * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
  */
-public final class Codon {
+public final strictfp class Codon {
 
 	/* Shorthand. */
 	private static final double PI = Math.PI;
@@ -121,23 +125,26 @@ public final class Codon {
 	// interactions occur without duplicating reflexive calculations. 
 	private final int _id;
 
-	/** The linear acceleration that is accumulated based on the forces
-	 * affecting this codon.  (Brownian motion should not modify this, but
-	 * should modify the velocity directly.) */
-	private final Pair _acceleration;
-	
-	/** The angular acceleration that is accumulated based on the forces
-	 * affecting this codon.  (Brownian motion should not modify this, but
-	 * should modify the velocity directly.) */
-	private double _angularAcceleration;
-
-	/** The positions of each arm, updated at the beginning of each timestep.
-	 * Derivable from the codon's position, angle and arm information.
-	 */
-	private final Pair[] _armPositions;
+	/** Where this codon's position, angle and velocities are kept, along
+	 * with the positions of its arms, and the forces and accelerations
+	 * accumulated during the timestep.  Its slots are indexed by its id.
+	 *
+	 * The linear and angular accelerations are accumulated based on the forces
+	 * affecting this codon.  (Brownian motion should not modify these, but
+	 * should modify the velocity directly.)  The positions of each arm are
+	 * updated at the beginning of each timestep.  They're derivable from the
+	 * codon's position, angle and arm information. */
+	private final CodonStore _store;
+
+	/** How the forces on the codon work. */
+	private final SimulationParameters _simulation;
+
+	/** The sizes and strengths of the codon's arms, and how long it takes to
+	 * do things. */
+	private final CodonParameters _parameters;
 		
 	/** True if and only if all existing bond angles are within 
-	 * CodonParameters.FLEX_TOLERANCE.  No new bonds should be formed if we're not within our
+	 * our flex tolerance.  No new bonds should be formed if we're not within our
 	 * flex tolerances.  (This is a derivative of the above "state"
 	 * information, which is why it isn't included there.) */
 	private boolean _withinTolerances;
@@ -152,13 +159,41 @@ public final class Codon {
 	 */
 	private int _bendState;
 
-	/** The forces that are applied to each arm during this timestep. */
-	protected final Pair[] _forces;
+	/** Our up-partner as it was once the pairwise interactions were over,
+	 * before any codon started finishing the timestep.  See
+	 * handleResetCounter(). */
+	private Codon _interactedUp;
+
+	/** Whether we have broken (or tried to break) our up bond since the
+	 * pairwise interactions were over. */
+	private boolean _releasedUp;
+
+	/** The arms (as bits, 1 << arm) whose bonds the pairwise interactions
+	 * left as they were, and that we haven't broken (or tried to break)
+	 * since.  See releaseBond(). */
+	private int _unreleasedArms;
+
+	/** Where bond changes are recorded, if anywhere. */
+	private BondList _bondList;
+
+	/** Where new bonds are proposed.  If this is null, they're formed as soon
+	 * as they're found. */
+	private BondProposals _proposals;
+
+	/** Where the things that happen to this codon are recorded. */
+	private EventLog _events = EventLog.NONE;
 
 	/** Create a codon.
+	 *
+	 * @param store Where the codon's position and so on are kept.
+	 *
+	 * @param simulation How the forces on the codon work.
+	 *
+	 * @param parameters The sizes and strengths of the codon's arms, and so on.
 	 *
 	 * @param id The id of this codon.  Each codon should have a unique ID.
-	 * They are used to optimize certain symmetrical calculations. 
+	 * They are used to optimize certain symmetrical calculations, and as the
+	 * codon's index into the store.
 	 *
 	 * @param position The starting location of this codon. 
 	 *
@@ -174,22 +209,40 @@ public final class Codon {
 	 * @param hasSplit Whether this codon should be treated as one that has
 	 * split in the past.
 	 */
-	public Codon(int id, Pair position, double angle, Pair velocity, double	angularVelocity, int type, boolean hasSplit, boolean isReplicationSeed) {
+	/* package */ Codon(CodonStore store, SimulationParameters simulation, CodonParameters parameters, int id, Pair position, double angle, Pair velocity, double	angularVelocity, int type, boolean hasSplit, boolean isReplicationSeed) {
+		this._store = store;
+		this._simulation = simulation;
+		this._parameters = parameters;
 		this._id = id;
 		this._type = type;
 		
-		this._state = new CodonState(position, angle, velocity, angularVelocity, hasSplit, isReplicationSeed);
-		this._timestep = new CodonState(position, angle, velocity, angularVelocity, hasSplit, isReplicationSeed);
+		this._state = new CodonState(hasSplit, isReplicationSeed);
+		this._timestep = new CodonState(hasSplit, isReplicationSeed);
+
+		store._x[id] = position.x;
+		store._y[id] = position.y;
+		store._angle[id] = angle;
+		store._nextAngle[id] = angle;
+		store._velocityX[id] = velocity.x;
+		store._velocityY[id] = velocity.y;
+		store._angularVelocity[id] = angularVelocity;
+		store._nextAngularVelocity[id] = angularVelocity;
 
-		this._acceleration = new Pair();
-		this._armPositions = new Pair[CodonParameters.NUM_ARMS];
-		this._forces = new Pair[CodonParameters.NUM_ARMS];
+	}
 
-		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
-			this._armPositions[i] = new Pair();
-			this._forces[i] = new Pair();
-		}
+	/** Tell this codon where to record the bonds it forms and breaks. */
+	/* package */ final void setBondList(BondList bondList) {
+		this._bondList = bondList;
+	}
 
+	/** Tell this codon where to record what happens to it. */
+	/* package */ final void setEventLog(EventLog events) {
+		this._events = events;
+	}
+
+	/** Tell this codon where to propose new bonds. */
+	/* package */ final void setBondProposals(BondProposals proposals) {
+		this._proposals = proposals;
 	}
 
 	/** Initialize things that need to be initialized for a timestep. */
@@ -199,22 +252,9 @@ public final class Codon {
 		// TODO: We can get rid of one of these copyFrom calls, with a bit of
 		// care.
 		this._timestep.copyFrom(this._state);
+		this._store.startTimestep(this._id);
 
-		this._acceleration.setZero();
-		this._angularAcceleration = 0.0;
-
-		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
-			double angle = this._state._angle + CodonParameters.ARM_ANGLE[i];
-
-			// Update the arm positions.
-			this._armPositions[i].x = this._state._position.x + Math.cos(angle) * CodonParameters.ARM_LENGTH[i];
-			this._armPositions[i].y = this._state._position.y + Math.sin(angle) * CodonParameters.ARM_LENGTH[i];
-
-			this._forces[i].setZero();
-
-			assert this._timestep._bonds[i] == this._state._bonds[i]: "Bonds buggy for " + this + "@" + i + " was: " + this._timestep._bonds[i] + " is " + this._state._bonds[i];
-
-		}
+		this.placeArms();
 
 		if (this._state._splittingState == CodonState.SPLIT_GO) {
 			this._timestep._repelIterations++;
@@ -226,13 +266,7 @@ public final class Codon {
 
 		// We care fairly frequently about being bonded, so we calculate this
 		// and cache the result for each timestep.
-		this._bonded = false;
-		for (int i = 0; i < this._state._bonds.length; i++) {
-			if (this._state._bonds[i] != null) {
-				this._bonded = true;
-				break;
-			}
-		}
+		this._bonded = this.hasBonds();
 
 		// Cannot be folded if we aren't bonded, unless we're still dealing with
 		// a shatter.
@@ -263,6 +297,69 @@ public final class Codon {
 		
 	}
 
+	/** Zero the accelerations and the forces on the arms, and put the arms
+	 * where they are at the start of the timestep. */
+	private final void placeArms() {
+		CodonParameters parameters = this._parameters;
+		CodonStore store = this._store;
+		int id = this._id;
+
+		store._accelerationX[id] = 0.0;
+		store._accelerationY[id] = 0.0;
+		store._angularAcceleration[id] = 0.0;
+
+		double cos = StrictMath.cos(store._angle[id]);
+		double sin = StrictMath.sin(store._angle[id]);
+
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			// The cosine and sine of the arm's angle, from those of the codon's
+			// angle and the arm's angle relative to it.
+			double armCos = cos * CodonParameters.ARM_COS[i] - sin * CodonParameters.ARM_SIN[i];
+			double armSin = sin * CodonParameters.ARM_COS[i] + cos * CodonParameters.ARM_SIN[i];
+
+			// Update the arm positions.
+			int a = id * CodonParameters.NUM_ARMS + i;
+			store._armX[a] = store._x[id] + armCos * parameters._armLength[i];
+			store._armY[a] = store._y[id] + armSin * parameters._armLength[i];
+
+			store._forceX[a] = 0.0;
+			store._forceY[a] = 0.0;
+
+			assert this._timestep._bonds[i] == this._state._bonds[i]: "Bonds buggy for " + this + "@" + i + " was: " + this._timestep._bonds[i] + " is " + this._state._bonds[i];
+
+		}
+	}
+
+	/** @return Whether this codon has any bonds, as of the start of the
+	 * timestep. */
+	private final boolean hasBonds() {
+		for (int i = 0; i < this._state._bonds.length; i++) {
+			if (this._state._bonds[i] != null) return true;
+		}
+		return false;
+	}
+
+	/** Stop, and get ready to sleep (see Sleep): put the arms where they are,
+	 * for the awake codons around to interact with, and leave everything
+	 * else as it is.  A codon restored asleep from a checkpoint is set up the
+	 * same way, so this mustn't depend on anything but this codon's own
+	 * definitive state.  (A codon in the mesh is within tolerance just when
+	 * its last timestep found it so, i.e. when it hasn't been counting
+	 * iterations out of tolerance.) */
+	/* package */ final void sleep() {
+		CodonStore store = this._store;
+		int id = this._id;
+		store._velocityX[id] = 0.0;
+		store._velocityY[id] = 0.0;
+		store._angularVelocity[id] = 0.0;
+
+		this._timestep.copyFrom(this._state);
+		store.startTimestep(id);
+		this.placeArms();
+		this._bonded = this.hasBonds();
+		this._withinTolerances = (this._state._iterationsOutOfTolerance == 0);
+	}
+
 	/** Check that all arm angles are within the desired tolerance.  If any of
 	 * them isn't, we're either in a state of change (i.e. folding up) or in a
 	 * state of stress (caught in some bad position).  In either case, we will
@@ -270,7 +367,7 @@ public final class Codon {
 	 */
 	private void checkTolerances() {
 			
-		// Assume we're within CodonParameters.FLEX_TOLERANCE on all arms, look for one that
+		// Assume we're within our flex tolerance on all arms, look for one that
 		// isn't.
 		this._withinTolerances = true;
 
@@ -283,20 +380,20 @@ public final class Codon {
 		
 	}
 
-	/** Is the given arm within CodonParameters.FLEX_TOLERANCE?
+	/** Is the given arm within our flex tolerance?
 	 */
 	public boolean isArmWithinTolerance(int arm) {
 		if (this._state._bonds[arm] != null) {
 			Codon other = this._state._bonds[arm];
 			int otherArm = CodonParameters.BOND_ARM[arm];
 
-			double difference = PI + (this._state._angle + CodonParameters.ARM_ANGLE[arm]) - (other._state._angle + CodonParameters.ARM_ANGLE[otherArm]);
+			double difference = PI + (this._store._angle[this._id] + CodonParameters.ARM_ANGLE[arm]) - (this._store._angle[other._id] + CodonParameters.ARM_ANGLE[otherArm]);
 			if (this._state._folded) {	
 				difference -= CodonParameters.JOINT_ANGLE[arm][this._type][other._type];
 			}
 
 			difference = this.normalize(difference);
-			if (Math.abs(difference) > CodonParameters.FLEX_TOLERANCE) {
+			if (Math.abs(difference) > this._parameters._flexTolerance) {
 				return false;
 			}
 		}
@@ -304,9 +401,14 @@ public final class Codon {
 	}
 
 	private void handleResetCounter() {
-		// If we gained an up-partner during this timestep and we aren't folded,
-		// then trigger a _resetCounter.
-		if (this._timestep._bonds[CodonParameters.UP_ARM] != this._state._bonds[CodonParameters.UP_ARM] && !this._state._folded) {
+		// If our up-partner changed during this timestep and we aren't folded,
+		// then trigger a _resetCounter.  (Our up-partner may also be breaking
+		// off in its own updateState(), possibly on another thread, so go by
+		// the bond as it was before anyone started finishing, less any break
+		// we've made ourselves.  A break made by our partner is dealt with in
+		// copyStates(), once it's certain to have happened.)
+		Codon up = this._releasedUp ? null : this._interactedUp;
+		if (up != this._state._bonds[CodonParameters.UP_ARM] && !this._state._folded) {
 			this._timestep._resetCounter = true;
 		}
 
@@ -368,9 +470,9 @@ public final class Codon {
 			// codons, because of the _resetCounter signal/state.
 
 			Codon left = this._state._bonds[CodonParameters.LEFT_ARM];
-			if ((this._state._iterationsSinceSplit >= CodonParameters.ITERATIONS_AFTER_SPLIT && left == null && this._state._splittingState != CodonState.SPLIT_GO && this._state._splittingState != CodonState.SPLIT_SHATTER && !this._state._isReplicationSeed)
+			if ((this._state._iterationsSinceSplit >= this._parameters._iterationsAfterSplit && left == null && this._state._splittingState != CodonState.SPLIT_GO && this._state._splittingState != CodonState.SPLIT_SHATTER && !this._state._isReplicationSeed)
 					|| (left != null && left._state._folded && !left._state._unfoldSignal)) {
-				System.out.println("State: (" + this + ") folded");
+				this._events.record(EventLog.FOLD, EventLog.NO_REASON, this._id);
 				assert (this._state._hasSplit);
 				this._timestep._folded = true;
 				this._timestep._iterationsSinceSplit = 0;
@@ -381,19 +483,56 @@ public final class Codon {
 			// Check if our partner folded, so we should shatter off.
 			if (other != null && (other._state._folded)) { 
 				this._timestep._splittingState = CodonState.SPLIT_SHATTER;
-				this.changeBond(CodonParameters.UP_ARM, null, "partner folded");
+				this.releaseBond(CodonParameters.UP_ARM, EventLog.PARTNER_FOLDED);
 			} 	
 
 		}
 
 	}
 
-	/** Change the given arm's bond.  This is silently ignored if the bond has
-	 * already been changed during this timestep. 
+	/** Break the given arm's bond while finishing the timestep.  This is
+	 * silently ignored if the bond had already been changed before the codons
+	 * started finishing, or if we've already broken it since.
+	 *
+	 * This is the only place that a codon changes another codon's _timestep
+	 * outside of the pairwise interactions.  Both ends of a bond may break it
+	 * at once, on different threads, so this goes by the bonds as the
+	 * pairwise interactions left them (see endInteractions()), never by our
+	 * partner's half of the bond, which it may be clearing as we look.  Both
+	 * ends record their breaks in the BondList, which only keeps the one made
+	 * by the codon with the lower id, as when the codons were finished one at
+	 * a time, in order of id.
+	 *
+	 * @param reason Why it's being broken, for the EventLog.  (Breaks are
+	 * recorded by the BondList, once they're certain.)
+	 */
+	private final void releaseBond(int arm, int reason) {
+		if (arm == CodonParameters.UP_ARM) this._releasedUp = true;
+
+		int bit = 1 << arm;
+		if ((this._unreleasedArms & bit) == 0) return;
+		this._unreleasedArms &= ~bit;
+
+		Codon oldBond = this._state._bonds[arm];
+		if (oldBond != null) {
+			oldBond._timestep._bonds[CodonParameters.BOND_ARM[arm]] = null;
+			this._timestep._bonds[arm] = null;
+			if (this._bondList != null) this._bondList.remove(this, arm, oldBond, EventLog.BREAK, reason);
+		}
+	}
+
+	/** Change the given arm's bond during the pairwise interactions, or while
+	 * forming the proposed bonds.  This is silently ignored if the bond has
+	 * already been changed during this timestep.  (The codons of a pair are
+	 * only ever interacted on one thread at a time, so both of their halves
+	 * of the bond can be read.)
+	 *
+	 * @param reason Why a bond is being broken, for the EventLog.  (Breaks
+	 * are recorded by the BondList, once they're certain.)
 	 *
 	 * @return true if the change was successful, false otherwise.
 	 */
-	private final boolean changeBond(int arm, Codon newBond, String reason) {
+	private final boolean changeBond(int arm, Codon newBond, int reason) {
 
 		int otherArm = CodonParameters.BOND_ARM[arm];
 
@@ -403,13 +542,12 @@ public final class Codon {
 			Codon oldBond = this._state._bonds[arm];
 
 			if (newBond == null && oldBond != null && oldBond._state._bonds[otherArm] == oldBond._timestep._bonds[otherArm]) {
-				System.out.println("Bond: (" + this._id + " @ " + arm + "," +
-				oldBond._id + " @ " + otherArm + ") broken: " + reason + ". <" + this._state + "," + oldBond._state + ">.");
 				// Check if we have a bond -- if so, tell our partner to break.  (If
 				// the new bond is null and the old bond is null, we don't need to
 				// do anything.)
 				oldBond._timestep._bonds[otherArm] = null;
 				this._timestep._bonds[arm] = null;
+				if (this._bondList != null) this._bondList.remove(this, arm, oldBond, EventLog.BREAK, reason);
 				return true;
 				
 			} else if (newBond != null && (newBond._state._bonds[otherArm] == newBond._timestep._bonds[otherArm])) {
@@ -421,9 +559,10 @@ public final class Codon {
 				// Here, if we're actually breaking a bond and replacing it (seems
 				// unlikely to occur?), then we need to tell the old bond that much.
 				if (oldBond != null) {
-					System.out.println("Bond switch!");
 					oldBond._timestep._bonds[otherArm] = null;
+					if (this._bondList != null) this._bondList.remove(this, arm, oldBond, EventLog.SWITCH, EventLog.NO_REASON);
 				}
+				if (this._bondList != null) this._bondList.add(this, arm, newBond);
 				return true;
 
 			} // else do nothing.
@@ -440,7 +579,9 @@ public final class Codon {
 		// either one of us has no bonds.  (If one of us has bonds, it's
 		// conceivable that we're bonded to each other, although this should be
 		// impossible..)
-		if (this._state._position.getDistanceSquared(other._state._position) > (4 * CodonParameters.MAX_INTERACTION_RADIUS * CodonParameters.MAX_INTERACTION_RADIUS)) {
+		double dx = this._store._x[this._id] - this._store._x[other._id];
+		double dy = this._store._y[this._id] - this._store._y[other._id];
+		if (dx * dx + dy * dy > (this._parameters._interactionDistanceSquared)) {
 			if (!this._bonded || !other._bonded) { 
 				return;
 			} else {
@@ -455,6 +596,20 @@ public final class Codon {
 			}
 		}
 
+		this.interactPair(other, firstRun);
+	}
+
+	/** Interact with another codon, without first checking whether we're
+	 * close enough to bother.  The Simulator only asks codons that are within
+	 * reach of each other, or bonded to each other, to interact. */
+	/* package */ final void interactPair(Codon other, boolean firstRun) {
+
+		// Sleepers hold each other where they are.  (See Sleep.)
+		byte[] sleep = this._store._sleep;
+		if (sleep[this._id] != CodonStore.AWAKE && sleep[other._id] != CodonStore.AWAKE) {
+			return;
+		}
+
 		if (this._state._splittingState == CodonState.SPLIT_GO) {
 			// Up arms don't do anything during a split, but they need to be
 			// called to make sure bonding information is being updated.
@@ -532,23 +687,37 @@ public final class Codon {
 	/** Interact two arms, applying forces to the codons on each end, etc.  
 	 */
 	private final void interactArms(Codon other, int myArm, int otherArm, int forceDirection, int forceType, boolean canBond) {
+		CodonParameters parameters = this._parameters;
+		this._store._armInteractions[this._id * CodonParameters.NUM_ARMS + myArm]++;
 
 		boolean bonded = (this._state._bonds[myArm] == other);
 		// Bonding must be bidirectional
 		assert bonded == (other._state._bonds[otherArm] == this);
 
 		// Get the distance, and its square.
-		double distSq = this._armPositions[myArm].getDistanceSquared(other._armPositions[otherArm]);
+		double distSq = this.getArmDistanceSquared(other, myArm, otherArm);
 		double dist = Math.sqrt(distSq);
 
-		if (!bonded && (dist > CodonParameters.FIELD_RADIUS[myArm] + CodonParameters.FIELD_RADIUS[otherArm])) {
+		if (!bonded && (dist > parameters._fieldRadius[myArm] + parameters._fieldRadius[otherArm])) {
 			return;
 		}
+
+		// An awake codon has reached a sleeping one, so the sleeper has to wake,
+		// unless the awake one is settled in the mesh beside it, and held still
+		// in the last timestep.  (If it stirs, it wakes the codons it's bonded
+		// to; see Sleep.finished().)  The sleeper is only written as the forces
+		// on its arms are, so this is as safe from any thread as they are.
+		CodonStore store = this._store;
+		if (store._sleep[this._id] == CodonStore.ASLEEP) {
+			if (!other._state._inMesh || store._quiet[other._id] == 0) this.touch(this);
+		} else if (store._sleep[other._id] == CodonStore.ASLEEP) {
+			if (!this._state._inMesh || store._quiet[this._id] == 0) this.touch(other);
+		}
 			
 		// Figure out which radii we want for each arm.	
-		double myRadius = CodonParameters.FIELD_RADIUS[myArm];
+		double myRadius = parameters._fieldRadius[myArm];
 
-		double otherRadius = CodonParameters.FIELD_RADIUS[otherArm];
+		double otherRadius = parameters._fieldRadius[otherArm];
 
 		// check if they're touching.
 		boolean touching = dist < (myRadius + otherRadius);
@@ -556,9 +725,9 @@ public final class Codon {
 		if (!touching) {
 			if (bonded) {
 				// break the bond.
-				this.changeBond(myArm, null, "not touching");
+				this.changeBond(myArm, null, EventLog.NOT_TOUCHING);
 				if (this._state._hasSplit && (myArm == CodonParameters.LEFT_ARM || myArm == CodonParameters.RIGHT_ARM)) {
-					System.out.println("Split codon lost partner!");
+					this._events.record(EventLog.LOST_PARTNER, EventLog.NO_REASON, this._id, other._id, myArm, otherArm, 0f);
 				}
 
 				boolean splitting = 
@@ -571,7 +740,7 @@ public final class Codon {
 				// always shatter, even if we're SPLIT_GO.
 
 				if (!splitting || myArm != CodonParameters.UP_ARM) {
-					System.out.println("Broken bond -> Shatter self and partner!");
+					this._events.record(EventLog.SHATTER, EventLog.BROKEN_BOND, this._id, other._id, myArm, otherArm, 0f);
 					this._timestep._splittingState = CodonState.SPLIT_SHATTER;
 					other._timestep._splittingState = CodonState.SPLIT_SHATTER;
 				} 
@@ -606,37 +775,83 @@ public final class Codon {
 			// Figure out the angle difference to see if we should bond.
 			// The angle difference is adjusted by PI because we want them to be at
 			// 180 degrees, not the same angle.
-			double difference = PI + this._state._angle + CodonParameters.ARM_ANGLE[myArm] - (other._state._angle + CodonParameters.ARM_ANGLE[otherArm]);
+			double difference = PI + this._store._angle[this._id] + CodonParameters.ARM_ANGLE[myArm] - (this._store._angle[other._id] + CodonParameters.ARM_ANGLE[otherArm]);
 			if (this._state._folded) {
 				assert other._state._folded;
 				difference -= CodonParameters.JOINT_ANGLE[myArm][this._type][other._type];
 			}
 		
-			double tolerance = CodonParameters.BOND_TOLERANCE[myArm] + CodonParameters.BOND_TOLERANCE[otherArm];
+			double tolerance = parameters._bondTolerance[myArm] + parameters._bondTolerance[otherArm];
 			difference = this.normalize(difference);
 
 			if ((difference <= tolerance) && (-difference <= tolerance)) {
 				// If we're inside the radius of both codons, and our angles are
-				// sufficiently close, and we haven't already bonded to someone else in
-				// this timestep, then bond.
-				
-				System.out.println("Bond: (" + this._id + ", " + other._id + ")\tbonding @ (" + myArm + ", " + otherArm + ")\t (" + this._state + " ; " + other._state + ")]\tBonded: <" + this.isBonded()+ ", " + other.isBonded() + ">\tangle: " + difference);
-				// create a bond
-				this.changeBond(myArm, other, "bonded");
-				bonded = true;
-
-			} else return;
+				// sufficiently close, then propose a bond.  It forms (and pulls the
+				// codons together) once all the pairs have been interacted, unless
+				// one of the arms has found a better partner.
+				if (this._proposals != null) {
+					this._proposals.propose(this, myArm, other, otherArm, forceType, difference);
+				} else {
+					this.formBond(other, myArm, otherArm, forceType, difference);
+				}
+			}
+			return;
 		} 
-			
+
+		this.applyArmForces(other, myArm, otherArm, forceDirection, forceType, dist);
+	}
+
+	/** Bond one of our arms to one of another codon's, and apply the new
+	 * bond's forces for this timestep.  Nothing happens if either arm has
+	 * already changed in this timestep.
+	 * @param difference How far the arms are from lining up, for the record.
+	 * @return Whether the bond formed. */
+	/* package */ final boolean formBond(Codon other, int myArm, int otherArm, int forceType, double difference) {
+		if (!this.changeBond(myArm, other, EventLog.NO_REASON)) {
+			return false;
+		}
+		this._events.record(EventLog.BOND, EventLog.NO_REASON, this._id, other._id, myArm, otherArm, (float)difference);
+
+		double dist = Math.sqrt(this.getArmDistanceSquared(other, myArm, otherArm));
+		this.applyArmForces(other, myArm, otherArm, ATTRACT, forceType, dist);
+		return true;
+	}
+
+	/** @return The square of the distance between the tip of one of our arms
+	 * and the tip of one of another codon's. */
+	private final double getArmDistanceSquared(Codon other, int myArm, int otherArm) {
+		int a = this._id * CodonParameters.NUM_ARMS + myArm;
+		int b = other._id * CodonParameters.NUM_ARMS + otherArm;
+		double dx = this._store._armX[a] - this._store._armX[b];
+		double dy = this._store._armY[a] - this._store._armY[b];
+		return dx * dx + dy * dy;
+	}
+
+	/** Apply the forces between two arms that are touching or bonded.
+	 * @param dist The distance between the tips of the arms. */
+	private final void applyArmForces(Codon other, int myArm, int otherArm, int forceDirection, int forceType, double dist) {
+		CodonParameters parameters = this._parameters;
+		SimulationParameters simulation = this._simulation;
+
+		double myRadius = parameters._fieldRadius[myArm];
+		double otherRadius = parameters._fieldRadius[otherArm];
+
+		CodonStore store = this._store;
+		int a = this._id * CodonParameters.NUM_ARMS + myArm;
+		int b = other._id * CodonParameters.NUM_ARMS + otherArm;
 
 		/*assert ((bonded && touching && forceDirection == ATTRACT) 
 				|| (touching && forceDirection == REPEL) 
 				|| forceDirection == NONE); */
 
 		// Create a unit vector pointing from this's arm to the other's arm.
-		Pair force = (Pair)this._armPositions[myArm].clone();
-		force.subtract(other._armPositions[otherArm]);
-		force.normalize();
+		// This (and everything else in the timestep) is done with plain
+		// doubles rather than Pairs, so that nothing is allocated.
+		double forceX = store._armX[a] - store._armX[b];
+		double forceY = store._armY[a] - store._armY[b];
+		double scale = 1.0 / Math.sqrt(forceX * forceX + forceY * forceY);
+		forceX *= scale;
+		forceY *= scale;
 
 		double rotationalAcceleration = 0.0;
 		double targetAngle = 0.0;
@@ -668,16 +883,16 @@ public final class Codon {
 					// This is the angle that we want to the codons to end
 					// up at, with respect to the current interaction.
 					// TODO: Why is this negative??!
-					targetAngle += -CodonParameters.ARM_ANGLE[myArm] + Math.atan2(-this._state._position.y + other._state._position.y, -this._state._position.x + other._state._position.x);
+					targetAngle += -CodonParameters.ARM_ANGLE[myArm] + StrictMath.atan2(-store._y[this._id] + store._y[other._id], -store._x[this._id] + store._x[other._id]);
 
 					// Make it be between -PI and PI
-					rotationAngle = this.normalize(targetAngle - this._state._angle );
+					rotationAngle = this.normalize(targetAngle - store._angle[this._id]);
 					
 					// Decrease the force with ln.  Have to deal with negative
 					// rotations.
 
-					this._angularAcceleration += rotationAngle * CodonParameters.STRAIGHTENING_FORCE[myArm];
-					other._angularAcceleration -= rotationAngle * CodonParameters.STRAIGHTENING_FORCE[otherArm];
+					store._angularAcceleration[this._id] += rotationAngle * parameters._straighteningForce[myArm];
+					store._angularAcceleration[other._id] -= rotationAngle * parameters._straighteningForce[otherArm];
 				}
 
 				// switch case FALL-THROUGH!
@@ -686,35 +901,35 @@ public final class Codon {
 				// A spring that is attracting acts like a spring being stretched - it
 				// pulls more the farther away you are.
 				if (forceDirection == ATTRACT) {
-					double scalar = (CodonParameters.ARM_FORCE[myArm] / (myRadius + otherRadius)) * dist;
+					double scalar = (parameters._armForce[myArm] / (myRadius + otherRadius)) * dist;
 					if (scalar == 0) {
-						force.x = 0; force.y = 0;
+						forceX = 0; forceY = 0;
 					} else {
-						force.scale(-scalar);
+						forceX *= -scalar;
+						forceY *= -scalar;
 					}
 
 					// Dampen this pair towards their average velocity
-					Pair centerOfMassVel = (Pair)this._state._velocity.clone();
-					centerOfMassVel.add(other._state._velocity);
-					centerOfMassVel.scale(0.5);
-
-					Pair relativeVelocity = (Pair)this._state._velocity.clone();
-					relativeVelocity.subtract(centerOfMassVel);
+					double centerOfMassVelX = (store._velocityX[this._id] + store._velocityX[other._id]) * 0.5;
+					double centerOfMassVelY = (store._velocityY[this._id] + store._velocityY[other._id]) * 0.5;
 
 					// Dampen it, and turn it into an acceleration
-					relativeVelocity.scale(SimulationParameters.LINEAR_SPRING_DAMPING_FACTOR);
+					double relativeVelocityX = (store._velocityX[this._id] - centerOfMassVelX) * simulation._linearSpringDampingFactor;
+					double relativeVelocityY = (store._velocityY[this._id] - centerOfMassVelY) * simulation._linearSpringDampingFactor;
 
-					//assert (relativeVelocity.isFinite());
-					this._acceleration.subtract(relativeVelocity);
-					other._acceleration.add(relativeVelocity);
+					store._accelerationX[this._id] -= relativeVelocityX;
+					store._accelerationY[this._id] -= relativeVelocityY;
+					store._accelerationX[other._id] += relativeVelocityX;
+					store._accelerationY[other._id] += relativeVelocityY;
 					
 				} else if (forceDirection == REPEL) {
 					
 					// A spring that is repelling acts like a spring under compression -
 					// it pushes more and more the closer you get.
-					force.scale(forceDirection * (CodonParameters.ARM_FORCE[myArm] / CodonParameters.FIELD_RADIUS[myArm])
-							* (CodonParameters.FIELD_RADIUS[myArm] + CodonParameters.FIELD_RADIUS[otherArm] - dist) );
-					force.negate();
+					double scalar = forceDirection * (parameters._armForce[myArm] / parameters._fieldRadius[myArm])
+							* (parameters._fieldRadius[myArm] + parameters._fieldRadius[otherArm] - dist);
+					forceX = -(forceX * scalar);
+					forceY = -(forceY * scalar);
 					
 				} else {
 					// No force actually acting.  The call to interact() was made just to
@@ -726,19 +941,26 @@ public final class Codon {
 		}
 
 		if (forceDirection != NONE) {
-			this._forces[myArm].add(force);
-			other._forces[otherArm].subtract(force);
+			store._forceX[a] += forceX;
+			store._forceY[a] += forceY;
+			store._forceX[b] -= forceX;
+			store._forceY[b] -= forceY;
 		}
 	 
 	}
 
-	/** Modify the velocity of this codon with some brownian motion. */
+	/** Modify the velocity of this codon with some brownian motion.  The
+	 * random kicks have already been put in the store by the simulation's
+	 * Noise. */
 	private final void brownianMotion() {
+		SimulationParameters simulation = this._simulation;
 		// See e.g. http://en.wikipedia.org/wiki/Talk:Brownian_motion
-		double tsSqrt = Math.sqrt(SimulationParameters.TIMESTEP_DURATION);
-		this._timestep._velocity.x += tsSqrt * (Math.random() - 0.5) * SimulationParameters.LINEAR_BROWNIAN_MOTION;
-		this._timestep._velocity.y += tsSqrt * (Math.random() - 0.5) * SimulationParameters.LINEAR_BROWNIAN_MOTION;
-		this._timestep._angularVelocity += tsSqrt * (Math.random() - 0.5) * SimulationParameters.ANGULAR_BROWNIAN_MOTION;
+		double tsSqrt = simulation._timestepSqrt;
+		double[] kicks = this._store._kicks;
+		int k = this._id * Noise.KICKS;
+		this._store._velocityX[this._id] += tsSqrt * (kicks[k] - 0.5) * simulation._linearBrownianMotion;
+		this._store._velocityY[this._id] += tsSqrt * (kicks[k + 1] - 0.5) * simulation._linearBrownianMotion;
+		this._store._nextAngularVelocity[this._id] += tsSqrt * (kicks[k + 2] - 0.5) * simulation._angularBrownianMotion;
 	}
 
 	/** Figure out which of the bending states this codon is in.  It might be
@@ -774,11 +996,44 @@ public final class Codon {
 		this.updatePositions(containerSize);
 	}
 
+	/** Note our up-partner as it is now that the pairwise interactions are
+	 * over.  This must be called for <em>all</em> codons before
+	 * finishTimestep() is called for any of them. */
+	/* package */ final void endInteractions() {
+		this._interactedUp = this._timestep._bonds[CodonParameters.UP_ARM];
+		this._releasedUp = false;
+		this._unreleasedArms = 0;
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			if (this._timestep._bonds[i] == this._state._bonds[i]) this._unreleasedArms |= 1 << i;
+		}
+	}
+
 	/** Moves all of the changes accumulated during the passed timestep to the
 	 * definitive state.  This must be called after finishTimestep() has been
 	 * called for <em>all</em> codons. */
 	public void copyStates() {
+		// If our up-partner broke our bond while finishing, that triggers a
+		// _resetCounter as a change seen in handleResetCounter() would, but only
+		// if the partner has the lower id.  (That's how it was when the codons
+		// were finished one at a time, in order of id, and a _resetCounter set
+		// by a partner with a higher id would have been too late.)
+		Codon up = this._state._bonds[CodonParameters.UP_ARM];
+		if (up != null && up == this._interactedUp && up._releasedUp && up._id < this._id 
+				&& !this._state._folded && !this._state._resetCounter) {
+			this._timestep._resetCounter = true;
+		}
 		this._state.copyFrom(this._timestep);
+		this._store.copyState(this._id);
+	}
+
+	/** Copy the states, as copyStates() does, and move the codon to its new
+	 * columns of the population, if they've changed.
+	 * @param worker The worker doing the copying. */
+	/* package */ final void copyStates(Population population, int worker) {
+		int before = Population.getColumns(this._state);
+		this.copyStates();
+		int after = Population.getColumns(this._state);
+		if (after != before) population.change(worker, before, after);
 	}
 
 	/** Update the state of this codon.  Must be called before updateBonds().*/
@@ -826,14 +1081,14 @@ public final class Codon {
 		// unfold signal if we haven't unfolded successfully yet.
 
 		boolean triggerUnfold = (overlap != null && this._id < overlap._id)
-			|| (this._timestep._iterationsOutOfTolerance > CodonParameters.ITERATIONS_OUT_OF_TOLERANCE && up != null && this._id < up._id);
+			|| (this._timestep._iterationsOutOfTolerance > this._parameters._iterationsOutOfTolerance && up != null && this._id < up._id);
 
 		boolean propagateUnfold = 
 			(this._state._folded && (
 				(left != null && left._state._unfoldSignal)
 				|| (right != null && right._state._unfoldSignal)))
 			|| (overlap != null && this._id < overlap._id)
-			|| (this._timestep._iterationsOutOfTolerance > CodonParameters.ITERATIONS_OUT_OF_TOLERANCE && up != null && this._id < up._id)
+			|| (this._timestep._iterationsOutOfTolerance > this._parameters._iterationsOutOfTolerance && up != null && this._id < up._id)
 			|| (this._state._unfoldSignal && (this._state._folded || up != null));
 
 		// We change this now; we don't assume that it actually worked until the
@@ -841,8 +1096,8 @@ public final class Codon {
 		// properly unfolded.
 		if (triggerUnfold || propagateUnfold) {
 			this._timestep._unfoldSignal = true;
-			this.changeBond(CodonParameters.UP_ARM, null, "unfolding: " + triggerUnfold + "," + propagateUnfold);
-			this.changeBond(CodonParameters.OVERLAP_ARM, null, "unfolding: " + triggerUnfold + "," + propagateUnfold);
+			this.releaseBond(CodonParameters.UP_ARM, EventLog.UNFOLDING);
+			this.releaseBond(CodonParameters.OVERLAP_ARM, EventLog.UNFOLDING);
 			this._timestep._folded = false;
 			this._timestep._inMesh = false;
 
@@ -850,11 +1105,11 @@ public final class Codon {
 			// Only if we're the source of the unfolding, break our right bond, so
 			// that we can unfold properly.)
 			if (triggerUnfold) {
-				System.out.println("\nTriggering unfold from overlap: " + this + ", " + overlap);
+				this._events.record(EventLog.UNFOLD, EventLog.TRIGGERED, this._id, (overlap == null) ? -1 : overlap._id, -1, -1, 0f);
 				//try { System.in.read(); } catch (Exception e) { }
-				this.changeBond(CodonParameters.RIGHT_ARM, null, "Unfolding-break");
+				this.releaseBond(CodonParameters.RIGHT_ARM, EventLog.UNFOLDING_BREAK);
 			} else {
-				System.out.println("\nPropagating unfold from overlap: " + this);
+				this._events.record(EventLog.UNFOLD, EventLog.PROPAGATED, this._id);
 			}
 
 		}
@@ -866,7 +1121,7 @@ public final class Codon {
 			try { System.in.read(); } catch (Exception e) { }
 		}
 
-		if (this._timestep._iterationsOutOfTolerance > CodonParameters.ITERATIONS_OUT_OF_TOLERANCE && up != null && this._id < up._id) {
+		if (this._timestep._iterationsOutOfTolerance > this._parameters._iterationsOutOfTolerance && up != null && this._id < up._id) {
 			System.out.println("Shattering from long term intolerances: " + this + ", " + overlap);
 			try { System.in.read(); } catch (Exception e) { }
 		}*/
@@ -875,7 +1130,7 @@ public final class Codon {
 			
 			// Break all bonds.
 			for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
-				this.changeBond(i, null, "shattering");
+				this.releaseBond(i, EventLog.SHATTERING);
 			}
 
 			// This makes sure we keep trying until we have no more bonds.  It's
@@ -888,12 +1143,12 @@ public final class Codon {
 			this._timestep._hasSplit = false;
 			this._timestep._folded = false;
 			this._timestep._unfoldSignal = false;
-			System.out.println("State: (" + this._id + ") Shatter executed, returned to default state.");
+			this._events.record(EventLog.SHATTERED, EventLog.NO_REASON, this._id);
 
 		} else if (shouldShatter) {// && !this._state._folded) {
 			
 			this._timestep._splittingState = CodonState.SPLIT_SHATTER;
-			System.out.println("State: Neighbour in CodonState.SPLIT_SHATTER, so we are too: " + this);
+			this._events.record(EventLog.SHATTER, EventLog.NEIGHBOUR_SHATTERED, this._id);
 
 		} else if (this._state._splittingState == CodonState.SPLIT_NONE) {
 
@@ -917,14 +1172,14 @@ public final class Codon {
 
 		} else if (this._state._splittingState == CodonState.SPLIT_GO) {
 		
-			if (this._state._repelIterations >= CodonParameters.REPEL_ITERATIONS) {
+			if (this._state._repelIterations >= this._parameters._repelIterations) {
 				// FIXME: Add counter-reset propagation, check for no-left-bond.
 				 //(left != null && left._state._splittingState == CodonState.SPLIT_NONE)) {
 				/* No worky. ...dunno why.. */
 				if (up != null) { // && !this._state._hasSplit) {
 					// Somehow we went through a split without losing our partner.
 					// Shatter.
-					System.out.println("FAILED TO SPLIT: SHATTERING: " + this + " UP=" + up);
+					this._events.record(EventLog.SHATTER, EventLog.FAILED_SPLIT, this._id, up._id, CodonParameters.UP_ARM, CodonParameters.BOND_ARM[CodonParameters.UP_ARM], 0f);
 					//try { System.in.read(); } catch (Exception e) { }
 					this._timestep._splittingState = CodonState.SPLIT_SHATTER;
 					this._timestep._repelIterations = 0;
@@ -979,30 +1234,51 @@ public final class Codon {
 	/** Store any bond-changes that occurred during the last iteration.  Must be called after updateState() has been called for <em>all</em> codons.
 	 */
 	private void updateVelocities() {
+		CodonParameters parameters = this._parameters;
+		SimulationParameters simulation = this._simulation;
+
+		CodonStore store = this._store;
+		int id = this._id;
 
 		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) { 
 			
+			int a = id * CodonParameters.NUM_ARMS + i;
+			double armForceX = store._forceX[a];
+			double armForceY = store._forceY[a];
+
 			// Don't bother doing anything if the force was zero for this arm.
-			if (!this._forces[i].isZero()) {
+			if (!(armForceX == 0 && armForceY == 0)) {
 				
 				// Create a unit vector pointing from the position to the end of the arm,
 				// as of the beginning of this timestep.
-				Pair armVector = (Pair)this._armPositions[i].clone();
-				armVector.subtract(this._state._position);
-				armVector.normalize();
-
-				// Calculate the magnitude of the tangential force
-				// TODO - This is an excessive calculation for what we are trying to
-				// get.
-				Pair tangential = this._forces[i].getPerpendicularProjectionOnto(armVector);
+				double armVectorX = store._armX[a] - store._x[id];
+				double armVectorY = store._armY[a] - store._y[id];
+				double scale = 1.0 / Math.sqrt(armVectorX * armVectorX + armVectorY * armVectorY);
+				armVectorX *= scale;
+				armVectorY *= scale;
+
+				// Calculate the radial force: the projection of the force onto the
+				// arm.  (These are the same steps as Pair.getProjectionOnto(), so
+				// the results don't change by so much as a bit.)
+				scale = 1.0 / Math.sqrt(armVectorX * armVectorX + armVectorY * armVectorY);
+				double radialX = armVectorX * scale;
+				double radialY = armVectorY * scale;
+				scale = (armForceX * armVectorX + armForceY * armVectorY) / (armVectorX * armVectorX + armVectorY * armVectorY);
+				radialX *= scale;
+				radialY *= scale;
+
+				// The tangential force is whatever isn't radial.
+				double tangentialX = armForceX - radialX;
+				double tangentialY = armForceY - radialY;
+				double tangentialLength = Math.sqrt(tangentialX * tangentialX + tangentialY * tangentialY);
 				
 				// Calculate the rotation caused by the tangential force
 				// This converts some of the tangential tug into rotation
-				//double armLength = CodonParameters.ARM_FORCE[i];
-				double armLength = CodonParameters.ARM_LENGTH[i];
+				//double armLength = parameters._armForce[i];
+				double armLength = parameters._armLength[i];
 				double angularAcceleration = 
-					 (2 * armLength * tangential.getLength())
-					/ (CodonParameters.CODON_RADIUS * CodonParameters.CODON_RADIUS + 2 * armLength * armLength);
+					 (2 * armLength * tangentialLength)
+					/ (parameters._codonRadius * parameters._codonRadius + 2 * armLength * armLength);
 
 				/* from _Physics for Game Developers_
 				 * "To calculate the torque applied by a force acting on an
@@ -1016,7 +1292,7 @@ public final class Codon {
 				 */
 
 				assert angularAcceleration > 0;
-				assert tangential.getLength() - angularAcceleration > 0;
+				assert tangentialLength - angularAcceleration > 0;
 
 				// So currently we have the correct magnitude for the angular
 				// acceleration, but we need to know which way.  But while it's
@@ -1025,17 +1301,21 @@ public final class Codon {
 				// The rest of the tug is converted into (linear) acceleration.
 				//  Because our mass is treated as being a unit, forces and
 				//  accelerations are interchangeable.  
-				Pair acceleration = tangential;
-				acceleration.scaleTo(tangential.getLength() - angularAcceleration);
+				double accelerationX = tangentialX;
+				double accelerationY = tangentialY;
+				if (!(tangentialX == 0 && tangentialY == 0)) {
+					scale = (tangentialLength - angularAcceleration) / tangentialLength;
+					accelerationX *= scale;
+					accelerationY *= scale;
+				}
 				
 				// We want the sign on the angularAcceleration to be positive if the
 				// angle between the force and the arm is 0..PI, and negative if
 				// it's PI..2PI (equivalently -PI..0).
 				// http://www.geocities.com/SiliconValley/2151/math2d.html
 				
-				// The force, rotated by 90 degrees.
-				Pair temp = new Pair(this._forces[i].y, -this._forces[i].x);
-				if (armVector.getDotProduct(temp) < 0) {
+				// The dot product with the force, rotated by 90 degrees.
+				if (armVectorX * armForceY + armVectorY * -armForceX < 0) {
 					angularAcceleration = -angularAcceleration;
 				} 
 				
@@ -1047,29 +1327,27 @@ public final class Codon {
 				//
 				// Sometimes this force is tiny but negative, presumably due to
 				// rounding errors.  
-				assert tangential.getDotProduct(this._forces[i]) >= -0.0000001: "Tangential force " + tangential + " opposes arm force: " + this._forces[i] + " for " + this;
+				assert accelerationX * armForceX + accelerationY * armForceY >= -0.0000001: "Tangential force " + new Pair(accelerationX, accelerationY) + " opposes arm force: " + new Pair(armForceX, armForceY) + " for " + this;
 
-				// Calculate the radial force.  This is easy peasy.  Add it to the
-				// radial part of the tangential force. 
-				
-				Pair radial = this._forces[i].getProjectionOnto(armVector);
-				acceleration.add(radial);
+				// Add the radial force to the radial part of the tangential force. 
+				accelerationX += radialX;
+				accelerationY += radialY;
 
 				// Add the linear change..
-				this._acceleration.add(acceleration);
+				store._accelerationX[id] += accelerationX;
+				store._accelerationY[id] += accelerationY;
 
 				// ..and the rotation.
-				this._angularAcceleration += angularAcceleration;
+				store._angularAcceleration[id] += angularAcceleration;
 				
 			}
 		}
 
 		// Update the Codon's velocities
-		Pair deltaVel = (Pair)this._acceleration.clone();
-		deltaVel.scale(SimulationParameters.TIMESTEP_DURATION);
-		this._timestep._velocity.add(deltaVel);
+		store._velocityX[id] += store._accelerationX[id] * simulation._timestepDuration;
+		store._velocityY[id] += store._accelerationY[id] * simulation._timestepDuration;
 
-		this._timestep._angularVelocity += (this._angularAcceleration * SimulationParameters.TIMESTEP_DURATION);
+		store._nextAngularVelocity[id] += (store._angularAcceleration[id] * simulation._timestepDuration);
 
 		// The codons are in a liquid, so we dampen their velocity that was carried
 		// over from the previous timestep.
@@ -1079,13 +1357,14 @@ public final class Codon {
 		// for each of these.
 		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
 			if (this._state._bonds[i] != null) {
-				this._timestep._angularVelocity *= (SimulationParameters.ANGULAR_SPRING_DAMPING_FACTOR);
+				store._nextAngularVelocity[id] *= (simulation._angularSpringDampingFactor);
 			}
 		}
-		this._timestep._angularVelocity *= (SimulationParameters.ANGULAR_VISCOSITY_FACTOR);
+		store._nextAngularVelocity[id] *= (simulation._angularViscosityFactor);
 
 		// The velocity is damped towards zero.
-		this._timestep._velocity.scale(SimulationParameters.LINEAR_VISCOSITY_FACTOR);
+		store._velocityX[id] *= simulation._linearViscosityFactor;
+		store._velocityY[id] *= simulation._linearViscosityFactor;
 		
 		// Brownian motion
 		this.brownianMotion();
@@ -1099,39 +1378,41 @@ public final class Codon {
 	 * @param containerSize The size of the container.  This should always
 	 * have the same value.  Behaviour is undefined otherwise. */
 	private final void updatePositions(int containerSize) {
+		SimulationParameters simulation = this._simulation;
 		
+		CodonStore store = this._store;
+		int id = this._id;
+
 		// Update the codon's position 
 		
 		// Angle
-		this._timestep._angle += (this._state._angularVelocity * SimulationParameters.TIMESTEP_DURATION);
-
-		// (Linear) position 
-		Pair deltaPos = (Pair)this._state._velocity.clone();
-		deltaPos.add(this._state._velocity);
-		deltaPos.scale(SimulationParameters.TIMESTEP_DURATION);
+		store._nextAngle[id] += (store._angularVelocity[id] * simulation._timestepDuration);
 
-		this._timestep._position.add(deltaPos);
+		// (Linear) position.  The velocity has already been updated for this
+		// timestep.
+		store._x[id] += (store._velocityX[id] + store._velocityX[id]) * simulation._timestepDuration;
+		store._y[id] += (store._velocityY[id] + store._velocityY[id]) * simulation._timestepDuration;
 
 		// Reduce the angle "mod pi"
-		this._timestep._angle = normalize(this._timestep._angle);
+		store._nextAngle[id] = normalize(store._nextAngle[id]);
 		
 		// Bounce the codon off the walls.  If the possible forces were much larger
 		// than the container, it would become necessary to repeat this process
 		// until the codon ended up within the walls. 
-		if (this._timestep._position.x < -containerSize) {
-			 this._timestep._position.x = (-2 * containerSize) - this._timestep._position.x;
-			 this._timestep._velocity.x = -this._timestep._velocity.x;
-		} else if (this._timestep._position.x > containerSize) {
-			 this._timestep._position.x = (2 * containerSize) - this._timestep._position.x;
-			 this._timestep._velocity.x = -this._timestep._velocity.x;
+		if (store._x[id] < -containerSize) {
+			 store._x[id] = (-2 * containerSize) - store._x[id];
+			 store._velocityX[id] = -store._velocityX[id];
+		} else if (store._x[id] > containerSize) {
+			 store._x[id] = (2 * containerSize) - store._x[id];
+			 store._velocityX[id] = -store._velocityX[id];
 		}
 		
-		if (this._state._position.y < -containerSize) {
-			 this._timestep._position.y = (-2 * containerSize) - this._timestep._position.y;
-			 this._timestep._velocity.y = -this._timestep._velocity.y;
-		} else if (this._state._position.y > containerSize) {
-			 this._timestep._position.y = (2 * containerSize) - this._timestep._position.y;
-			 this._timestep._velocity.y = -this._timestep._velocity.y;
+		if (store._y[id] < -containerSize) {
+			 store._y[id] = (-2 * containerSize) - store._y[id];
+			 store._velocityY[id] = -store._velocityY[id];
+		} else if (store._y[id] > containerSize) {
+			 store._y[id] = (2 * containerSize) - store._y[id];
+			 store._velocityY[id] = -store._velocityY[id];
 		}
 
 	}
@@ -1149,14 +1430,14 @@ public final class Codon {
 	 * of a timestep, it's meaningful.  If it's done during a timestep, then
 	 * it will show only part of the accumulated acceleration. */
 	public Pair getAcceleration() {
-		return this._acceleration;
+		return new Pair(this._store._accelerationX[this._id], this._store._accelerationY[this._id]);
 	}
 
 	/** @return the current angular acceleration.  If this is done at the end
 	 * of a timestep, it's meaningful.  If it's done during a timestep, then
 	 * it will show only part of the accumulated acceleration. */
 	public double getAngularAcceleration() {
-		return this._angularAcceleration;
+		return this._store._angularAcceleration[this._id];
 	}
 
 	/** @return The ID of the codon bonded to the given arm, or -1 if there is
@@ -1177,17 +1458,95 @@ public final class Codon {
 		if (this._state._bonds[arm] == null) {
 			return null;
 		} else {
-			return this._state._bonds[arm]._armPositions[CodonParameters.BOND_ARM[arm]];
+			return this._state._bonds[arm].getArmPosition(CodonParameters.BOND_ARM[arm]);
+		}
+	}
+
+	/** Check whether we're bonded to the given codon on any arm. */
+	/* package */ final boolean isBondedTo(Codon other) {
+		if (!this._bonded) return false;
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			if (this._state._bonds[i] == other) return true;
+		}
+		return false;
+	}
+
+	/* package */ final int getId() {
+		return this._id;
+	}
+
+	/** Get this codon's definitive state, for checkpointing.  It should only
+	 * be read or set between iterations. */
+	/* package */ final CodonState getState() {
+		return this._state;
+	}
+
+	/** Whether the timestep just finished has changed any of this codon's
+	 * states or bonds (as opposed to its counters).  Sleep uses this to tell
+	 * a codon that has settled from one that is on its way somewhere.  It
+	 * must be called once every codon has finished the timestep (since a
+	 * partner finishing may break one of its bonds), and before any has
+	 * copied its states. */
+	/* package */ final boolean isChanging() {
+		CodonState state = this._state;
+		CodonState next = this._timestep;
+		if (next._splittingState != state._splittingState
+				|| next._chainPositionState != state._chainPositionState
+				|| next._hasSplit != state._hasSplit
+				|| next._inMesh != state._inMesh
+				|| next._unfoldSignal != state._unfoldSignal
+				|| next._childIsMeshSeed != state._childIsMeshSeed
+				|| next._resetCounter != state._resetCounter
+				|| next._folded != state._folded) {
+			return true;
+		}
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			if (next._bonds[i] != state._bonds[i]) return true;
+		}
+		return false;
+	}
+
+	/** Wake the codons this one was or is bonded to, if they're asleep, once
+	 * the timestep is over.  As with isChanging(), it must be called once
+	 * every codon has finished the timestep, and before any has copied its
+	 * states. */
+	/* package */ final void touchBonded() {
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			this.touch(this._state._bonds[i]);
+			this.touch(this._timestep._bonds[i]);
+		}
+	}
+
+	/** Mark a codon to be woken once the timestep is over, if it's asleep. */
+	private final void touch(Codon codon) {
+		if (codon != null && this._store._sleep[codon._id] == CodonStore.ASLEEP) {
+			this._store._sleep[codon._id] = CodonStore.TOUCHED;
 		}
 	}
 
+	/** Mix this codon's definitive state into the given hash.  Two runs whose
+	 * codons all hash the same are (as near as makes no difference) in
+	 * exactly the same state. */
+	/* package */ final long hashState(long hash) {
+		hash = CodonState.mix(hash, this._id);
+		hash = CodonState.mix(hash, this._type);
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._x[this._id]));
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._y[this._id]));
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._angle[this._id]));
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._velocityX[this._id]));
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._velocityY[this._id]));
+		hash = CodonState.mix(hash, Double.doubleToLongBits(this._store._angularVelocity[this._id]));
+		return this._state.hash(hash);
+	}
+
 	/** Return our ID number */
 	public String toString() {
 		return this._id + "\t" + this._state;
 	}
 
+	/** @return A copy of the position of this codon's centre. */
 	public Pair getPosition() { 
-		return this._state._position;
+		return new Pair(this._store._x[this._id], this._store._y[this._id]);
 	}
 
 	public int getType() {
@@ -1195,7 +1554,7 @@ public final class Codon {
 	}
 
 	public double getAngle() {
-		return this._state._angle;
+		return this._store._angle[this._id];
 	}
 		
 
@@ -1215,15 +1574,21 @@ public final class Codon {
 
 	/** Strictly for drawing.  
 	 * @return a clone of the current acceleration on the given arm. */
-	public final Pair getArmAcceleration(int arm) { return (Pair)this._forces[arm].clone(); }
+	public final Pair getArmAcceleration(int arm) { 
+		int a = this._id * CodonParameters.NUM_ARMS + arm;
+		return new Pair(this._store._forceX[a], this._store._forceY[a]); 
+	}
 
 	/** Strictly for drawing.
 	 * @return a clone of the current position of the given arm. */
-	public final Pair getArmPosition(int arm) { return (Pair)this._armPositions[arm].clone(); }
+	public final Pair getArmPosition(int arm) { 
+		int a = this._id * CodonParameters.NUM_ARMS + arm;
+		return new Pair(this._store._armX[a], this._store._armY[a]); 
+	}
 
 	/** Get the current radius of the field at the end of the given arm. */
 	public final double getFieldRadius(int arm) {
-		return CodonParameters.FIELD_RADIUS[arm];
+		return this._parameters._fieldRadius[arm];
 	}
 
 	public boolean isWithinTolerance() {
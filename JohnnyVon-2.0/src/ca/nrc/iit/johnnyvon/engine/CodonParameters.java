@@ -32,7 +32,11 @@ Postal Contact:
 */
 
 /** Constants that define various attributes about how the codon works, and 
- * how it interacts with other codons.
+ * how it interacts with other codons.  The shape of a codon (how many arms
+ * it has, and which bond to which) is fixed, but the sizes and strengths of
+ * its arms, and how long it takes to do things, are read from each
+ * scenario's properties, like the SimulationParameters.  The static values
+ * below are the defaults.
  * 
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
@@ -41,7 +45,9 @@ Postal Contact:
  */
 package ca.nrc.iit.johnnyvon.engine;
 
-public final class CodonParameters {
+import java.util.Properties;
+
+public final strictfp class CodonParameters {
 
 	/** Shorthand. */
 	private static final double PI = Math.PI;
@@ -71,20 +77,20 @@ public final class CodonParameters {
 	 * to our arm. */
 	/* package */ static final int[] BOND_ARM = new int[] { RIGHT_ARM, LEFT_ARM, UP_ARM, -1, OVERLAP_ARM };
 
-	/** How many iterations we should stay repelling after split. */
-	public static final int REPEL_ITERATIONS = (int)(100.0 / SimulationParameters.TIMESTEP_DURATION);
+	/** How long we should stay repelling after split. */
+	public static final double REPEL_TIME = 100.0;
 
-	/** How many iterations we should stay bonded but not phenotyped.  After a
+	/** How long we should stay bonded but not phenotyped.  After a
 	 * certain amount of time after we last split, if we haven't split again
 	 * then we should fold up, and release our partners.  (Actually they release
 	 * themselves when they notice their partner has folded.) */
-	public static final int ITERATIONS_AFTER_SPLIT = (int)(5000.0 / SimulationParameters.TIMESTEP_DURATION);
+	public static final double TIME_AFTER_SPLIT = 5000.0;
 
-	/** How many iterations we should stay out of tolerances on our UP arm
+	/** How long we should stay out of tolerances on our UP arm
 	 * before we shatter.  If we stay out of tolerance longer than this
 	 * amount, it should mean that we're in a mesh that was formed badly,
 	 * and so we need to give up. */
-	public static final int ITERATIONS_OUT_OF_TOLERANCE = (int)(5000.0 / SimulationParameters.TIMESTEP_DURATION);
+	public static final double TIME_OUT_OF_TOLERANCE = 5000.0;
 
 	/** The tolerance at side-bonds for an up-bond to form.  That is, how many
 	 * radians off our desired angle can the sides be before we reject new
@@ -94,28 +100,34 @@ public final class CodonParameters {
 	public static final double FLEX_TOLERANCE = PI / 96;
 
 	/** The length of the arms. */
-	public static final double[] ARM_LENGTH = { 7, 7, 2, 1, 1 };
+	private static final double[] ARM_LENGTH = { 7, 7, 2, 1, 1 };
 	
 	/** The radius of the fields on each arm  */
-	public static final double[] FIELD_RADIUS = { 2.0, 2.0, 3.0, 8.0, 0.5 };
+	private static final double[] FIELD_RADIUS = { 2.0, 2.0, 3.0, 8.0, 0.5 };
 
 	// 8 for the repeller arm is the largest it can be without growing the
 	// codon's total potential interaction radius, which would have speed
 	// consequences. 
 	
 	/** The strength of the force of the arm. */
-	public static final double[] ARM_FORCE = { 1.5, 1.5, 1.5, 0.2, 0.2 };
+	private static final double[] ARM_FORCE = { 1.5, 1.5, 1.5, 0.2, 0.2 };
 	
 	
 	/** The angle at which this arm points out from the center. */
 	/* package */ static final double[] ARM_ANGLE = { -PI/2, PI/2, PI, PI, 0 };
 
+	/** The cosine of each arm's angle. */
+	/* package */ static final double[] ARM_COS = getArmTrig(true);
+
+	/** The sine of each arm's angle. */
+	/* package */ static final double[] ARM_SIN = getArmTrig(false);
+
 	/** The maximum angle at which this arm will still bond. */
-	/* package */ static final double[] BOND_TOLERANCE = { PI/64, PI/64, PI/12, 0, PI/12 };
+	private static final double[] BOND_TOLERANCE = { PI/64, PI/64, PI/12, 0, PI/12 };
 
 	/** The amount of force pulling these codons into alignment.  This should be
 	 * between 0 and 1, I think, otherwise I'm not sure that they make sense. */
-	/* package */ static final double[] STRAIGHTENING_FORCE = { 0.5, 0.5, 0.5, 0.0, 0.0 };
+	private static final double[] STRAIGHTENING_FORCE = { 0.5, 0.5, 0.5, 0.0, 0.0 };
 
 	/** The target angle for bonds on the given arm once we have reached
 	 * the "folded" state.
@@ -179,14 +191,100 @@ public final class CodonParameters {
 	 * a replication. */
 	/* package */ static final int MAX_REPLICATIONS = 3;
 
+	// The parameters of this simulation.  As with SimulationParameters,
+	// they're final fields so that the inner loops can read them directly.
+	// Nothing may change the arrays.
+
+	/* package */ final double[] _armLength;
+	/* package */ final double[] _fieldRadius;
+	/* package */ final double[] _armForce;
+	/* package */ final double[] _straighteningForce;
+	/* package */ final double[] _bondTolerance;
+	/* package */ final double _flexTolerance;
+	/* package */ final int _repelIterations;
+	/* package */ final int _iterationsAfterSplit;
+	/* package */ final int _iterationsOutOfTolerance;
+
+	/** The biggest possible radius of this codon. */
+	/* package */ final double _maxInteractionRadius;
+
+	/** The square of the distance (twice the radius) beyond which two codons
+	 * can't interact. */
+	/* package */ final double _interactionDistanceSquared;
+
+	/** The radius of the codon (in terms of the uniform disc that gets
+	 * rotated.)  This is the maximum arm length. */
+	/* package */ final double _codonRadius;
+
+	/** Create the default parameters. */
+	public CodonParameters() {
+		this(new Properties(), "", new SimulationParameters());
+	}
+
+	/** Read the parameters of a scenario.  The arrays are given one value
+	 * per arm, separated by commas, and the angles in degrees.
+	 * @param properties The scenarios.
+	 * @param prefix The scenario to read, e.g. "Triangles".
+	 * @param simulation The scenario's SimulationParameters, which say how
+	 * many iterations each of the times here takes. */
+	public CodonParameters(Properties properties, String prefix, SimulationParameters simulation) {
+		this._armLength = getDoubles(properties, prefix + ".ArmLength", ARM_LENGTH, 1.0);
+		this._fieldRadius = getDoubles(properties, prefix + ".FieldRadius", FIELD_RADIUS, 1.0);
+		this._armForce = getDoubles(properties, prefix + ".ArmForce", ARM_FORCE, 1.0);
+		this._straighteningForce = getDoubles(properties, prefix + ".StraighteningForce", STRAIGHTENING_FORCE, 1.0);
+		this._bondTolerance = getDoubles(properties, prefix + ".BondTolerance", BOND_TOLERANCE, PI / 180);
+
+		String flex = properties.getProperty(prefix + ".FlexTolerance");
+		this._flexTolerance = (flex == null) ? FLEX_TOLERANCE : Double.parseDouble(flex.trim()) * (PI / 180);
+
+		this._repelIterations = simulation.getIterations(
+				SimulationParameters.getDouble(properties, prefix + ".RepelTime", REPEL_TIME));
+		this._iterationsAfterSplit = simulation.getIterations(
+				SimulationParameters.getDouble(properties, prefix + ".TimeAfterSplit", TIME_AFTER_SPLIT));
+		this._iterationsOutOfTolerance = simulation.getIterations(
+				SimulationParameters.getDouble(properties, prefix + ".TimeOutOfTolerance", TIME_OUT_OF_TOLERANCE));
+
+		this._maxInteractionRadius = getMaxInteractionRadius(this._armLength, this._fieldRadius);
+		this._interactionDistanceSquared = 4 * this._maxInteractionRadius * this._maxInteractionRadius;
+		this._codonRadius = getMaxArmLength(this._armLength);
+	}
+
+	/** @return The length of the given arm. */
+	public double getArmLength(int arm) { return this._armLength[arm]; }
+
+	/** @return The radius of the field at the end of the given arm. */
+	public double getFieldRadius(int arm) { return this._fieldRadius[arm]; }
+
+	/** @return The distance from its centre beyond which a codon has no
+	 * effect. */
+	public double getMaxInteractionRadius() { return this._maxInteractionRadius; }
+
+	/** Read one number for each arm from the properties, if they're there.
+	 * @param scale What to multiply the numbers read by. */
+	private static double[] getDoubles(Properties properties, String key, double[] defaults, double scale) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return defaults.clone();
+		}
+		String[] values = value.split(",");
+		if (values.length != NUM_ARMS) {
+			throw new IllegalArgumentException(key + " needs " + NUM_ARMS + " values, not " + value);
+		}
+		double[] result = new double[NUM_ARMS];
+		for (int i = 0; i < NUM_ARMS; i++) {
+			result[i] = Double.parseDouble(values[i].trim()) * scale;
+		}
+		return result;
+	}
+
 	/** Figure out the biggest possible radius that this codon could have,
 	 * such that it two codons are farther than this distance apart, they
 	 * could not possibly need to worry about each other (unless they were
 	 * just bonded.) */
-	/* package */ static final double getMaxInteractionRadius() {
+	private static double getMaxInteractionRadius(double[] armLength, double[] fieldRadius) {
 		double result = 0.0;
 		for (int i = 0; i < NUM_ARMS; i++) {
-			result = Math.max(result, ARM_LENGTH[i] + FIELD_RADIUS[i]);
+			result = Math.max(result, armLength[i] + fieldRadius[i]);
 		}
 		return result;
 	}
@@ -194,19 +292,22 @@ public final class CodonParameters {
 	/** Find the longest arm.  This is used to determine the "size" of the
 	 * codon to figure out its distribution of mass, when we need to calculate
 	 * how much of a tangential tug goes to rotation vs. movement. */
-	/* package */ static final double getMaxArmLength() {
+	private static double getMaxArmLength(double[] armLength) {
 		double result = 0.0;
 		for (int i = 0; i < NUM_ARMS; i++) {
-			result = Math.max(result, ARM_LENGTH[i]);
+			result = Math.max(result, armLength[i]);
 		}
 		return result;
 	}
 
-	/** The biggest possible radius of this codon. */
-	public static final double MAX_INTERACTION_RADIUS = getMaxInteractionRadius();
-
-	/** Figure out the radius of the codon (in terms of the uniform disc that 
-		* gets rotated.)  This is the maximum arm length. */
-	/* package */ static final double CODON_RADIUS = getMaxArmLength();
+	/** Work out the cosine (or sine) of each arm's angle, so that the arms
+	 * can be placed with only the codon's own angle's sine and cosine. */
+	private static final double[] getArmTrig(boolean cosine) {
+		double[] result = new double[NUM_ARMS];
+		for (int i = 0; i < NUM_ARMS; i++) {
+			result[i] = cosine ? StrictMath.cos(ARM_ANGLE[i]) : StrictMath.sin(ARM_ANGLE[i]);
+		}
+		return result;
+	}
 
 }
@@ -34,9 +34,10 @@ Postal Contact:
 package ca.nrc.iit.johnnyvon.engine;
 
 
-/** A complete description of the state of a codon.  Used to maintain the 
- * state as it existed at the beginning of at timestep, as well as keep an
- * updated copy as a timestep is executed.
+/** A description of the state of a codon, apart from its position, angle
+ * and velocities, which are kept in the simulation's CodonStore.  Used to
+ * maintain the state as it existed at the beginning of at timestep, as well
+ * as keep an updated copy as a timestep is executed.
  * 
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
@@ -76,18 +77,9 @@ package ca.nrc.iit.johnnyvon.engine;
 	 * is in this state, we break off from them and switch to this state. */
 	/* package */ static final int SPLIT_SHATTER = 3;
 
-	/** The linear position of this codon. */
-	/* package */ final Pair _position;
-	
-	/** The angular position of this codon. */
-	/* package */ double _angle;
-
-	/** The linear velocity of this codon. */
-	/* package */ final Pair _velocity;
+	/** The number of ints that save() writes. */
+	/* package */ static final int INTS = 6 + CodonParameters.NUM_ARMS;
 
-	/** The angular velocity of this codon. */
-	/* package */ double _angularVelocity;
-		
 	/** The current chain position state. */
 	/* package */ int _chainPositionState = CHAIN_DEFAULT;
 
@@ -145,11 +137,7 @@ package ca.nrc.iit.johnnyvon.engine;
 	/* package */ //int _replications;
 	// _replications is no longer needed.
 
-	/* package */ CodonState(Pair position, double angle, Pair velocity, double angularVelocity, boolean hasSplit, boolean isReplicationSeed) {
-		this._position = position;
-		this._angle = angle;
-		this._velocity = velocity;
-		this._angularVelocity = angularVelocity;
+	/* package */ CodonState(boolean hasSplit, boolean isReplicationSeed) {
 		this._hasSplit = hasSplit;
 		this._isReplicationSeed = isReplicationSeed;
 		this._childIsMeshSeed = isReplicationSeed;
@@ -158,14 +146,10 @@ package ca.nrc.iit.johnnyvon.engine;
 	}
 
 	/* package */ CodonState() {
-		this(new Pair(), 0.0, new Pair(), 0.0, false, false);
+		this(false, false);
 	}
 
 	/* package */ void copyFrom(CodonState other) {
-		this._position.copyFrom(other._position);
-		this._angle = other._angle;
-		this._velocity.copyFrom(other._velocity);
-		this._angularVelocity = other._angularVelocity;
 		this._chainPositionState = other._chainPositionState;
 		this._splittingState = other._splittingState;
 		this._repelIterations = other._repelIterations;
@@ -187,15 +171,82 @@ package ca.nrc.iit.johnnyvon.engine;
 
 	}
 
+	/** Mix everything in this state into the given hash. */
+	/* package */ long hash(long hash) {
+		hash = mix(hash, this._chainPositionState);
+		hash = mix(hash, this._splittingState);
+		hash = mix(hash, this._repelIterations);
+		hash = mix(hash, this._iterationsSinceSplit);
+		hash = mix(hash, this._iterationsOutOfTolerance);
+		hash = mix(hash, this.getFlags());
+		for (int i = 0; i < this._bonds.length; i++) {
+			hash = mix(hash, (this._bonds[i] == null) ? -1 : this._bonds[i].getId());
+		}
+		return hash;
+	}
+
+	/** The booleans, as the bits of an int. */
+	private int getFlags() {
+		return (this._hasSplit ? 1 : 0)
+				| (this._isReplicationSeed ? 2 : 0)
+				| (this._childIsMeshSeed ? 4 : 0)
+				| (this._inMesh ? 8 : 0)
+				| (this._unfoldSignal ? 16 : 0)
+				| (this._resetCounter ? 32 : 0)
+				| (this._folded ? 64 : 0);
+	}
+
+	/** Set the booleans from the bits of an int, as given by getFlags(). */
+	private void setFlags(int flags) {
+		this._hasSplit = (flags & 1) != 0;
+		this._isReplicationSeed = (flags & 2) != 0;
+		this._childIsMeshSeed = (flags & 4) != 0;
+		this._inMesh = (flags & 8) != 0;
+		this._unfoldSignal = (flags & 16) != 0;
+		this._resetCounter = (flags & 32) != 0;
+		this._folded = (flags & 64) != 0;
+	}
+
+	/** Write this state into the given ints (INTS of them, from offset), with
+	 * each bond as the id of the partner, or -1. */
+	/* package */ void save(int[] ints, int offset) {
+		ints[offset] = this._chainPositionState;
+		ints[offset + 1] = this._splittingState;
+		ints[offset + 2] = this._repelIterations;
+		ints[offset + 3] = this._iterationsSinceSplit;
+		ints[offset + 4] = this._iterationsOutOfTolerance;
+		ints[offset + 5] = this.getFlags();
+		for (int i = 0; i < this._bonds.length; i++) {
+			ints[offset + 6 + i] = (this._bonds[i] == null) ? -1 : this._bonds[i].getId();
+		}
+	}
+
+	/** Read this state back from ints written by save().
+	 * @param codons The codons, by id, for the bonds. */
+	/* package */ void load(int[] ints, int offset, Codon[] codons) {
+		this._chainPositionState = ints[offset];
+		this._splittingState = ints[offset + 1];
+		this._repelIterations = ints[offset + 2];
+		this._iterationsSinceSplit = ints[offset + 3];
+		this._iterationsOutOfTolerance = ints[offset + 4];
+		this.setFlags(ints[offset + 5]);
+		for (int i = 0; i < this._bonds.length; i++) {
+			int partner = ints[offset + 6 + i];
+			this._bonds[i] = (partner < 0) ? null : codons[partner];
+		}
+	}
+
+	/** Mix a value into a hash. */
+	/* package */ static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
 	public boolean equals(Object other) {
 		if (other instanceof CodonState) {
 			CodonState state = (CodonState)other;
 
-			if (this._position.equals(state._position)
-				&& this._angle == state._angle
-				&& this._velocity.equals(state._velocity)
-				&& this._angularVelocity == state._angularVelocity
-				&& this._chainPositionState == state._chainPositionState
+			if (this._chainPositionState == state._chainPositionState
 				&& this._splittingState == state._splittingState 
 				&& this._repelIterations == state._repelIterations
 				&& this._iterationsSinceSplit == state._iterationsSinceSplit
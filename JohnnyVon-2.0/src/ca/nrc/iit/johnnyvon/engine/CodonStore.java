@@ -0,0 +1,208 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** The physical state of every codon in a simulation, kept in arrays of
+ * primitives indexed by codon id (and, for the arms, by id *
+ * CodonParameters.NUM_ARMS + arm).  The pairwise interactions and the
+ * broadphases spend most of their time reading positions and arm tips, and
+ * adding up forces, so keeping these together in memory (rather than
+ * scattered over a few dozen small objects per codon) saves a great deal of
+ * waiting on cache misses, and a good deal of heap.
+ *
+ * The Codons still hold the rules, and the rest of their state (see
+ * CodonState); they read and write their own slots here.
+ *
+ * A codon's position and linear velocity are updated in place during the
+ * timestep, so there is only one copy of them.  (They always have been:
+ * the two CodonStates of each Codon used to share the same Pairs for them.)
+ * Only the angle and angular velocity have a separate copy for the end of
+ * the timestep.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class CodonStore {
+
+	// The state of each codon.  The angles are as of the start of the
+	// timestep (the equivalent of Codon._state).
+
+	/** The x coordinate of each codon's centre. */
+	/* package */ final double[] _x;
+
+	/** The y coordinate of each codon's centre. */
+	/* package */ final double[] _y;
+
+	/** The angle of each codon. */
+	/* package */ final double[] _angle;
+
+	/** The x component of each codon's linear velocity. */
+	/* package */ final double[] _velocityX;
+
+	/** The y component of each codon's linear velocity. */
+	/* package */ final double[] _velocityY;
+
+	/** The angular velocity of each codon. */
+	/* package */ final double[] _angularVelocity;
+
+	// The angles being worked out during the timestep.  (The equivalent of
+	// Codon._timestep.)
+
+	/** The angle of each codon, at the end of the timestep. */
+	/* package */ final double[] _nextAngle;
+
+	/** The angular velocity of each codon, at the end of the timestep. */
+	/* package */ final double[] _nextAngularVelocity;
+
+	// Worked out during the timestep.
+
+	/** The x coordinate of the tip of each arm, as of the start of the
+	 * timestep. */
+	/* package */ final double[] _armX;
+
+	/** The y coordinate of the tip of each arm, as of the start of the
+	 * timestep. */
+	/* package */ final double[] _armY;
+
+	/** The x component of the force on each arm. */
+	/* package */ final double[] _forceX;
+
+	/** The y component of the force on each arm. */
+	/* package */ final double[] _forceY;
+
+	/** The x component of each codon's linear acceleration. */
+	/* package */ final double[] _accelerationX;
+
+	/** The y component of each codon's linear acceleration. */
+	/* package */ final double[] _accelerationY;
+
+	/** The angular acceleration of each codon. */
+	/* package */ final double[] _angularAcceleration;
+
+	/** The random kicks of each codon's brownian motion (Noise.KICKS per
+	 * codon). */
+	/* package */ final double[] _kicks;
+
+	// Counted during the timestep, for the Simulator's Statistics.
+
+	/** The number of times each arm has been interacted with an arm of
+	 * another codon, since they were last drained.  A pair is only ever
+	 * interacted by one thread at a time, so these don't need to be
+	 * atomic. */
+	/* package */ final int[] _armInteractions;
+
+	// Sleeping (see Sleep).
+
+	/** A codon that is being simulated. */
+	/* package */ static final byte AWAKE = 0;
+
+	/** A codon that is asleep: it holds still, and isn't interacted with
+	 * other sleepers. */
+	/* package */ static final byte ASLEEP = 1;
+
+	/** A codon that is asleep, but that an awake codon has reached this
+	 * timestep.  It holds still until the timestep is over, and then it
+	 * (only it, not the codons it's bonded to) is woken by Sleep.wake(). */
+	/* package */ static final byte TOUCHED = 2;
+
+	/** Whether each codon is AWAKE, ASLEEP or TOUCHED.  They're all AWAKE
+	 * unless the scenario sleeps. */
+	/* package */ final byte[] _sleep;
+
+	/** How many timesteps in a row each codon has been quiet (see Sleep), up
+	 * to the number it takes to sleep.  0 means it stirred in the last one. */
+	/* package */ final int[] _quiet;
+
+	/** Create a store.
+	 * @param size The number of codons.  Their ids must be less than this. */
+	/* package */ CodonStore(int size) {
+		this._x = new double[size];
+		this._y = new double[size];
+		this._angle = new double[size];
+		this._velocityX = new double[size];
+		this._velocityY = new double[size];
+		this._angularVelocity = new double[size];
+
+		this._nextAngle = new double[size];
+		this._nextAngularVelocity = new double[size];
+
+		this._armX = new double[size * CodonParameters.NUM_ARMS];
+		this._armY = new double[size * CodonParameters.NUM_ARMS];
+		this._forceX = new double[size * CodonParameters.NUM_ARMS];
+		this._forceY = new double[size * CodonParameters.NUM_ARMS];
+
+		this._accelerationX = new double[size];
+		this._accelerationY = new double[size];
+		this._angularAcceleration = new double[size];
+
+		this._kicks = new double[size * Noise.KICKS];
+
+		this._armInteractions = new int[size * CodonParameters.NUM_ARMS];
+
+		this._sleep = new byte[size];
+		this._quiet = new int[size];
+	}
+
+	/** Start the timestep for the given codon: its angles at the end of the
+	 * timestep start off as its angles now. */
+	/* package */ final void startTimestep(int id) {
+		this._nextAngle[id] = this._angle[id];
+		this._nextAngularVelocity[id] = this._angularVelocity[id];
+	}
+
+	/** Make the given codon's angles at the end of the timestep definitive. */
+	/* package */ final void copyState(int id) {
+		this._angle[id] = this._nextAngle[id];
+		this._angularVelocity[id] = this._nextAngularVelocity[id];
+	}
+
+	/** Add up the arms' interaction counts by arm, and zero them.  This has
+	 * to be done between timesteps, often enough that no count overflows.
+	 * @param totals Where to add them, CodonParameters.NUM_ARMS of them.
+	 * @param offset Where the first arm's total is in totals. */
+	/* package */ final void drainArmInteractions(long[] totals, int offset) {
+		int[] counts = this._armInteractions;
+		for (int k = 0; k < counts.length; k++) {
+			totals[offset + k % CodonParameters.NUM_ARMS] += counts[k];
+			counts[k] = 0;
+		}
+	}
+
+	/** @return The number of codons there's room for. */
+	/* package */ final int getSize() { return this._x.length; }
+
+}
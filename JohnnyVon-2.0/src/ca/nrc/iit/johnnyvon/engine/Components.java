@@ -0,0 +1,226 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** The connected components of the bond graph: which codons are joined to
+ * which, directly or through others, so that the chains and the mesh can
+ * be told apart and measured without searching the codons.
+ *
+ * This is a union-find, kept up to date by BondList.commit(), which is
+ * where bonds are made definitive, on the simulation's thread and in the
+ * same order whatever the number of threads.  Each bond that forms joins
+ * two components.  A bond that breaks may or may not split one, and a
+ * union-find can't tell, so instead the whole thing is marked stale, and
+ * rebuilt from the codons' bonds the next time it's asked about.  Bonds
+ * form a good deal more often than they break, and a rebuild is linear in
+ * the number of codons, so this is still far cheaper than searching the
+ * graph whenever it's asked about.
+ *
+ * The size of every component, and how many components there are of each
+ * size, are kept as components join, so asking for them (or for the number
+ * of components, or the largest) is O(1), once any rebuild is done.  Like
+ * the codons' states, this should only be asked about between iterations.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Components {
+
+	/** The codons whose bonds make up the graph. */
+	private final Codon[] _codons;
+
+	/** Each codon's parent in its component's tree.  The root is its own
+	 * parent. */
+	private final int[] _parent;
+
+	/** The number of codons in each root's component. */
+	private final int[] _size;
+
+	/** The lowest id in each root's component. */
+	private final int[] _lowest;
+
+	/** The number of components of each size. */
+	private final int[] _histogram;
+
+	/** The number of components. */
+	private int _count;
+
+	/** The number of codons in the largest component. */
+	private int _largest;
+
+	/** Whether a bond has broken since the components were last rebuilt. */
+	private boolean _stale = true;
+
+	/** The number of times the components have been rebuilt. */
+	private int _rebuilds = 0;
+
+	/** Create the components of the given codons' bond graph.  They're
+	 * worked out when they're first asked about. */
+	/* package */ Components(Codon[] codons) {
+		this._codons = codons;
+		this._parent = new int[codons.length];
+		this._size = new int[codons.length];
+		this._lowest = new int[codons.length];
+		this._histogram = new int[codons.length + 1];
+	}
+
+	/** Join the components of a bond that has formed.
+	 * @param codon The id of one of the codons.
+	 * @param arm The arm of that codon that the bond is on. */
+	/* package */ final void bonded(int codon, int arm) {
+		if (this._stale) return;
+		int partner = this._codons[codon].getBondPartnerID(arm);
+		if (partner < 0) {
+			// Not in the codon's state after all.  Start again from the states.
+			this._stale = true;
+		} else {
+			this.join(codon, partner);
+		}
+	}
+
+	/** Note that a bond has broken, or that the bonds have otherwise
+	 * changed. */
+	/* package */ final void invalidate() {
+		this._stale = true;
+	}
+
+	/** Join the components of two codons, if they're different. */
+	private final void join(int a, int b) {
+		int rootA = this.find(a);
+		int rootB = this.find(b);
+		if (rootA == rootB) return;
+
+		// Hang the smaller tree off of the bigger.
+		if (this._size[rootA] < this._size[rootB]) {
+			int root = rootA;
+			rootA = rootB;
+			rootB = root;
+		}
+		this._histogram[this._size[rootA]]--;
+		this._histogram[this._size[rootB]]--;
+		this._parent[rootB] = rootA;
+		this._size[rootA] += this._size[rootB];
+		this._lowest[rootA] = Math.min(this._lowest[rootA], this._lowest[rootB]);
+		this._histogram[this._size[rootA]]++;
+		this._count--;
+		this._largest = Math.max(this._largest, this._size[rootA]);
+	}
+
+	/** @return The root of a codon's component.  The path is halved on the
+	 * way, so that it's shorter next time. */
+	private final int find(int codon) {
+		int[] parent = this._parent;
+		while (parent[codon] != codon) {
+			parent[codon] = parent[parent[codon]];
+			codon = parent[codon];
+		}
+		return codon;
+	}
+
+	/** Rebuild the components from the codons' bonds, if any bond has broken
+	 * since they were last built. */
+	private final void update() {
+		if (!this._stale) return;
+		this._stale = false;
+		this._rebuilds++;
+
+		int size = this._codons.length;
+		for (int i = 0; i < size; i++) {
+			this._parent[i] = i;
+			this._size[i] = 1;
+			this._lowest[i] = i;
+			this._histogram[i + 1] = 0;
+		}
+		this._histogram[0] = 0;
+		this._histogram[1] = size;
+		this._count = size;
+		this._largest = (size == 0) ? 0 : 1;
+
+		for (int i = 0; i < size; i++) {
+			for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+				int partner = this._codons[i].getBondPartnerID(arm);
+				if (partner > i) this.join(i, partner);
+			}
+		}
+	}
+
+	/** Get the component that a codon is in.
+	 * @param codon The codon's id.
+	 * @return The lowest id of any codon in the component.  This is the same
+	 * for every codon in it, and stays the same for as long as the component
+	 * does. */
+	public final int getComponent(int codon) {
+		this.update();
+		return this._lowest[this.find(codon)];
+	}
+
+	/** @return The number of codons in the given codon's component,
+	 * including itself. */
+	public final int getSize(int codon) {
+		this.update();
+		return this._size[this.find(codon)];
+	}
+
+	/** @return The number of components, counting each unbonded codon as one. */
+	public final int getCount() {
+		this.update();
+		return this._count;
+	}
+
+	/** @return The number of codons in the largest component (the mesh, once
+	 * there is one). */
+	public final int getLargest() {
+		this.update();
+		return this._largest;
+	}
+
+	/** Get the number of components of a given size.  For size 1, this is
+	 * the number of unbonded codons; for larger sizes, the number of chains
+	 * (or folded shapes, or meshes) of that many codons.
+	 * @param size The number of codons, from 1 up to the number of codons.
+	 * @return The number of components of that size. */
+	public final int getHistogram(int size) {
+		this.update();
+		return this._histogram[size];
+	}
+
+	/** @return The number of times the components have had to be rebuilt
+	 * because bonds broke. */
+	public final int getRebuilds() {
+		return this._rebuilds;
+	}
+
+}
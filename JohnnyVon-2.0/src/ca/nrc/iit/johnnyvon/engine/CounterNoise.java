@@ -0,0 +1,151 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** Brownian kicks that are a pure function of the seed, the codon's id, the
+ * iteration and which kick it is.  There is no state to carry from one
+ * timestep to the next: any thread can work out any codon's kicks for any
+ * iteration, in any order, and a run can be replayed from any point without
+ * having stored them.
+ *
+ * The kicks come from the Threefry-2x64 block cipher with 20 rounds, as
+ * described in Salmon et al., "Parallel Random Numbers: As Easy as 1, 2, 3"
+ * (SC11).  It encrypts a 128-bit counter (here the iteration, and the
+ * codon's id with a block number) under a 128-bit key (the seed), giving 128
+ * random bits.  A codon's three kicks take two blocks.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final strictfp class CounterNoise implements Noise {
+
+	/** The rotations for each of the eight rounds that make up a cycle. */
+	private static final int[] ROTATIONS = { 16, 42, 12, 31, 16, 32, 24, 21 };
+
+	/** The number of rounds.  20 is what the paper recommends; 13 is the
+	 * fewest that pass its tests. */
+	private static final int ROUNDS = 20;
+
+	/** Mixed into the key schedule (from the Threefish cipher). */
+	private static final long PARITY = 0x1BD11BDAA9FC1A22L;
+
+	/** 2 to the power of -53. */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	/** Where the kicks go. */
+	private final CodonStore _store;
+
+	/** The key schedule: the two words of the key, and their parity. */
+	private final long _key0, _key1, _key2;
+
+	/** Create a generator.
+	 * @param store Where the kicks go.
+	 * @param seed The key.  The same seed gives the same kicks. */
+	/* package */ CounterNoise(CodonStore store, long seed) {
+		this._store = store;
+		this._key0 = seed;
+		this._key1 = 0x9E3779B97F4A7C15L;
+		this._key2 = PARITY ^ this._key0 ^ this._key1;
+	}
+
+	/** {@inheritDoc}  This is the batched kernel: it works straight through
+	 * the range, two blocks per codon, without touching any other state. */
+	public final void fill(int iteration, int start, int end) {
+		double[] kicks = this._store._kicks;
+		for (int i = start; i < end; i++) {
+			int k = i * KICKS;
+			long block = (long)i << 1;
+			this.encrypt(iteration, block, kicks, k, 2);
+			this.encrypt(iteration, block + 1, kicks, k + 2, 1);
+		}
+	}
+
+	/** {@inheritDoc}  There is none: the key comes from the seed. */
+	public final int getStateLongs() { return 0; }
+
+	/** {@inheritDoc} */
+	public final void saveState(long[] state) { }
+
+	/** {@inheritDoc} */
+	public final void restoreState(long[] state) { }
+
+	/** Get a single kick.  This is what fill() puts in the store, without the
+	 * store.  It's meant for checking and replaying single kicks, not for
+	 * use in a timestep.
+	 * @param kick Which of the codon's kicks (0 to KICKS - 1).
+	 * @return A random number between 0 (inclusive) and 1 (exclusive). */
+	/* package */ final double getKick(int iteration, int id, int kick) {
+		double[] result = new double[2];
+		this.encrypt(iteration, ((long)id << 1) + kick / 2, result, 0, 2);
+		return result[kick % 2];
+	}
+
+	/** Encrypt a counter, and turn the words of the result into kicks.
+	 * @param words How many words of the result to use, 1 or 2. */
+	private final void encrypt(long counter0, long counter1, double[] kicks, int index, int words) {
+		long x0 = counter0 + this._key0;
+		long x1 = counter1 + this._key1;
+		for (int round = 0; round < ROUNDS; round++) {
+			x0 += x1;
+			x1 = Long.rotateLeft(x1, ROTATIONS[round % 8]);
+			x1 ^= x0;
+			if (round % 4 == 3) {
+				// Inject the key.
+				int injection = (round + 1) / 4;
+				x0 += this.getKey(injection);
+				x1 += this.getKey(injection + 1) + injection;
+			}
+		}
+		kicks[index] = toDouble(x0);
+		if (words == 2) kicks[index + 1] = toDouble(x1);
+	}
+
+	/** @return Word i (mod 3) of the key schedule. */
+	private final long getKey(int i) {
+		switch (i % 3) {
+			case 0: return this._key0;
+			case 1: return this._key1;
+			default: return this._key2;
+		}
+	}
+
+	/** @return The top 53 bits of a random number, as a number between 0
+	 * (inclusive) and 1 (exclusive). */
+	private static double toDouble(long bits) {
+		return (bits >>> 11) * DOUBLE_UNIT;
+	}
+
+}
@@ -0,0 +1,201 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.Properties;
+
+/** Runs many independent simulations of a scenario in one JVM, several at a
+ * time.  Each run gets its own copy of the scenario's properties, with its
+ * own RandomSeed (the ensemble's seed plus the number of the run, so any run
+ * can be repeated on its own) and its own output files (see OUTPUT_FILES):
+ * the file's name, followed by "." and the number of the run, unless there's
+ * only the one run.
+ * Simulators share nothing but read-only constants, so the runs can't
+ * affect each other.
+ *
+ * No more runs are done at once than there are processors to go round:
+ * each run uses as many threads as its scenario's Threads property says, so
+ * that many fewer runs are done at once.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Ensemble {
+
+	/** The properties that name files a run writes to, which each run needs
+	 * its own of. */
+	private static final String[] OUTPUT_FILES = { "EventLog", "Checkpoint", "Trajectory", "Populations" };
+
+	/** Something that wants to hear how the runs are going. */
+	public static interface Listener {
+		/** Called (on the run's own thread) every so many iterations of a
+		 * run, and when it's over.  May be called from several threads at once.
+		 * @param summary How the run is doing. 
+		 * @param finished Whether the run is over. */
+		public void report(Summary summary, boolean finished);
+	}
+
+	/** The most runs to do at once, or 0 to fit them to the processors. */
+	private final int _size;
+
+	/** Who to tell about the runs, or null. */
+	private Listener _listener;
+
+	/** How often to tell the listener about runs that aren't over, or 0 for
+	 * never. */
+	private int _reportInterval;
+
+	/** The number of the next run to be started.  Only used inside run(),
+	 * while synchronized on this. */
+	private int _nextRun;
+
+	/** Create an ensemble.
+	 * @param size The most runs to do at once.  Zero (or less) means as many
+	 * as there are processors for. */
+	public Ensemble(int size) {
+		this._size = size;
+	}
+
+	/** Tell a listener about the runs.
+	 * @param interval How many iterations between reports on a run that
+	 * isn't over yet, or 0 to only report when it's over. */
+	public final void setListener(Listener listener, int interval) {
+		this._listener = listener;
+		this._reportInterval = interval;
+	}
+
+	/** Figure out how many runs to do at once.  Never more than the number
+	 * of runs, and never so many that their threads outnumber the processors
+	 * (unless one run has more threads than that on its own). */
+	/* package */ final int getConcurrency(int runs, int threadsPerRun) {
+		int size = this._size;
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (size <= 0 || size * threadsPerRun > processors) {
+			size = processors / Math.max(threadsPerRun, 1);
+		}
+		return Math.max(1, Math.min(size, runs));
+	}
+
+	/** Run a scenario several times, and wait for all the runs to finish.
+	 * A run that fails doesn't stop the others; its summary says what went
+	 * wrong.
+	 * @param properties The scenarios.  These aren't changed.
+	 * @param scenario The prefix of the scenario to run.
+	 * @param runs How many times to run it.
+	 * @param seed The RandomSeed of the first run.  The others get the
+	 * following seeds.
+	 * @param iterations How many iterations to do in each run.
+	 * @return The summaries of the runs, in the order of their seeds. */
+	public final Summary[] run(final Properties properties, final String scenario, final int runs, 
+			final long seed, final int iterations) throws InterruptedException {
+		final Summary[] summaries = new Summary[runs];
+		String threads = properties.getProperty(scenario + ".Threads");
+		int threadsPerRun = (threads == null) ? 1 : Integer.parseInt(threads.trim());
+		if (threadsPerRun <= 0) threadsPerRun = Runtime.getRuntime().availableProcessors();
+
+		this._nextRun = 0;
+		Thread[] runners = new Thread[this.getConcurrency(runs, threadsPerRun)];
+		for (int i = 0; i < runners.length; i++) {
+			runners[i] = new Thread("JohnnyVon Ensemble " + i) {
+				public void run() { 
+					int next;
+					while ((next = Ensemble.this.takeRun(runs)) < runs) {
+						summaries[next] = Ensemble.this.runOnce(properties, scenario, next, runs, seed + next, iterations);
+					}
+				}
+			};
+			runners[i].setDaemon(true);
+			runners[i].start();
+		}
+		for (int i = 0; i < runners.length; i++) {
+			runners[i].join();
+		}
+		return summaries;
+	}
+
+	/** @return The number of the next run to start, or the number of runs if
+	 * they have all been started. */
+	private final synchronized int takeRun(int runs) {
+		return (this._nextRun < runs) ? this._nextRun++ : runs;
+	}
+
+	/** Do a single run, on this thread.
+	 * @param runs The number of runs in the ensemble. */
+	private final Summary runOnce(Properties defaults, final String scenario, final int run, int runs,
+			final long seed, final int iterations) {
+		Properties properties = new Properties();
+		properties.putAll(defaults);
+		properties.setProperty(scenario + ".RandomSeed", Long.toString(seed));
+		for (int i = 0; i < OUTPUT_FILES.length && runs > 1; i++) {
+			String file = properties.getProperty(scenario + "." + OUTPUT_FILES[i]);
+			if (file != null) {
+				properties.setProperty(scenario + "." + OUTPUT_FILES[i], file.trim() + "." + run);
+			}
+		}
+
+		final long start = System.currentTimeMillis();
+		final Listener listener = this._listener;
+		final int interval = this._reportInterval;
+		Simulator simulator = null;
+		Throwable failure = null;
+		try {
+			simulator = new Simulator(properties, scenario);
+			if (listener != null && interval > 0) {
+				final Simulator reporting = simulator;
+				simulator.setViewer(new Viewer() {
+					public void view(Codon[] codons, double time, int iteration) {
+						// The last report comes once the run is over.
+						if (iteration % interval == 0 && iteration < iterations) {
+							listener.report(new Summary(scenario, run, seed, reporting, 
+										(System.currentTimeMillis() - start) / 1000.0, null), false);
+						}
+					}
+					public void setSimulator(Simulator sim) { }
+				});
+			}
+			simulator.simulate(iterations);
+		} catch (Throwable t) {
+			failure = t;
+		}
+
+		Summary summary = new Summary(scenario, run, seed, simulator, 
+				(System.currentTimeMillis() - start) / 1000.0, failure);
+		if (listener != null) listener.report(summary, true);
+		return summary;
+	}
+
+}
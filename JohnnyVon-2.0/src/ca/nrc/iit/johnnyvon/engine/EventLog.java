@@ -0,0 +1,448 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A record of the things that happen to codons: bonds forming and
+ * breaking, folding, unfolding and shattering.
+ *
+ * Events are fixed-size binary records (see RECORD_INTS), written without
+ * locking or allocating into a ring buffer belonging to the thread that
+ * records them.  A background thread drains the rings into a file, which
+ * JohnnyVonEvents can print.  If a ring fills up faster than it is drained,
+ * its newest events are dropped (and counted) rather than hold up the
+ * simulation.
+ *
+ * Each type of event can be switched off, and a log without a file records
+ * nothing at all, which costs a single test per event.  Either way, every
+ * event is counted, for the Simulator's Statistics.
+ *
+ * The file starts with MAGIC, VERSION and RECORD_INTS, and is followed by
+ * the records, each field a big-endian int.  Records from different threads
+ * are not necessarily in the order they happened in, but each has its
+ * iteration.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class EventLog {
+
+	/** The first int of every log file ("JVEV"). */
+	public static final int MAGIC = 0x4A564556;
+
+	/** The version of the file format. */
+	public static final int VERSION = 1;
+
+	// The fields of a record, as offsets into it.
+
+	/** The type of event. */
+	public static final int TYPE = 0;
+
+	/** Why it happened, for the types that have reasons. */
+	public static final int REASON = 1;
+
+	/** The iteration it happened in. */
+	public static final int ITERATION = 2;
+
+	/** The id of the codon it happened to. */
+	public static final int CODON = 3;
+
+	/** The id of the other codon involved, or -1. */
+	public static final int OTHER = 4;
+
+	/** The codon's arm, or -1. */
+	public static final int ARM = 5;
+
+	/** The other codon's arm, or -1. */
+	public static final int OTHER_ARM = 6;
+
+	/** A measurement, as the bits of a float (Float.intBitsToFloat()): the
+	 * angle between the arms, for bonds. */
+	public static final int VALUE = 7;
+
+	/** The number of ints in a record. */
+	public static final int RECORD_INTS = 8;
+
+	// The types of event.
+
+	/** Two codons bonded. */
+	public static final int BOND = 0;
+
+	/** A bond broke. */
+	public static final int BREAK = 1;
+
+	/** A codon dropped one bond for another on the same arm. */
+	public static final int SWITCH = 2;
+
+	/** A codon folded. */
+	public static final int FOLD = 3;
+
+	/** A codon unfolded. */
+	public static final int UNFOLD = 4;
+
+	/** A codon started to shatter. */
+	public static final int SHATTER = 5;
+
+	/** A codon finished shattering, and went back to its starting state. */
+	public static final int SHATTERED = 6;
+
+	/** A codon that had split lost a left or right partner. */
+	public static final int LOST_PARTNER = 7;
+
+	/** The number of types. */
+	public static final int NUM_TYPES = 8;
+
+	/** The names of the types, as used in the Events property. */
+	private static final String[] TYPE_NAMES = {
+		"bond", "break", "switch", "fold", "unfold", "shatter", "shattered", "lostpartner" 
+	};
+
+	// The reasons.
+
+	/** No particular reason. */
+	public static final int NO_REASON = 0;
+
+	/** A break: the partner folded. */
+	public static final int PARTNER_FOLDED = 1;
+
+	/** A break: the arms were no longer touching. */
+	public static final int NOT_TOUCHING = 2;
+
+	/** A break: the codon was unfolding. */
+	public static final int UNFOLDING = 3;
+
+	/** A break: the codon that started an unfold breaks its right bond. */
+	public static final int UNFOLDING_BREAK = 4;
+
+	/** A break: the codon was shattering. */
+	public static final int SHATTERING = 5;
+
+	/** An unfold: started here, by an overlap. */
+	public static final int TRIGGERED = 6;
+
+	/** An unfold: passed along from a neighbour. */
+	public static final int PROPAGATED = 7;
+
+	/** A shatter: a bond broke. */
+	public static final int BROKEN_BOND = 8;
+
+	/** A shatter: a neighbour was shattering. */
+	public static final int NEIGHBOUR_SHATTERED = 9;
+
+	/** A shatter: the codon split without losing its partner. */
+	public static final int FAILED_SPLIT = 10;
+
+	/** The names of the reasons. */
+	private static final String[] REASON_NAMES = {
+		"-", "partner folded", "not touching", "unfolding", "unfolding-break", 
+		"shattering", "triggered", "propagated", "broken bond", "neighbour shattered",
+		"failed to split"
+	};
+
+	/** The number of records in each thread's ring.  A power of two. */
+	private static final int RING_RECORDS = 1 << 14;
+
+	/** How long (in milliseconds) the writer waits when there's nothing to
+	 * write. */
+	private static final long WRITER_SLEEP = 5;
+
+	/** One thread's events.  Only that thread adds to it, and only the writer
+	 * takes from it, so it needs no locks. */
+	private static final class Ring {
+
+		/** The records. */
+		private final int[] _records = new int[RING_RECORDS * RECORD_INTS];
+
+		/** The number of records taken so far.  Only the writer changes this. */
+		private volatile long _head = 0;
+
+		/** The number of records added so far.  Only the owner changes this. */
+		private volatile long _tail = 0;
+
+		/** The number of records dropped because the ring was full. */
+		private volatile long _dropped = 0;
+
+	}
+
+	/** A log that records nothing. */
+	/* package */ static final EventLog NONE = new EventLog();
+
+	/** Which types are recorded. */
+	private final boolean[] _enabled = new boolean[NUM_TYPES];
+
+	/** The number of events of each type, recorded or not. */
+	private final AtomicLongArray _counts = new AtomicLongArray(NUM_TYPES);
+
+	/** The iteration that events are being recorded for. */
+	private int _iteration;
+
+	/** Every thread's ring. */
+	private final ArrayList<Ring> _rings = new ArrayList<Ring>();
+
+	/** The current thread's ring. */
+	private final ThreadLocal<Ring> _ring = new ThreadLocal<Ring>() {
+		protected Ring initialValue() {
+			Ring ring = new Ring();
+			synchronized (EventLog.this._rings) {
+				EventLog.this._rings.add(ring);
+			}
+			return ring;
+		}
+	};
+
+	/** Where the records go, or null if nothing is recorded. */
+	private final DataOutputStream _out;
+
+	/** Drains the rings. */
+	private final Thread _writer;
+
+	/** Set once the log should be closed. */
+	private volatile boolean _closed = false;
+
+	/** The first problem the writer had, if any. */
+	private volatile IOException _failure;
+
+	/** Create a log that records nothing. */
+	/* package */ EventLog() {
+		this._out = null;
+		this._writer = null;
+	}
+
+	/** Create a log.
+	 * @param fileName The file to write to.  It is replaced.
+	 * @param types The types of event to record, by name, separated by
+	 * commas; or "all" or "none". */
+	/* package */ EventLog(String fileName, String types) throws IOException {
+		this.setEnabled(types);
+		this._out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		this._out.writeInt(MAGIC);
+		this._out.writeInt(VERSION);
+		this._out.writeInt(RECORD_INTS);
+
+		this._writer = new Thread("JohnnyVon Event Writer") {
+			public void run() { EventLog.this.write(); }
+		};
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/** Parse the list of types to record. */
+	private final void setEnabled(String types) {
+		String[] names = types.split(",");
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i].trim();
+			if (name.equalsIgnoreCase("all")) {
+				for (int type = 0; type < NUM_TYPES; type++) this._enabled[type] = true;
+			} else if (name.equalsIgnoreCase("none") || name.length() == 0) {
+				// Nothing.
+			} else {
+				int type = 0;
+				while (type < NUM_TYPES && !TYPE_NAMES[type].equalsIgnoreCase(name)) type++;
+				if (type == NUM_TYPES) throw new IllegalArgumentException("Unknown event: " + name);
+				this._enabled[type] = true;
+			}
+		}
+	}
+
+	/** @return Whether events of the given type are recorded. */
+	/* package */ final boolean isEnabled(int type) {
+		return this._enabled[type];
+	}
+
+	/** Set the iteration that events are being recorded for.  This has to be
+	 * called between iterations, while no other thread is recording. */
+	/* package */ final void setIteration(int iteration) {
+		this._iteration = iteration;
+	}
+
+	/** Count an event, and record it if its type is enabled.  This can be
+	 * called from any thread. */
+	/* package */ final void record(int type, int reason, int codon, int other, int arm, int otherArm, float value) {
+		this._counts.incrementAndGet(type);
+		if (!this._enabled[type]) return;
+
+		Ring ring = this._ring.get();
+		long tail = ring._tail;
+		if (tail - ring._head >= RING_RECORDS) {
+			ring._dropped++;
+			return;
+		}
+
+		int[] records = ring._records;
+		int r = (int)(tail & (RING_RECORDS - 1)) * RECORD_INTS;
+		records[r + TYPE] = type;
+		records[r + REASON] = reason;
+		records[r + ITERATION] = this._iteration;
+		records[r + CODON] = codon;
+		records[r + OTHER] = other;
+		records[r + ARM] = arm;
+		records[r + OTHER_ARM] = otherArm;
+		records[r + VALUE] = Float.floatToIntBits(value);
+
+		// Publish it to the writer.
+		ring._tail = tail + 1;
+	}
+
+	/** Record an event that involves just one codon. */
+	/* package */ final void record(int type, int reason, int codon) {
+		this.record(type, reason, codon, -1, -1, -1, 0f);
+	}
+
+	/** The writer's loop. */
+	private final void write() {
+		Ring[] rings = new Ring[0];
+		try {
+			while (true) {
+				// Check before draining, so that nothing recorded before close()
+				// is missed.
+				boolean closed = this._closed;
+
+				synchronized (this._rings) {
+					if (rings.length != this._rings.size()) {
+						rings = this._rings.toArray(new Ring[this._rings.size()]);
+					}
+				}
+
+				int written = 0;
+				for (int i = 0; i < rings.length; i++) {
+					written += this.drain(rings[i]);
+				}
+
+				if (closed) break;
+				if (written == 0) {
+					try {
+						Thread.sleep(WRITER_SLEEP);
+					} catch (InterruptedException ie) { }
+				}
+			}
+			this._out.close();
+		} catch (IOException ioe) {
+			this._failure = ioe;
+		}
+	}
+
+	/** Write out everything in a ring.
+	 * @return The number of records written. */
+	private final int drain(Ring ring) throws IOException {
+		long head = ring._head;
+		long tail = ring._tail;
+		int[] records = ring._records;
+		for (long i = head; i < tail; i++) {
+			int r = (int)(i & (RING_RECORDS - 1)) * RECORD_INTS;
+			for (int field = 0; field < RECORD_INTS; field++) {
+				this._out.writeInt(records[r + field]);
+			}
+		}
+		// Hand the space back.
+		ring._head = tail;
+		return (int)(tail - head);
+	}
+
+	/** Write out whatever is left, and close the file.
+	 * @throws IOException If the file couldn't be written. */
+	/* package */ final void close() throws IOException {
+		if (this._writer == null) return;
+		this._closed = true;
+		try {
+			this._writer.join();
+		} catch (InterruptedException ie) { }
+		if (this._failure != null) throw this._failure;
+	}
+
+	/** @return The number of events that were dropped because they were
+	 * recorded faster than they could be written. */
+	public final long getDropped() {
+		long dropped = 0;
+		synchronized (this._rings) {
+			for (int i = 0; i < this._rings.size(); i++) {
+				dropped += this._rings.get(i)._dropped;
+			}
+		}
+		return dropped;
+	}
+
+	/** @return The number of events of the given type so far, whether they
+	 * were recorded or not. */
+	/* package */ final long getCount(int type) {
+		return this._counts.get(type);
+	}
+
+	/** Read the header of a log file.
+	 * @throws IOException If it isn't a log file, or not one that this
+	 * version can read. */
+	public static void readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException("Not an event log.");
+		int version = in.readInt();
+		if (version != VERSION) throw new IOException("Can't read version " + version + " event logs.");
+		if (in.readInt() != RECORD_INTS) throw new IOException("Unexpected record size.");
+	}
+
+	/** Describe a record. 
+	 * @param record A record, from offset 0.
+	 * @return The record in words. */
+	public static String toString(int[] record) {
+		StringBuffer result = new StringBuffer();
+		result.append(record[ITERATION]).append('\t');
+		result.append(getName(TYPE_NAMES, record[TYPE])).append('\t');
+		result.append(record[CODON]);
+		if (record[ARM] >= 0) result.append(" @ ").append(record[ARM]);
+		if (record[OTHER] >= 0) {
+			result.append(", ").append(record[OTHER]);
+			if (record[OTHER_ARM] >= 0) result.append(" @ ").append(record[OTHER_ARM]);
+		}
+		if (record[REASON] != NO_REASON) {
+			result.append('\t').append(getName(REASON_NAMES, record[REASON]));
+		}
+		if (record[TYPE] == BOND) {
+			result.append("\tangle: ").append(Float.intBitsToFloat(record[VALUE]));
+		}
+		return result.toString();
+	}
+
+	private static String getName(String[] names, int index) {
+		return (index >= 0 && index < names.length) ? names[index] : ("?" + index);
+	}
+
+}
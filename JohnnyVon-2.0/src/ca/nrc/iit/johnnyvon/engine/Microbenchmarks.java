@@ -0,0 +1,297 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.Properties;
+
+/** The engine's kernels, set up to be timed on their own, a call at a
+ * time.  JohnnyVonMicrobenchmark runs them and reports how long each call
+ * takes, and how much it allocates.
+ *
+ * The interaction benchmarks set up a pair of codons in one of the ways
+ * that Codon.interact() handles differently, and interact them over and
+ * over.  The pairs are placed so that interacting them only adds to the
+ * forces, and never forms or breaks a bond, so every call does the same
+ * work.  The per-codon phases run on the codons of a Soup that has been
+ * simulated for a while; each call is one codon's.  The step benchmarks
+ * run whole iterations of a scenario, on one thread.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final strictfp class Microbenchmarks {
+
+	/** The names of the benchmarks, in the order they're usually run. */
+	private static final String[] NAMES = {
+		"interact.free", "interact.chain", "interact.mesh", "interact.repel",
+		"startTimestep", "finishTimestep", "copyStates", 
+		"CodonState.copyFrom", "Pair.projection", "Pair.perpendicularProjection",
+		"step.SmallTriangles", "step.Soup", "step.BigSoup"
+	};
+
+	/** The scenario whose codons the per-codon phases are timed on. */
+	private static final String PHASE_SCENARIO = "Soup";
+
+	/** How many iterations that scenario is run for first, so that its codons
+	 * are in all sorts of states. */
+	private static final int PHASE_WARMUP = 2000;
+
+	/** Something to time. */
+	public static abstract class Benchmark {
+
+		private final String _name;
+
+		/** Where results go, so that the JIT can't throw away the work. */
+		protected double _sink;
+
+		protected Benchmark(String name) {
+			this._name = name;
+		}
+
+		public final String getName() { return this._name; }
+
+		/** Do the operation being timed the given number of times. */
+		public abstract void run(int operations);
+
+		/** Let go of anything that's being held, e.g. a simulator's workers. */
+		public void close() { }
+
+		/** @return Whatever the operations have worked out, which means
+		 * nothing, but keeps them from being optimised away. */
+		public final double getSink() { return this._sink; }
+
+	}
+
+	private Microbenchmarks() { }
+
+	/** @return The names of the benchmarks that create() knows. */
+	public static String[] getNames() {
+		return NAMES.clone();
+	}
+
+	/** Set up a benchmark.
+	 * @param name One of getNames().
+	 * @param properties The scenarios, for the benchmarks that run them.
+	 * @throws IllegalArgumentException If there's no such benchmark. */
+	public static Benchmark create(String name, Properties properties) throws Exception {
+		if (name.startsWith("interact.")) {
+			return createInteract(name);
+		} else if (name.equals("startTimestep") || name.equals("finishTimestep") || name.equals("copyStates")) {
+			return createPhase(name, properties);
+		} else if (name.equals("CodonState.copyFrom")) {
+			return createCopyFrom(name);
+		} else if (name.startsWith("Pair.")) {
+			return createPair(name);
+		} else if (name.startsWith("step.")) {
+			return createStep(name, properties);
+		}
+		throw new IllegalArgumentException("No such benchmark: " + name);
+	}
+
+	/** A pair of codons, interacting. */
+	private static Benchmark createInteract(String name) {
+		CodonStore store = new CodonStore(2);
+		SimulationParameters simulation = new SimulationParameters();
+		CodonParameters parameters = new CodonParameters();
+		final Codon a;
+		final Codon b;
+
+		if (name.equals("interact.free")) {
+			// Two free codons of the same type, with their up arms touching,
+			// but neither in a chain, so they can't bond.
+			a = new Codon(store, simulation, parameters, 0, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, false, false);
+			b = new Codon(store, simulation, parameters, 1, new Pair(-4.5, 0), Math.PI, new Pair(0, 0), 0, 0, false, false);
+		} else if (name.equals("interact.chain")) {
+			// A codon of a chain, paired with a free one by their up arms.
+			a = new Codon(store, simulation, parameters, 0, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, true, false);
+			b = new Codon(store, simulation, parameters, 1, new Pair(-4.5, 0), Math.PI, new Pair(0, 0), 0, 0, false, false);
+			bond(a, CodonParameters.UP_ARM, b);
+		} else if (name.equals("interact.mesh")) {
+			// Two folded codons of a mesh, bonded left arm to right arm.
+			a = new Codon(store, simulation, parameters, 0, new Pair(0, 0), 0, new Pair(0, 0), 0, 3, true, false);
+			b = new Codon(store, simulation, parameters, 1, new Pair(0.5, -14), 0, new Pair(0, 0), 0, 3, true, false);
+			bond(a, CodonParameters.LEFT_ARM, b);
+			a.getState()._folded = true;
+			a.getState()._inMesh = true;
+			b.getState()._folded = true;
+			b.getState()._inMesh = true;
+		} else if (name.equals("interact.repel")) {
+			// Two codons that have just split, pushing each other apart with
+			// their repeller arms.
+			a = new Codon(store, simulation, parameters, 0, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, true, false);
+			b = new Codon(store, simulation, parameters, 1, new Pair(-4, 0), 0, new Pair(0, 0), 0, 0, false, false);
+			a.getState()._splittingState = CodonState.SPLIT_GO;
+			b.getState()._splittingState = CodonState.SPLIT_GO;
+		} else {
+			throw new IllegalArgumentException("No such benchmark: " + name);
+		}
+
+		a.setEventLog(EventLog.NONE);
+		b.setEventLog(EventLog.NONE);
+		a.startTimestep();
+		b.startTimestep();
+
+		return new Benchmark(name) {
+			public void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					a.interact(b, false);
+				}
+			}
+		};
+	}
+
+	/** Bond an arm of one codon to the matching arm of another. */
+	private static void bond(Codon a, int arm, Codon b) {
+		a.getState()._bonds[arm] = b;
+		b.getState()._bonds[CodonParameters.BOND_ARM[arm]] = a;
+	}
+
+	/** One of the per-codon phases of a timestep, on a simulated Soup. */
+	private static Benchmark createPhase(final String name, Properties properties) throws Exception {
+		final Simulator simulator = createSimulator(properties, PHASE_SCENARIO);
+		for (int i = 0; i < PHASE_WARMUP; i++) {
+			simulator.iterate();
+		}
+		final Codon[] codons = simulator.getCodons();
+		final int containerSize = simulator.getContainerSize();
+		final int phase = name.equals("startTimestep") ? 0 : name.equals("finishTimestep") ? 1 : 2;
+		final Population population = simulator.getPopulation();
+
+		return new Benchmark(name) {
+			/** The next codon. */
+			private int _next = 0;
+
+			public void run(int operations) {
+				int next = this._next;
+				for (int i = 0; i < operations; i++) {
+					switch (phase) {
+						case 0: codons[next].startTimestep(); break;
+						case 1: codons[next].finishTimestep(containerSize); break;
+						default: codons[next].copyStates(population, 0); break;
+					}
+					if (++next == codons.length) next = 0;
+				}
+				this._next = next;
+			}
+
+			public void close() { simulator.finish(); }
+		};
+	}
+
+	/** Copying a codon's state, as startTimestep() and copyStates() do. */
+	private static Benchmark createCopyFrom(String name) {
+		CodonStore store = new CodonStore(3);
+		SimulationParameters simulation = new SimulationParameters();
+		CodonParameters parameters = new CodonParameters();
+		Codon a = new Codon(store, simulation, parameters, 0, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, true, false);
+		Codon b = new Codon(store, simulation, parameters, 1, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, false, false);
+		Codon c = new Codon(store, simulation, parameters, 2, new Pair(0, 0), 0, new Pair(0, 0), 0, 0, false, false);
+		bond(a, CodonParameters.UP_ARM, b);
+		bond(a, CodonParameters.LEFT_ARM, c);
+
+		final CodonState source = a.getState();
+		final CodonState target = new CodonState();
+		return new Benchmark(name) {
+			public void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					target.copyFrom(source);
+				}
+			}
+		};
+	}
+
+	/** Projecting one Pair onto another.  These allocate their results. */
+	private static Benchmark createPair(String name) {
+		final boolean perpendicular;
+		if (name.equals("Pair.projection")) {
+			perpendicular = false;
+		} else if (name.equals("Pair.perpendicularProjection")) {
+			perpendicular = true;
+		} else {
+			throw new IllegalArgumentException("No such benchmark: " + name);
+		}
+
+		// A ring of different vectors, so that the JIT can't fold the
+		// projections away.
+		final Pair[] pairs = new Pair[64];
+		RandomStream random = new RandomStream(1);
+		for (int i = 0; i < pairs.length; i++) {
+			pairs[i] = new Pair(random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10);
+		}
+
+		return new Benchmark(name) {
+			public void run(int operations) {
+				double sink = 0;
+				for (int i = 0; i < operations; i++) {
+					Pair p = pairs[i & 63];
+					Pair q = pairs[(i + 1) & 63];
+					Pair result = perpendicular ? p.getPerpendicularProjectionOnto(q) : p.getProjectionOnto(q);
+					sink += result.x;
+				}
+				this._sink += sink;
+			}
+		};
+	}
+
+	/** Whole iterations of a scenario. */
+	private static Benchmark createStep(String name, Properties properties) throws Exception {
+		final Simulator simulator = createSimulator(properties, name.substring("step.".length()));
+		return new Benchmark(name) {
+			public void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					simulator.iterate();
+				}
+			}
+
+			public void close() { simulator.finish(); }
+		};
+	}
+
+	/** Create a simulator for a scenario, on a single thread, with a fixed
+	 * seed if it hasn't one. */
+	private static Simulator createSimulator(Properties properties, String scenario) throws Exception {
+		if (properties.getProperty(scenario + ".Size") == null) {
+			throw new IllegalArgumentException("No such scenario: " + scenario);
+		}
+		Properties copy = new Properties(properties);
+		copy.setProperty(scenario + ".Threads", "1");
+		if (properties.getProperty(scenario + ".RandomSeed") == null) {
+			copy.setProperty(scenario + ".RandomSeed", "1");
+		}
+		return new Simulator(copy, scenario);
+	}
+
+}
@@ -0,0 +1,240 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** A Verlet neighbour list.  Each codon keeps a list of the codons that were
+ * within the interaction diameter plus a "skin" distance when the list was
+ * built.  As long as no codon has moved more than half of the skin since
+ * then, no pair that was missing from the lists can have come within the
+ * interaction diameter, so the lists can be reused instead of searching the
+ * container again at every timestep.  Since the codons are in a fairly
+ * viscous liquid, they move very little in each timestep, and the lists last
+ * for many timesteps.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class NeighbourList implements Broadphase, CellGrid.PairVisitor {
+
+	/** The grid used to build the lists.  Its cells are as wide as the
+	 * interaction diameter plus the skin. */
+	private final CellGrid _grid;
+
+	/** The square of half of the skin.  If any codon has moved farther than
+	 * this since the lists were built, they need to be rebuilt. */
+	private final double _halfSkinSquared;
+
+	/** The x coordinate of each codon when the lists were last built. */
+	private final double[] _builtX;
+
+	/** The y coordinate of each codon when the lists were last built. */
+	private final double[] _builtY;
+
+	/** The index into _neighbours of the first neighbour of each codon.
+	 * Codon i's neighbours run from _start[i] up to (but not including)
+	 * _start[i + 1]. */
+	private final int[] _start;
+
+	/** The neighbours of every codon, one codon after another.  Only
+	 * neighbours with a lower index than the codon itself are listed, so each
+	 * pair appears once. */
+	private int[] _neighbours = new int[1024];
+
+	/** The pairs found while rebuilding, before they are sorted by codon.
+	 * These are kept around so that rebuilding doesn't allocate. */
+	private int[] _foundFirst = new int[1024];
+	private int[] _foundSecond = new int[1024];
+
+	/** The number of pairs found while rebuilding. */
+	private int _found;
+
+	/** The number of codons the lists were built for.  If we're asked about a
+	 * different number of codons, the lists are rebuilt. */
+	private int _numCodons = -1;
+
+	/** The number of times the lists have been built. */
+	private int _rebuilds = 0;
+
+	/** The number of pairs from the lists whose distance has been tested,
+	 * and the number of those found close enough to interact. */
+	private long _listTests = 0, _listFound = 0;
+
+	/** Where the positions of the codons are kept. */
+	private final CodonStore _store;
+
+	/** The square of the largest distance between two codons that can
+	 * interact. */
+	private final double _maxDistanceSquared;
+
+	/** Create neighbour lists for the given container. 
+	 *
+	 * @param containerSize The size of the container. 
+	 *
+	 * @param interactionDistance The largest distance between two codons
+	 * that can interact (twice their interaction radius).
+	 *
+	 * @param skin How much farther than the interaction diameter to look for
+	 * neighbours.  Larger skins mean longer lists, but fewer rebuilds. 
+	 *
+	 * @param store Where the positions of the codons are kept.
+	 */
+	/* package */ NeighbourList(int containerSize, double interactionDistance, double skin, CodonStore store) {
+		int maxCodons = store.getSize();
+		this._store = store;
+		this._grid = new CellGrid(containerSize, interactionDistance + skin, store);
+		this._maxDistanceSquared = interactionDistance * interactionDistance;
+		this._halfSkinSquared = (skin / 2) * (skin / 2);
+		this._builtX = new double[maxCodons];
+		this._builtY = new double[maxCodons];
+		this._start = new int[maxCodons + 1];
+	}
+
+	/** {@inheritDoc} */
+	public final void interactNeighbours(Codon[] codons, int numCodons, boolean firstRun) {
+
+		if (numCodons != this._numCodons || this.hasMovedTooFar(codons, numCodons)) {
+			this.rebuild(codons, numCodons);
+		}
+
+		final double maxDistanceSquared = this._maxDistanceSquared;
+
+		double[] x = this._store._x;
+		double[] y = this._store._y;
+		int found = 0;
+
+		for (int i = 0; i < numCodons; i++) {
+			Codon codon = codons[i];
+			double xi = x[i];
+			double yi = y[i];
+			int end = this._start[i + 1];
+			for (int n = this._start[i]; n < end; n++) {
+				int j = this._neighbours[n];
+				double dx = xi - x[j];
+				double dy = yi - y[j];
+				Codon other = codons[j];
+				if (dx * dx + dy * dy <= maxDistanceSquared) {
+					found++;
+					if (!codon.isBondedTo(other)) {
+						codon.interactPair(other, firstRun);
+					}
+				}
+			}
+		}
+
+		this._listTests += this._start[numCodons];
+		this._listFound += found;
+	}
+
+	/** {@inheritDoc} */
+	public final int getRebuilds() { return this._rebuilds; }
+
+	/** {@inheritDoc}  These are the pairs tested while rebuilding the lists,
+	 * as well as the pairs on them. */
+	public final long getPairTests() { return this._grid.getPairTests() + this._listTests; }
+
+	/** {@inheritDoc} */
+	public final long getPairsFound() { return this._listFound; }
+
+	/** Check whether any codon has moved more than half of the skin since the
+	 * lists were built. */
+	private final boolean hasMovedTooFar(Codon[] codons, int numCodons) {
+		double[] x = this._store._x;
+		double[] y = this._store._y;
+		for (int i = 0; i < numCodons; i++) {
+			double dx = x[i] - this._builtX[i];
+			double dy = y[i] - this._builtY[i];
+			if (dx * dx + dy * dy > this._halfSkinSquared) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Build the lists from scratch, remembering where everyone was. */
+	private final void rebuild(Codon[] codons, int numCodons) {
+
+		this._rebuilds++;
+		this._numCodons = numCodons;
+
+		System.arraycopy(this._store._x, 0, this._builtX, 0, numCodons);
+		System.arraycopy(this._store._y, 0, this._builtY, 0, numCodons);
+
+		this._found = 0;
+		this._grid.rebuild(codons, numCodons);
+		this._grid.findPairs(codons, this);
+
+		if (this._neighbours.length < this._found) {
+			this._neighbours = new int[this._foundFirst.length];
+		}
+
+		// Sort the pairs by their first codon, the same way the grid sorts
+		// codons by cell.
+		for (int i = 0; i <= numCodons; i++) {
+			this._start[i] = 0;
+		}
+		for (int k = 0; k < this._found; k++) {
+			this._start[this._foundFirst[k] + 1]++;
+		}
+		for (int i = 0; i < numCodons; i++) {
+			this._start[i + 1] += this._start[i];
+		}
+		for (int k = 0; k < this._found; k++) {
+			this._neighbours[this._start[this._foundFirst[k]]++] = this._foundSecond[k];
+		}
+		for (int i = numCodons; i > 0; i--) {
+			this._start[i] = this._start[i - 1];
+		}
+		this._start[0] = 0;
+
+	}
+
+	/** Collect a pair found in the grid while rebuilding. */
+	public final void visit(int i, int j) {
+		if (this._found == this._foundFirst.length) {
+			int[] first = new int[this._found * 2];
+			int[] second = new int[this._found * 2];
+			System.arraycopy(this._foundFirst, 0, first, 0, this._found);
+			System.arraycopy(this._foundSecond, 0, second, 0, this._found);
+			this._foundFirst = first;
+			this._foundSecond = second;
+		}
+		this._foundFirst[this._found] = i;
+		this._foundSecond[this._found] = j;
+		this._found++;
+	}
+
+}
@@ -0,0 +1,69 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** Where the random kicks of the codons' brownian motion come from.  Before
+ * the codons update their velocities, the kicks for the timestep are filled
+ * in to the CodonStore in batches, one batch per worker; each codon then
+ * uses its own three kicks.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ interface Noise {
+
+	/** The number of kicks each codon gets per timestep: x, y and angle. */
+	public static final int KICKS = 3;
+
+	/** Fill in the kicks of the codons with ids from start up to (but not
+	 * including) end, for the given iteration.  Codon i's kicks go in
+	 * CodonStore._kicks, from i * KICKS.  Each kick is between 0 (inclusive)
+	 * and 1 (exclusive).  This may be called from several threads at once,
+	 * for different ranges of codons. */
+	public void fill(int iteration, int start, int end);
+
+	/** @return The number of longs of state each codon has, which have to be
+	 * checkpointed for a run to carry on the same way.  May be 0. */
+	public int getStateLongs();
+
+	/** Copy the state of every codon, getStateLongs() longs per codon in
+	 * order of id.  This is only done between iterations. */
+	public void saveState(long[] state);
+
+	/** Set the state of every codon from what saveState() gave. */
+	public void restoreState(long[] state);
+
+}
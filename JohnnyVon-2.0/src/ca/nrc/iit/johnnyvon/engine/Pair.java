@@ -39,7 +39,7 @@ package ca.nrc.iit.johnnyvon.engine;
  * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
  * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
  */
-public final class Pair implements Cloneable {
+public final strictfp class Pair implements Cloneable {
 
 	public static final double PI = Math.PI;
 
@@ -135,13 +135,13 @@ public final class Pair implements Cloneable {
 	public void rotate(double angle) {
 		
 		// Physics for game developers, page 225
-		double newX = x * Math.cos(angle) + y * Math.sin(angle);
-		this.y = -x * Math.sin(angle) + y * Math.cos(angle);
+		double newX = x * StrictMath.cos(angle) + y * StrictMath.sin(angle);
+		this.y = -x * StrictMath.sin(angle) + y * StrictMath.cos(angle);
 		this.x = newX;
 	}
 
 	public final double getAngle() {
-		return Math.atan2(this.y, this.x);
+		return StrictMath.atan2(this.y, this.x);
 		/*
 		if (this.x == 0) {
 			if (this.y == 0) { 
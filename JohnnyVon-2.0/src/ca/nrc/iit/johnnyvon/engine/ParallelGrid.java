@@ -0,0 +1,159 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A cell grid whose pairs are interacted by several threads at once.
+ *
+ * Interacting a pair writes to both codons, so two threads must never
+ * interact pairs that share a codon.  The pairs found from a cell (see
+ * CellGrid.findPairs()) only involve codons from that cell's column and the
+ * columns either side of it, and from its row and the row above it.  So the
+ * cells are coloured by their column modulo 3 and their row modulo 2, and
+ * the cells of one colour can all be searched at once without any two
+ * threads touching the same codon.  The threads work through the six colours
+ * one after another, waiting for each other in between.
+ *
+ * Bonded pairs can be any distance apart, so they aren't safe to do this
+ * way; the BondList colours them by their codons instead, and the Simulator
+ * has it interact them before this is called.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class ParallelGrid implements Broadphase, WorkerPool.Task, CellGrid.PairVisitor {
+
+	/** Cells this many columns apart never share a codon. */
+	private static final int COLUMN_COLOURS = 3;
+
+	/** Cells this many rows apart never share a codon. */
+	private static final int ROW_COLOURS = 2;
+
+	/** The number of colours. */
+	private static final int NUM_COLOURS = COLUMN_COLOURS * ROW_COLOURS;
+
+	/** The grid of codons. */
+	private final CellGrid _grid;
+
+	/** The threads that search the cells. */
+	private final WorkerPool _pool;
+
+	/** For each colour, the next of its cells to be handed out. */
+	private final AtomicInteger[] _nextCell = new AtomicInteger[NUM_COLOURS];
+
+	/** The codons being interacted in this timestep. */
+	private Codon[] _codons;
+
+	/** Whether this is the first timestep. */
+	private boolean _firstRun;
+
+	/** Create a grid searched by the given pool of threads.
+	 * @param containerSize The size of the container.
+	 * @param interactionDistance The largest distance between two codons
+	 * that can interact.
+	 * @param pool The threads to use.
+	 * @param store Where the positions of the codons are kept.
+	 */
+	/* package */ ParallelGrid(int containerSize, double interactionDistance, WorkerPool pool, CodonStore store) {
+		this._grid = new CellGrid(containerSize, interactionDistance, store);
+		this._pool = pool;
+		for (int colour = 0; colour < NUM_COLOURS; colour++) {
+			this._nextCell[colour] = new AtomicInteger();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void interactNeighbours(Codon[] codons, int numCodons, boolean firstRun) {
+		this._grid.rebuild(codons, numCodons);
+
+		this._codons = codons;
+		this._firstRun = firstRun;
+		for (int colour = 0; colour < NUM_COLOURS; colour++) {
+			this._nextCell[colour].set(0);
+		}
+
+		this._pool.execute(this);
+		this._codons = null;
+	}
+
+	/** {@inheritDoc} */
+	public final int getRebuilds() { return this._grid.getRebuilds(); }
+
+	/** {@inheritDoc} */
+	public final long getPairTests() { return this._grid.getPairTests(); }
+
+	/** {@inheritDoc} */
+	public final long getPairsFound() { return this._grid.getPairsFound(); }
+
+	/** Search cells, one colour at a time, until there are none left.  Run by
+	 * each worker in the pool. */
+	public final void run(int worker) {
+		int cellsPerSide = this._grid.getCellsPerSide();
+
+		for (int colour = 0; colour < NUM_COLOURS; colour++) {
+			int firstColumn = colour % COLUMN_COLOURS;
+			int firstRow = colour / COLUMN_COLOURS;
+			int columns = (cellsPerSide - firstColumn + COLUMN_COLOURS - 1) / COLUMN_COLOURS;
+			int rows = (cellsPerSide - firstRow + ROW_COLOURS - 1) / ROW_COLOURS;
+			int cells = columns * rows;
+
+			// Anything thrown has to be passed to the pool rather than thrown,
+			// or the other workers would wait at the barrier forever.
+			try {
+				for (int k = this._nextCell[colour].getAndIncrement(); k < cells; k = this._nextCell[colour].getAndIncrement()) {
+					int cx = firstColumn + COLUMN_COLOURS * (k % columns);
+					int cy = firstRow + ROW_COLOURS * (k / columns);
+					this._grid.findPairs(this._codons, cx, cy, this);
+				}
+			} catch (Throwable t) {
+				this._pool.fail(t);
+			}
+
+			// Don't start on the next colour until everyone's done with this one.
+			if (colour + 1 < NUM_COLOURS) this._pool.barrier(worker);
+		}
+	}
+
+	/** Interact a pair found in the grid. */
+	public final void visit(int i, int j) {
+		if (!this._codons[i].isBondedTo(this._codons[j])) {
+			this._codons[i].interactPair(this._codons[j], this._firstRun);
+		}
+	}
+
+}
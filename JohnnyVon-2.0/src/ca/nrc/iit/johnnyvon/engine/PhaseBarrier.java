@@ -0,0 +1,109 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** A barrier for a fixed set of threads, reused for every phase of every
+ * timestep.  The phases are short (a few microseconds on a big soup), so
+ * waiting threads spin for a while before they park, which saves the cost
+ * of waking them up again when the others arrive soon after.  There is
+ * nothing to allocate, and no lock, on the way through.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class PhaseBarrier {
+
+	/** How many times to check for the end of the phase before parking.
+	 * There's no point in spinning with only one processor, since the thread
+	 * we're waiting for can't run while we do. */
+	private static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1) ? 20000 : 0;
+
+	/** The number of threads that have to arrive before any can leave. */
+	private final int _parties;
+
+	/** The number of threads that have arrived in the current phase. */
+	private final AtomicInteger _arrived = new AtomicInteger();
+
+	/** The number of phases completed.  Threads wait for this to change. */
+	private volatile int _phase = 0;
+
+	/** The threads that are parked, by party number. */
+	private final AtomicReferenceArray<Thread> _parked;
+
+	/** Create a barrier.
+	 * @param parties The number of threads using it. */
+	/* package */ PhaseBarrier(int parties) {
+		this._parties = parties;
+		this._parked = new AtomicReferenceArray<Thread>(parties);
+	}
+
+	/** Wait until all of the parties have arrived.  
+	 * @param party Which party this is, from 0 to parties - 1.  Each thread
+	 * should always use its own. */
+	/* package */ final void await(int party) {
+		int phase = this._phase;
+
+		if (this._arrived.incrementAndGet() == this._parties) {
+			// Last one here.  Nobody can arrive for the next phase until _phase
+			// changes, so the count can be reset first.
+			this._arrived.set(0);
+			this._phase = phase + 1;
+			for (int i = 0; i < this._parties; i++) {
+				Thread parked = this._parked.get(i);
+				if (parked != null) LockSupport.unpark(parked);
+			}
+			return;
+		}
+
+		for (int i = 0; i < SPINS; i++) {
+			if (this._phase != phase) return;
+		}
+
+		// Register before checking _phase again, so that either the last thread
+		// sees us and unparks us, or we see that it has already been.
+		this._parked.set(party, Thread.currentThread());
+		while (this._phase == phase) {
+			LockSupport.park(this);
+		}
+		this._parked.set(party, null);
+	}
+
+}
@@ -0,0 +1,189 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** How many codons there are in each state: free, replicating or folded (as
+ * the viewer shows them), in the mesh, split, and in each splitting and
+ * chain position state.  These are kept up to date as the codons copy their
+ * states, rather than counted afresh whenever they're wanted, so reading
+ * them costs the same however many codons there are.
+ *
+ * Each codon's state falls in a set of columns (see getColumns()).  When a
+ * codon copies its state, it compares the columns of its old and new
+ * states, and if they differ, adds the difference to its worker's own
+ * changes.  Between timesteps, the simulation's thread adds every worker's
+ * changes to the counts.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Population {
+
+	// The columns.
+
+	/** Codons that aren't bonded to anything (and aren't folded). */
+	public static final int FREE = 0;
+
+	/** Codons that are bonded, but not folded. */
+	public static final int REPLICATING = 1;
+
+	/** Codons that have folded. */
+	public static final int FOLDED = 2;
+
+	/** Codons in the mesh. */
+	public static final int IN_MESH = 3;
+
+	/** Codons that have split off from the chain they were made on. */
+	public static final int HAS_SPLIT = 4;
+
+	/** Codons in each splitting state, from SPLIT_NONE to SPLIT_SHATTER. */
+	public static final int SPLITTING = 5;
+
+	/** Codons in each chain position state, from CHAIN_DEFAULT to
+	 * CHAIN_TRUE_END. */
+	public static final int CHAIN_POSITION = SPLITTING + CodonState.SPLIT_SHATTER + 1;
+
+	/** The number of columns. */
+	public static final int NUM_COLUMNS = CHAIN_POSITION + CodonState.CHAIN_TRUE_END + 1;
+
+	private static final String[] COLUMN_NAMES = {
+		"free", "replicating", "folded", "inMesh", "hasSplit",
+		"splitNone", "splitReady", "splitGo", "splitShatter",
+		"chainDefault", "chainEnd", "chainTrueEnd"
+	};
+
+	/** Each worker's changes to the counts are padded out to this many ints,
+	 * so that no two workers write to the same cache line. */
+	private static final int PADDED_COLUMNS = (NUM_COLUMNS + 15) & ~15;
+
+	/** The number of codons in each column. */
+	private final int[] _counts = new int[NUM_COLUMNS];
+
+	/** The changes to the counts made by each worker since commit(). */
+	private final int[][] _changes;
+
+	/** Create the counts for the given number of workers.  They're all zero
+	 * until count() is called. */
+	/* package */ Population(int workers) {
+		this._changes = new int[workers][PADDED_COLUMNS];
+	}
+
+	/** Count the codons from scratch, from their definitive states.  This
+	 * has to be done between timesteps. */
+	/* package */ final void count(Codon[] codons) {
+		for (int column = 0; column < NUM_COLUMNS; column++) {
+			this._counts[column] = 0;
+		}
+		for (int worker = 0; worker < this._changes.length; worker++) {
+			for (int column = 0; column < NUM_COLUMNS; column++) {
+				this._changes[worker][column] = 0;
+			}
+		}
+		for (int i = 0; i < codons.length; i++) {
+			int columns = getColumns(codons[i].getState());
+			for (int column = 0; column < NUM_COLUMNS; column++) {
+				if ((columns & (1 << column)) != 0) this._counts[column]++;
+			}
+		}
+	}
+
+	/** @return The columns that a codon in the given state is counted in, as
+	 * bits. */
+	/* package */ static int getColumns(CodonState state) {
+		int columns = (1 << (SPLITTING + state._splittingState)) 
+				| (1 << (CHAIN_POSITION + state._chainPositionState));
+		if (state._folded) {
+			columns |= 1 << FOLDED;
+		} else {
+			boolean bonded = false;
+			for (int arm = 0; arm < CodonParameters.NUM_ARMS && !bonded; arm++) {
+				bonded = state._bonds[arm] != null;
+			}
+			columns |= 1 << (bonded ? REPLICATING : FREE);
+		}
+		if (state._inMesh) columns |= 1 << IN_MESH;
+		if (state._hasSplit) columns |= 1 << HAS_SPLIT;
+		return columns;
+	}
+
+	/** Move a codon from one set of columns to another.  This is called by
+	 * the worker copying the codon's state.
+	 * @param before The columns it was in (from getColumns()).
+	 * @param after The columns it is in now. */
+	/* package */ final void change(int worker, int before, int after) {
+		int[] changes = this._changes[worker];
+		for (int left = before & ~after; left != 0; left &= left - 1) {
+			changes[Integer.numberOfTrailingZeros(left)]--;
+		}
+		for (int joined = after & ~before; joined != 0; joined &= joined - 1) {
+			changes[Integer.numberOfTrailingZeros(joined)]++;
+		}
+	}
+
+	/** Add every worker's changes to the counts.  This has to be done
+	 * between timesteps, from the simulation's thread. */
+	/* package */ final void commit() {
+		for (int worker = 0; worker < this._changes.length; worker++) {
+			int[] changes = this._changes[worker];
+			for (int column = 0; column < NUM_COLUMNS; column++) {
+				this._counts[column] += changes[column];
+				changes[column] = 0;
+			}
+		}
+	}
+
+	/** Get the number of codons in a column.  Like the codons' states, this
+	 * should only be read between timesteps (from the viewer, say).
+	 * @param column One of the columns, e.g. FOLDED or SPLITTING + 1. */
+	public final int get(int column) {
+		return this._counts[column];
+	}
+
+	/** @return The number of codons that aren't bonded to anything. */
+	public final int getFree() { return this._counts[FREE]; }
+
+	/** @return The number of codons that are bonded, but not folded. */
+	public final int getReplicating() { return this._counts[REPLICATING]; }
+
+	/** @return The number of codons that have folded. */
+	public final int getFolded() { return this._counts[FOLDED]; }
+
+	/** @return The name of a column, as it's written in the population log. */
+	public static String getName(int column) {
+		return COLUMN_NAMES[column];
+	}
+
+}
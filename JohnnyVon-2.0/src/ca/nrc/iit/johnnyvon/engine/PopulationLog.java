@@ -0,0 +1,129 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** Writes the Population counts to a CSV file every so many iterations: a
+ * header line naming the columns, then a line per sample, starting with the
+ * iteration.  The line is put together in buffers kept for the purpose, so
+ * a sample doesn't allocate anything.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class PopulationLog {
+
+	/** How many iterations apart the samples are, if the scenario doesn't
+	 * say. */
+	/* package */ static final int DEFAULT_INTERVAL = 100;
+
+	/** Where the lines go. */
+	private final Writer _out;
+
+	/** How many iterations apart the samples are. */
+	private final int _interval;
+
+	/** The counts. */
+	private final Population _population;
+
+	/** The line being put together. */
+	private final StringBuffer _line = new StringBuffer();
+
+	/** The line, to be written. */
+	private char[] _chars = new char[256];
+
+	/** The first problem writing, if any.  Once there's been one, nothing
+	 * more is written. */
+	private IOException _failure;
+
+	/** Start a log.
+	 * @param fileName The file to write to.  It is replaced.
+	 * @param interval How many iterations apart the samples are. */
+	/* package */ PopulationLog(String fileName, int interval, Population population) throws IOException {
+		if (interval <= 0) throw new IllegalArgumentException("The population interval must be positive, not " + interval);
+		this._out = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		this._interval = interval;
+		this._population = population;
+
+		this._line.append("iteration");
+		for (int column = 0; column < Population.NUM_COLUMNS; column++) {
+			this._line.append(',').append(Population.getName(column));
+		}
+		this.writeLine();
+	}
+
+	/** Write a sample, if one is due.  This is called by the simulation's
+	 * thread after each iteration, once the counts are up to date. */
+	/* package */ final void afterIteration(int iteration) {
+		if (iteration % this._interval != 0 || this._failure != null) return;
+
+		this._line.append(iteration);
+		for (int column = 0; column < Population.NUM_COLUMNS; column++) {
+			this._line.append(',').append(this._population.get(column));
+		}
+		this.writeLine();
+	}
+
+	/** Write out the line, and start a new one. */
+	private final void writeLine() {
+		this._line.append('\n');
+		int length = this._line.length();
+		if (length > this._chars.length) this._chars = new char[length];
+		this._line.getChars(0, length, this._chars, 0);
+		this._line.setLength(0);
+		try {
+			this._out.write(this._chars, 0, length);
+		} catch (IOException ioe) {
+			this._failure = ioe;
+		}
+	}
+
+	/** Finish writing the log.
+	 * @throws IOException If any of it couldn't be written. */
+	/* package */ final void close() throws IOException {
+		try {
+			this._out.close();
+		} catch (IOException ioe) {
+			if (this._failure == null) this._failure = ioe;
+		}
+		if (this._failure != null) throw this._failure;
+	}
+
+}
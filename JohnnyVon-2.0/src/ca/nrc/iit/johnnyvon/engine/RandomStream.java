@@ -0,0 +1,124 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** A small, fast source of random numbers that can be split into
+ * independent streams.  This is the SplitMix64 generator (the same one as
+ * java.util.SplittableRandom, which is not in every JDK we build for).  Each
+ * codon has its own stream, split off from the simulation's, so that
+ * generating brownian motion involves no locking or shared state, and a run
+ * can be repeated from its seed however its codons are shared among threads.
+ *
+ * A stream is not thread-safe; it must only be used by one thread at a
+ * time.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final strictfp class RandomStream {
+
+	/** The golden ratio, scaled to 64 bits.  The default gamma. */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/** 2 to the power of -53. */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	/** The state, which is advanced by _gamma for each number. */
+	private long _seed;
+
+	/** How far the state advances each time.  Always odd. */
+	private final long _gamma;
+
+	/** Create a stream from a seed.  The same seed always gives the same
+	 * numbers. */
+	/* package */ RandomStream(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private RandomStream(long seed, long gamma) {
+		this._seed = seed;
+		this._gamma = gamma;
+	}
+
+	/** @return A random 64-bit number. */
+	/* package */ final long nextLong() {
+		this._seed += this._gamma;
+		return mix64(this._seed);
+	}
+
+	/** @return A random number between 0 (inclusive) and 1 (exclusive). */
+	/* package */ final double nextDouble() {
+		return (this.nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/** Split off a new stream.  The new stream's numbers are (to all intents
+	 * and purposes) independent of this one's.  This advances this stream. 
+	 * @return The new stream. */
+	/* package */ final RandomStream split() {
+		return new RandomStream(this.nextLong(), mixGamma(this.nextLong()));
+	}
+
+	/** Write out the state of this stream, as two longs from offset. */
+	/* package */ final void save(long[] state, int offset) {
+		state[offset] = this._seed;
+		state[offset + 1] = this._gamma;
+	}
+
+	/** Recreate a stream from the state written by save().  It carries on
+	 * where the saved one was. */
+	/* package */ static RandomStream load(long[] state, int offset) {
+		return new RandomStream(state[offset], state[offset + 1]);
+	}
+
+	/** Scramble the bits of a state into a random number.  (Stafford's
+	 * variant 13 of the MurmurHash3 finalizer.) */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Turn a random number into a gamma: odd, and with enough bit
+	 * transitions to mix the state well. */
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int transitions = Long.bitCount(z ^ (z >>> 1));
+		return (transitions < 24) ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+	}
+
+}
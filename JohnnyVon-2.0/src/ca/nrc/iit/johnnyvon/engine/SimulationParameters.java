@@ -32,7 +32,12 @@ Postal Contact:
 */
 
 /** The parameters of the simulation that are external to codons -- how the 
- * various forces actually work.
+ * various forces actually work.  Each Simulator has its own, read from its
+ * scenario's properties (e.g. Triangles.TimestepDuration=0.1), so that
+ * changing them doesn't need a recompile, and differently set up
+ * simulations can run side by side.  Anything a scenario doesn't give has
+ * the default value below.  They can't be changed once they're read, and
+ * the factors that are worked out from them are worked out then, once.
  * 
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
@@ -41,7 +46,9 @@ Postal Contact:
  */
 package ca.nrc.iit.johnnyvon.engine;
 
-/* package */ final class SimulationParameters {
+import java.util.Properties;
+
+public final strictfp class SimulationParameters {
 		
 	/** How many time units pass during each iteration. */
 	public static final double TIMESTEP_DURATION = 0.20;
@@ -56,33 +63,97 @@ package ca.nrc.iit.johnnyvon.engine;
 	 * removed at each step. */
 	public static final double LINEAR_VISCOSITY = 0.25;
 
-	/** The resultant linear viscosity factor for the "liquid". */
-	public static final double LINEAR_VISCOSITY_FACTOR = Math.pow(1 - LINEAR_VISCOSITY, TIMESTEP_DURATION);
-
 	/** Linear viscosity, between 0 and 1.  Closer to 1 means more energy is
 	 * removed at each step. */
-	private static final double ANGULAR_VISCOSITY = 0.25;
+	public static final double ANGULAR_VISCOSITY = 0.25;
 	
-	/** The resultant angular viscosity of the "liquid".  */
-	public static final double ANGULAR_VISCOSITY_FACTOR = Math.pow(1 - ANGULAR_VISCOSITY, TIMESTEP_DURATION);
-
 	/** Linear spring damping.  1.0 means two bonded codons are fully damped
 	 * towards their average velocity.  0.0 means two bonded codons are fully
 	 * independent. */
-	private static final double LINEAR_SPRING_DAMPING = 0.95;
+	public static final double LINEAR_SPRING_DAMPING = 0.95;
 
-	/** The resultant linear spring damping. */
-	public static final double LINEAR_SPRING_DAMPING_FACTOR = 1 - Math.pow(1 - LINEAR_SPRING_DAMPING, TIMESTEP_DURATION);
+	/** Angular spring damping.  The larger the number, the more two bonded
+	 * codons will tend towards the same rotation. */
+	public static final double ANGULAR_SPRING_DAMPING = 0.95;
 
-	private static final double ANGULAR_SPRING_DAMPING = 0.95;
+	// The parameters of this simulation.  They are read directly in the
+	// inner loops, so they're final fields rather than behind getters.
 	
+	/* package */ final double _timestepDuration;
+	/* package */ final double _linearBrownianMotion;
+	/* package */ final double _angularBrownianMotion;
+	/* package */ final double _linearViscosity;
+	/* package */ final double _angularViscosity;
+	/* package */ final double _linearSpringDamping;
+	/* package */ final double _angularSpringDamping;
+
+	/** The square root of the timestep duration, which scales the brownian
+	 * motion. */
+	/* package */ final double _timestepSqrt;
+
+	/** The resultant linear viscosity factor for the "liquid". */
+	/* package */ final double _linearViscosityFactor;
+
+	/** The resultant angular viscosity of the "liquid".  */
+	/* package */ final double _angularViscosityFactor;
+
+	/** The resultant linear spring damping. */
+	/* package */ final double _linearSpringDampingFactor;
+
 	/** The amount of extra damping towards zero rotation of two bonded
 	 * codons.  The larger the number, the more two bonded codons will tend
 	 * towards the same velocity.  Higher number (inside the brackets)*/
-	public static final double ANGULAR_SPRING_DAMPING_FACTOR =  Math.pow(1 - ANGULAR_SPRING_DAMPING, TIMESTEP_DURATION);
+	/* package */ final double _angularSpringDampingFactor;
+
+	/** Create the default parameters. */
+	public SimulationParameters() {
+		this(new Properties(), "");
+	}
 
-	static {
-		System.out.println("LIN DAMP: " + LINEAR_SPRING_DAMPING_FACTOR);
-		System.out.println("ANG DAMP: " + ANGULAR_SPRING_DAMPING_FACTOR);
+	/** Read the parameters of a scenario.
+	 * @param properties The scenarios.
+	 * @param prefix The scenario to read, e.g. "Triangles". */
+	public SimulationParameters(Properties properties, String prefix) {
+		this._timestepDuration = getDouble(properties, prefix + ".TimestepDuration", TIMESTEP_DURATION);
+		this._linearBrownianMotion = getDouble(properties, prefix + ".LinearBrownianMotion", LINEAR_BROWNIAN_MOTION);
+		this._angularBrownianMotion = getDouble(properties, prefix + ".AngularBrownianMotion", ANGULAR_BROWNIAN_MOTION);
+		this._linearViscosity = getDouble(properties, prefix + ".LinearViscosity", LINEAR_VISCOSITY);
+		this._angularViscosity = getDouble(properties, prefix + ".AngularViscosity", ANGULAR_VISCOSITY);
+		this._linearSpringDamping = getDouble(properties, prefix + ".LinearSpringDamping", LINEAR_SPRING_DAMPING);
+		this._angularSpringDamping = getDouble(properties, prefix + ".AngularSpringDamping", ANGULAR_SPRING_DAMPING);
+
+		if (!(this._timestepDuration > 0)) {
+			throw new IllegalArgumentException("The timestep duration must be positive, not " + this._timestepDuration);
+		}
+
+		this._timestepSqrt = Math.sqrt(this._timestepDuration);
+		this._linearViscosityFactor = StrictMath.pow(1 - this._linearViscosity, this._timestepDuration);
+		this._angularViscosityFactor = StrictMath.pow(1 - this._angularViscosity, this._timestepDuration);
+		this._linearSpringDampingFactor = 1 - StrictMath.pow(1 - this._linearSpringDamping, this._timestepDuration);
+		this._angularSpringDampingFactor = StrictMath.pow(1 - this._angularSpringDamping, this._timestepDuration);
 	}
+
+	/** @return How many time units pass during each iteration. */
+	public double getTimestepDuration() { return this._timestepDuration; }
+
+	/** @return The number of iterations that takes the given amount of time
+	 * (rounded down). */
+	public int getIterations(double time) { return (int)(time / this._timestepDuration); }
+
+	public String toString() {
+		return "TimestepDuration=" + this._timestepDuration 
+			+ " LinearBrownianMotion=" + this._linearBrownianMotion
+			+ " AngularBrownianMotion=" + this._angularBrownianMotion
+			+ " LinearViscosity=" + this._linearViscosity
+			+ " AngularViscosity=" + this._angularViscosity
+			+ " LinearSpringDamping=" + this._linearSpringDamping
+			+ " AngularSpringDamping=" + this._angularSpringDamping;
+	}
+
+	/** Read a number from the properties, if it's there. */
+	/* package */ static double getDouble(Properties properties, String key, double defaultValue) {
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+	}
+
 }
@@ -33,8 +33,9 @@ Postal Contact:
 
 package ca.nrc.iit.johnnyvon.engine;
 
-import java.util.Random;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 import java.io.BufferedReader;
 import java.io.IOException;
 
@@ -47,9 +48,53 @@ import java.io.IOException;
  */
 public class Simulator implements Runnable {
 
+	/** Something to run the simulation until.  See runUntil(). */
+	public static interface Condition {
+
+		/** Check the condition.  This is called on the simulation's thread
+		 * after every iteration, so it should be quick, and it can look at the
+		 * codons. 
+		 * @return True to pause the simulation. */
+		public boolean isMet(Simulator simulator);
+
+	}
+
+	/** Something that the simulation has been asked to do.  These are queued
+	 * up by any thread, and carried out on the simulation's thread between
+	 * iterations. */
+	private static final class Command {
+
+		static final int PAUSE = 0;
+		static final int RESUME = 1;
+		static final int RUN = 2;
+		static final int RUN_UNTIL = 3;
+		static final int DUMP = 4;
+
+		/** What to do. */
+		final int _type;
+
+		/** For RUN, how many iterations; for RUN_UNTIL, which iteration. */
+		final int _iterations;
+
+		/** For RUN_UNTIL, the condition, if there is one. */
+		final Condition _condition;
+
+		Command(int type, int iterations, Condition condition) {
+			this._type = type;
+			this._iterations = iterations;
+			this._condition = condition;
+		}
+	}
+
+	/** How many iterations to do between looking for commands. */
+	private static final int COMMAND_INTERVAL = 16;
+
 	/** Useful constant - The number of radians in a degree. */
 	private static final double RADIANS_PER_DEGREE = 2.0 * Math.PI / 360.0;
 
+	/** The neighbour list skin used if the scenario doesn't give one. */
+	private static final double DEFAULT_SKIN = 1.0;
+
 	/** Something that's watching the codons that we are simulating. */
 	private Viewer _viewer;
 
@@ -69,8 +114,163 @@ public class Simulator implements Runnable {
 	/** The codons being simulated. */
 	private final Codon[] _codons;
 
-	/** Whether or not we have been told to finish up. */
-	private boolean _done;
+	/** The positions, angles, velocities and forces of the codons. */
+	private final CodonStore _store;
+
+	/** How the forces on the codons work. */
+	private final SimulationParameters _simulationParameters;
+
+	/** The sizes and strengths of the codons' arms, and so on. */
+	private final CodonParameters _codonParameters;
+
+	/** Finds the codons that are close enough to interact. */
+	private final Broadphase _broadphase;
+
+	/** Every bond between two codons. */
+	private final BondList _bondList;
+
+	/** The connected components of the bonds. */
+	private final Components _components;
+
+	/** Where the brownian motion comes from. */
+	private final Noise _noise;
+
+	/** Puts the settled parts of the mesh to sleep, or null if the scenario
+	 * doesn't. */
+	private final Sleep _sleep;
+
+	/** Where bonds, folds and so on are recorded. */
+	private final EventLog _events;
+
+	/** The bonds proposed during the current timestep. */
+	private final BondProposals _bondProposals = new BondProposals();
+
+	/** The threads that share the work of each timestep. */
+	private final WorkerPool _pool;
+
+	/** Whether runs must come out exactly the same whatever the number of
+	 * threads. */
+	private final boolean _deterministic;
+
+	/** The seed that all of the random numbers come from, or null if they
+	 * should be different every time. */
+	private final Long _randomSeed;
+
+	/** The seed that was actually used: _randomSeed, or one made up from the
+	 * clock. */
+	private final long _seed;
+
+	/** The name of the scenario being simulated. */
+	private final String _scenario;
+
+	/** Saves the state of the simulation every so often, or null. */
+	private final Checkpoint _checkpoint;
+
+	/** Where frames of the run are recorded, or null. */
+	private final TrajectoryRecorder _trajectory;
+
+	/** How the simulation is getting on, for JMX. */
+	private final Statistics _statistics;
+
+	/** How many codons there are in each state. */
+	private final Population _population;
+
+	/** Where the population is written every so often, or null. */
+	private final PopulationLog _populationLog;
+
+	/** The number of codons taking part in the current timestep. */
+	private int _activeCodons;
+
+	/** Starts the timestep for each worker's share of the codons. */
+	private final WorkerPool.Task _startTimestep = new WorkerPool.Task() {
+		public void run(int worker) {
+			int end = Simulator.this._pool.getStart(worker + 1, Simulator.this._activeCodons);
+			byte[] sleep = Simulator.this._store._sleep;
+			for (int i = Simulator.this._pool.getStart(worker, Simulator.this._activeCodons); i < end; i++) {
+				if (sleep[i] == CodonStore.AWAKE) Simulator.this._codons[i].startTimestep();
+			}
+		}
+	};
+
+	/** Finishes the timestep for each worker's share of the codons, then (once
+	 * every codon has finished, since finishing reads the other codons'
+	 * states) copies their states.  Before any codon finishes, each notes its
+	 * bonds as the pairwise interactions left them (see
+	 * Codon.endInteractions()).  If codons sleep, each awake codon is judged
+	 * quiet or not once every codon has finished, since a partner finishing
+	 * on another worker may break its bonds, and the states are only copied
+	 * once that's been done for every codon, since it may touch any of them.
+	 * Sleepers are left as they are, except that those that were touched
+	 * have their states copied, since an awake codon may have changed their
+	 * bonds. */
+	private final WorkerPool.Task _finishTimestep = new WorkerPool.Task() {
+		public void run(int worker) {
+			WorkerPool pool = Simulator.this._pool;
+			int start = pool.getStart(worker, Simulator.this._activeCodons);
+			int end = pool.getStart(worker + 1, Simulator.this._activeCodons);
+			Sleep sleep = Simulator.this._sleep;
+			byte[] asleep = Simulator.this._store._sleep;
+
+			for (int i = start; i < end; i++) {
+				Simulator.this._codons[i].endInteractions();
+			}
+			pool.barrier(worker);
+
+			try {
+				if (sleep == null) {
+					Simulator.this._noise.fill(Simulator.this._iterations, start, end);
+				} else {
+					sleep.fill(Simulator.this._noise, Simulator.this._iterations, start, end);
+				}
+				for (int i = start; i < end; i++) {
+					if (asleep[i] == CodonStore.AWAKE) Simulator.this._codons[i].finishTimestep(Simulator.this._containerSize);
+				}
+			} catch (Throwable t) {
+				// Pass it on, rather than leave the others waiting at the barrier.
+				pool.fail(t);
+			}
+
+			pool.barrier(worker);
+			if (worker == 0) Simulator.this._statistics.endPhase(Statistics.FINISH_TIMESTEP);
+
+			if (sleep != null) {
+				try {
+					for (int i = start; i < end; i++) {
+						if (asleep[i] == CodonStore.AWAKE) sleep.finished(i);
+					}
+				} catch (Throwable t) {
+					pool.fail(t);
+				}
+				pool.barrier(worker);
+			}
+
+			Population population = Simulator.this._population;
+			for (int i = start; i < end; i++) {
+				if (asleep[i] != CodonStore.ASLEEP) Simulator.this._codons[i].copyStates(population, worker);
+			}
+		}
+	};
+
+	/** Whether or not we have been told to finish up.  This is set by any
+	 * thread, and checked after every iteration. */
+	private volatile boolean _done = false;
+
+	/** The commands that haven't been carried out yet. */
+	private final ConcurrentLinkedQueue<Command> _commands = new ConcurrentLinkedQueue<Command>();
+
+	/** The thread running simulate(), so that it can be woken when there's
+	 * a command for it. */
+	private volatile Thread _thread;
+
+	/** Whether the simulation is paused.  Only the simulation's thread
+	 * changes this. */
+	private volatile boolean _paused = false;
+
+	/** The iteration to pause after. */
+	private int _pauseAt = Integer.MAX_VALUE;
+
+	/** The condition to pause once it is met, or null. */
+	private Condition _pauseWhen = null;
 
 	/** The number of iterations performed. */
 	private int _iterations = 0;
@@ -86,8 +286,12 @@ public class Simulator implements Runnable {
 	 */
 	public Simulator(Properties properties, String prefix) throws Exception {
 
+		this._scenario = prefix;
 		this._containerSize = Integer.parseInt(properties.getProperty(prefix + ".Size"));
 
+		this._simulationParameters = new SimulationParameters(properties, prefix);
+		this._codonParameters = new CodonParameters(properties, prefix, this._simulationParameters);
+
 		this._numToCreate = this.parseDoubles(properties.getProperty(prefix + ".Create"), Codon.NUM_CODON_TYPES);
 
 		int toCreate = 0;
@@ -103,16 +307,160 @@ public class Simulator implements Runnable {
 		this._totalCodons = toCreate + seed.length;
 
 		this._codons = new Codon[this._totalCodons];
+		this._store = new CodonStore(this._totalCodons);
+		this._components = new Components(this._codons);
+		this._bondList = new BondList(this._totalCodons, this._components);
+
+		String randomSeed = properties.getProperty(prefix + ".RandomSeed");
+		this._randomSeed = (randomSeed == null) ? null : Long.valueOf(randomSeed.trim());
+
+		this._deterministic = Boolean.valueOf(properties.getProperty(prefix + ".Deterministic", "false").trim()).booleanValue();
+		if (this._deterministic && this._randomSeed == null) {
+			throw new IllegalArgumentException("A deterministic run needs a RandomSeed.");
+		}
+
+		// Every random number in the simulation is split off from this.
+		this._seed = (this._randomSeed == null) 
+				? System.currentTimeMillis() ^ System.nanoTime() : this._randomSeed.longValue();
+		RandomStream random = new RandomStream(this._seed);
 
 		// Read as many from the stream as we've been told.
 		this._seededCodons = seed.length;
 		this.parseCodons(seed); 
 		
 		// Randomize the remainder
-		this.randomize(seed.length);
+		this.randomize(seed.length, random.split());
+
+		// Even without a file, each simulation has a log of its own, to count
+		// its events.
+		String eventLog = properties.getProperty(prefix + ".EventLog");
+		this._events = (eventLog == null) ? new EventLog() 
+				: new EventLog(eventLog.trim(), properties.getProperty(prefix + ".Events", "all"));
+
+		this._bondList.setEventLog(this._events);
+		for (int i = 0; i < this._totalCodons; i++) {
+			this._codons[i].setBondList(this._bondList);
+			this._codons[i].setBondProposals(this._bondProposals);
+			this._codons[i].setEventLog(this._events);
+		}
+
+		this._noise = this.createNoise(properties.getProperty(prefix + ".Noise"), random);
+
+		String sleep = properties.getProperty(prefix + ".Sleep");
+		if (sleep == null || Integer.parseInt(sleep.trim()) == 0) {
+			this._sleep = null;
+		} else {
+			String velocity = properties.getProperty(prefix + ".SleepVelocity");
+			String acceleration = properties.getProperty(prefix + ".SleepAcceleration");
+			this._sleep = new Sleep(Integer.parseInt(sleep.trim()),
+					(velocity == null) ? Sleep.DEFAULT_VELOCITY : Double.parseDouble(velocity.trim()),
+					(acceleration == null) ? Sleep.DEFAULT_ACCELERATION : Double.parseDouble(acceleration.trim()),
+					this._codons, this._store, this._codonParameters);
+		}
+
+		this._pool = new WorkerPool(this.parseThreads(properties.getProperty(prefix + ".Threads")));
+		this._broadphase = this.createBroadphase(properties, prefix);
+		if (this._pool.getSize() > 1 || this._deterministic) {
+			// For the same reason as the grid, a deterministic run colours the
+			// bonds even with one thread.
+			this._bondList.setWorkerPool(this._pool);
+		}
+
+		this._population = new Population(this._pool.getSize());
+		this._population.count(this._codons);
+
+		String checkpoint = properties.getProperty(prefix + ".Checkpoint");
+		if (checkpoint == null) {
+			this._checkpoint = null;
+		} else {
+			String interval = properties.getProperty(prefix + ".CheckpointInterval");
+			this._checkpoint = new Checkpoint(checkpoint.trim(), 
+					(interval == null) ? Checkpoint.DEFAULT_INTERVAL : Integer.parseInt(interval.trim()),
+					properties, prefix, this._seed, this._codons, this._store, this._bondList, this._noise, this._sleep);
+		}
+
+		String trajectory = properties.getProperty(prefix + ".Trajectory");
+		if (trajectory == null) {
+			this._trajectory = null;
+		} else {
+			String interval = properties.getProperty(prefix + ".TrajectoryInterval");
+			this._trajectory = new TrajectoryRecorder(trajectory.trim(), 
+					(interval == null) ? TrajectoryRecorder.DEFAULT_INTERVAL : Integer.parseInt(interval.trim()),
+					prefix, this._containerSize, this._codons, this._store);
+		}
+
+		String populations = properties.getProperty(prefix + ".Populations");
+		if (populations == null) {
+			this._populationLog = null;
+		} else {
+			String interval = properties.getProperty(prefix + ".PopulationsInterval");
+			this._populationLog = new PopulationLog(populations.trim(), 
+					(interval == null) ? PopulationLog.DEFAULT_INTERVAL : Integer.parseInt(interval.trim()),
+					this._population);
+		}
+
+		this._statistics = new Statistics(prefix, this._store, this._broadphase, this._bondList, this._events);
+		this._statistics.register();
 
 	}
 
+	/** Figure out how many threads the scenario wants.  Zero (or less) means
+	 * one for each processor. */
+	private final int parseThreads(String value) {
+		int threads = (value == null) ? 1 : Integer.parseInt(value.trim());
+		if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+		return threads;
+	}
+
+	/** Create the broadphase named by the scenario's Broadphase property:
+	 * "grid", "verlet" (neighbour lists, the default) or "sweep" (sweep and
+	 * prune).  Only the grid can be shared among several threads, so that's
+	 * what is used (and the only thing allowed) if there are several.  A
+	 * deterministic run uses it even with one thread, since the order in
+	 * which it visits the cells has to be the same whatever the number of
+	 * threads. */
+	private final Broadphase createBroadphase(Properties properties, String prefix) {
+		String name = properties.getProperty(prefix + ".Broadphase");
+		String skin = properties.getProperty(prefix + ".Skin");
+		double skinSize = (skin == null) ? DEFAULT_SKIN : Double.parseDouble(skin.trim());
+		double interactionDistance = 2 * this._codonParameters._maxInteractionRadius;
+
+		if (this._pool.getSize() > 1 || this._deterministic) {
+			if (name != null && !name.trim().equalsIgnoreCase("grid")) {
+				throw new IllegalArgumentException("Only the grid broadphase can be used with more than one thread, or deterministically, not " + name.trim());
+			}
+			return new ParallelGrid(this._containerSize, interactionDistance, this._pool, this._store);
+		}
+
+		name = (name == null) ? "verlet" : name.trim();
+		if (name.equalsIgnoreCase("sweep")) {
+			return new SweepAndPrune(interactionDistance, this._store);
+		} else if (name.equalsIgnoreCase("grid") || (name.equalsIgnoreCase("verlet") && skinSize <= 0)) {
+			// A skin of zero means we search the grid afresh at every timestep.
+			return new CellGrid(this._containerSize, interactionDistance, this._store);
+		} else if (name.equalsIgnoreCase("verlet")) {
+			return new NeighbourList(this._containerSize, interactionDistance, skinSize, this._store);
+		} else {
+			throw new IllegalArgumentException("Unknown broadphase: " + name);
+		}
+	}
+
+	/** Create the noise source named by the scenario's Noise property:
+	 * "stream" (a RandomStream for each codon, the default) or "counter" (a
+	 * counter-based generator, which needs no state from one timestep to the
+	 * next).  Either way, the order in which the codons are updated (and by
+	 * which thread) doesn't matter. */
+	private final Noise createNoise(String name, RandomStream random) {
+		name = (name == null) ? "stream" : name.trim();
+		if (name.equalsIgnoreCase("stream")) {
+			return new StreamNoise(this._store, random);
+		} else if (name.equalsIgnoreCase("counter")) {
+			return new CounterNoise(this._store, random.nextLong());
+		} else {
+			throw new IllegalArgumentException("Unknown noise: " + name);
+		}
+	}
+
 	/** Parse the given comma-separated string into doubles, substituting zeros
 	 * wherever parsing fails. */
 	public double[] parseDoubles(String value, int minLength) {
@@ -136,7 +484,7 @@ public class Simulator implements Runnable {
 			// This should be made more generic.  Ideally, the file should specify
 			// the class of each Codon, and we should do some dynamic-loading
 			// magic.
-			this._codons[i] = new Codon(i, new Pair(codonData[1], codonData[2]), codonData[3] * RADIANS_PER_DEGREE, new Pair(codonData[4], codonData[5]), codonData[6] * RADIANS_PER_DEGREE, (int)codonData[0], true, true);
+			this._codons[i] = new Codon(this._store, this._simulationParameters, this._codonParameters, i, new Pair(codonData[1], codonData[2]), codonData[3] * RADIANS_PER_DEGREE, new Pair(codonData[4], codonData[5]), codonData[6] * RADIANS_PER_DEGREE, (int)codonData[0], true, true);
 		}
 
 	}
@@ -152,12 +500,11 @@ public class Simulator implements Runnable {
 	/** Generate a bunch of random Codons, starting at the given index.
 	 * 
 	 * @param startIndex The index of the first Codon to read in.
+	 * @param random Where the positions and angles come from.
 	 */
-	private final void randomize(int startIndex) {
+	private final void randomize(int startIndex, RandomStream random) {
 		final int MAX_ATTEMPTS = 100;
 		
-		Random random = new Random();
-		
 		int index = startIndex;
 		
 		for (int i = 0; i < this._numToCreate.length; i++) {
@@ -172,7 +519,9 @@ public class Simulator implements Runnable {
 						((random.nextDouble() * 2) - 1) * this._containerSize);
 
 				double angle = random.nextDouble() * 2 * Math.PI;
-				this._codons[index++] = new Codon(index, center, angle, new Pair(0.0, 0.0), 0.0, i, false, false);
+				// The id has to match the index; the broadphase relies on it.
+				this._codons[index] = new Codon(this._store, this._simulationParameters, this._codonParameters, index, center, angle, new Pair(0.0, 0.0), 0.0, i, false, false);
+				index++;
 			}
 		}
 
@@ -182,30 +531,101 @@ public class Simulator implements Runnable {
 	 */
 	public final void run() { this.simulate(); }
 		
-	/** start the simulator.  Does not return until shutdown() has been called. */
+	/** start the simulator.  Does not return until shutdown() has been called. 
+	 * The commands (pause(), step() and so on) can be given before this is
+	 * called, or while it is running.  A simulator restored from a Checkpoint
+	 * carries on from the checkpoint's iteration. */
 	public final void simulate() {
+		this.simulate(Integer.MAX_VALUE);
+	}
+
+	/** Run the simulation for the given number of iterations, on this thread,
+	 * and then return.  This is for running without a viewer.  The commands
+	 * work as they do for simulate(), so another thread can dump the codons,
+	 * or pause the run (e.g. with runUntil()) and carry it on again, but it
+	 * returns once the given iteration is done, whatever they asked for.
+	 * shutdown() stops it early, paused or not.  Like simulate(), this can
+	 * only be done once.
+	 * @param iterations The iteration to stop after.  For a simulator
+	 * restored from a Checkpoint, this includes the iterations done before
+	 * the checkpoint. */
+	public final void simulate(int iterations) {
+		this._thread = Thread.currentThread();
 		try {
-			this._iterations = 0;
-			this._done = false;
-			this.iterate(true, this._seededCodons);
-			while (!this._done) {
-				this.iterate(false, this._totalCodons);
-				try { 
-					if (System.in.available() > 0) {
-						System.in.read();
-						this.dumpAll();
+			if (this._iterations == 0) this.iterate(true, this._seededCodons);
+			while (!this._done && this._iterations < iterations) {
+				this.takeCommands();
+
+				if (this._paused) {
+					// Wait for a command.  (Or for nothing: park() can return for no
+					// reason, in which case we just look again.)
+					LockSupport.park(this);
+					continue;
+				}
+
+				for (int i = 0; i < COMMAND_INTERVAL && !this._done && !this._paused && this._iterations < iterations; i++) {
+					this.iterate(false, this._totalCodons);
+					if (this._iterations >= this._pauseAt 
+							|| (this._pauseWhen != null && this._pauseWhen.isMet(this))) {
+						this.setPaused(true);
 					}
-				} catch (IOException ioe) { }
+				}
 			}
 		} catch (AssertionError ae) {
 			this.dumpAll();
 			throw ae;
+		} finally {
+			this._thread = null;
+			this.finish();
 		}
 		//System.out.println("Shutdown: Quit notification received by simulator.");
 
 	}
 
+	/** Stop the workers, finish writing the event log, checkpoint,
+	 * trajectory and population log, and unregister the statistics, once the simulation is
+	 * over. */
+	/* package */ void finish() {
+		this._pool.shutdown();
+		this._statistics.close();
+		try {
+			this._events.close();
+		} catch (IOException ioe) {
+			System.err.println("Couldn't write the event log: " + ioe);
+		}
+		if (this._checkpoint != null) {
+			try {
+				this._checkpoint.close();
+			} catch (IOException ioe) {
+				System.err.println("Couldn't write the checkpoint: " + ioe);
+			}
+		}
+		if (this._trajectory != null) {
+			try {
+				this._trajectory.close();
+			} catch (IOException ioe) {
+				System.err.println("Couldn't write the trajectory: " + ioe);
+			}
+		}
+		if (this._populationLog != null) {
+			try {
+				this._populationLog.close();
+			} catch (IOException ioe) {
+				System.err.println("Couldn't write the population log: " + ioe);
+			}
+		}
+	}
+
+	/** Carry on from the given iteration.  Checkpoint.restore() calls this
+	 * once it has put back the codons' states, bonds and noise. */
+	/* package */ final void restore(int iteration) {
+		this._iterations = iteration;
+		this._events.setIteration(iteration);
+		this._population.count(this._codons);
+	}
+
 	private void dumpAll() {
+		System.out.println("Broadphase rebuilds: " + this.getBroadphaseRebuilds() + " in " + this._iterations + " iterations");
 		System.out.println("ID\tfolded\tchainSt\tsplitSt\trepel\tisSplit\tage\tseed\tmesh\tMshSdPar reset");
 		for (int i = 0; i < this._codons.length; i++) {
 			System.out.println(this._codons[i].toString());
@@ -214,44 +634,266 @@ public class Simulator implements Runnable {
 
 	/** If simulate() is currently running (in a different thread from the one
 	 * that calls shutdown, obviously) then it will complete its current
-	 * iteration, if any, and then return. 
+	 * iteration, if any, and then return.  If it hasn't started yet, it will
+	 * return as soon as it does. 
 	 */
-	public final void shutdown() { this._done = true; }
+	public final void shutdown() { 
+		this._done = true; 
+		this.wake();
+	}
+
+	/** Pause the simulation, after the iteration it's doing (or within a few
+	 * iterations). */
+	public final void pause() { this.post(new Command(Command.PAUSE, 0, null)); }
+
+	/** Carry on with the simulation, indefinitely. */
+	public final void resume() { this.post(new Command(Command.RESUME, 0, null)); }
+
+	/** Do the given number of iterations, then pause.
+	 * @param iterations How many iterations to do, from when the command is
+	 * carried out. */
+	public final void step(int iterations) { 
+		this.post(new Command(Command.RUN, iterations, null)); 
+	}
+
+	/** Run until the given iteration, then pause.  If it has already been
+	 * reached, pause straight away. */
+	public final void runUntil(int iteration) { 
+		this.post(new Command(Command.RUN_UNTIL, iteration, null)); 
+	}
+
+	/** Run until the given condition is met, then pause. */
+	public final void runUntil(Condition condition) { 
+		this.post(new Command(Command.RUN_UNTIL, Integer.MAX_VALUE, condition)); 
+	}
+
+	/** Print the state of every codon on standard out, between iterations. */
+	public final void dump() { this.post(new Command(Command.DUMP, 0, null)); }
+
+	/** @return Whether the simulation is paused (as of the last command to be
+	 * carried out, which might not be the last one given). */
+	public final boolean isPaused() { return this._paused; }
+
+	/** Queue up a command for the simulation's thread, and wake it up in case
+	 * it's paused.  This can be called from any thread. */
+	private final void post(Command command) {
+		this._commands.add(command);
+		this.wake();
+	}
+
+	/** Wake up the simulation's thread, if it's waiting. */
+	private final void wake() {
+		Thread thread = this._thread;
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+	/** Carry out the commands that have been given, in order. */
+	private final void takeCommands() {
+		Command command;
+		while ((command = this._commands.poll()) != null) {
+			switch (command._type) {
+				case Command.PAUSE:
+					this.setPaused(true);
+					break;
+				case Command.RESUME:
+					this.setPaused(false);
+					break;
+				case Command.RUN:
+					this.setPaused(false);
+					this._pauseAt = this._iterations + command._iterations;
+					break;
+				case Command.RUN_UNTIL:
+					this.setPaused(false);
+					this._pauseAt = command._iterations;
+					this._pauseWhen = command._condition;
+					if (this._iterations >= this._pauseAt) this.setPaused(true);
+					break;
+				case Command.DUMP:
+					this.dumpAll();
+					break;
+			}
+		}
+	}
+
+	/** Pause or unpause.  Either way, forget when we were going to pause. */
+	private final void setPaused(boolean paused) {
+		this._paused = paused;
+		this._pauseAt = Integer.MAX_VALUE;
+		this._pauseWhen = null;
+	}
+
+	/** Do a single step, outside of simulate(), for timing it.  The first one
+	 * is the seeded codons' first run, as in simulate().  finish() should be
+	 * called once they're done. */
+	/* package */ final void iterate() {
+		if (this._iterations == 0) {
+			this.iterate(true, this._seededCodons);
+		} else {
+			this.iterate(false, this._totalCodons);
+		}
+	}
 
 	/** Do a single step. */
 	private final void iterate(boolean firstRun, int numCodons) {
 
-		System.out.print("#");
-		// Set things up
-		for (int i = 0; i < numCodons; i++) {
-			this._codons[i].startTimestep();
-		}
+		// Set things up.  Each of the per-codon phases only changes the codons
+		// it's given (see Codon.releaseBond() for the one exception, and
+		// Codon.touchBonded(), which only ever marks sleepers to be woken), so
+		// they're shared out among the workers.
+		Statistics statistics = this._statistics;
+		statistics.startStep();
+		this._activeCodons = numCodons;
+		this._pool.execute(this._startTimestep);
+		statistics.endPhase(Statistics.START_TIMESTEP);
 
 		// Count the iteration
 		this._iterations++;
-
-		// Make each codon interact with each other codon.  This calculates the
-		// force applied to each codon.
-		for (int i = 0; i < numCodons; i++) {
-			for (int j = 0; j < i; j++) {
-				this._codons[i].interact(_codons[j], firstRun);
-			}
-		}
+		this._events.setIteration(this._iterations);
+
+		// Make each codon interact with its bond partners, and with each other
+		// codon that is close enough to matter.  This calculates the force
+		// applied to each codon.  Bonded pairs go first; they aren't
+		// necessarily near each other, and so can't be shared out by cell, but
+		// the BondList shares them out by colour instead.
+		this._bondList.interactBonded(this._codons, firstRun);
+		this._broadphase.interactNeighbours(this._codons, numCodons, firstRun);
+
+		// Now that every pair has had its say, form the new bonds.
+		this._bondProposals.resolve();
+		statistics.endPhase(Statistics.INTERACT);
 		
-		for (int i = 0; i < numCodons; i++) {
-			this._codons[i].finishTimestep(this._containerSize);
-		}
 	  // Calculate new velocities, given the forces that were just calculated
-		// to be acting on each codon. 
-		for (int i = 0; i < numCodons; i++) {
-			this._codons[i].copyStates();
+		// to be acting on each codon.  (The first worker times finishing and
+		// copying separately.)
+		this._pool.execute(this._finishTimestep);
+		this._population.commit();
+		statistics.endPhase(Statistics.COPY_STATES);
+		this._bondList.commit();
+		if (this._sleep != null) this._sleep.afterIteration(this._iterations);
+
+		if (this._checkpoint != null) this._checkpoint.afterIteration(this._iterations);
+		if (this._trajectory != null) this._trajectory.afterIteration(this._iterations);
+		if (this._populationLog != null) this._populationLog.afterIteration(this._iterations);
+		statistics.endPhase(Statistics.COMMIT);
+
+		// Tell the viewer, if there is one, to draw the current state
+		if (!firstRun && this._viewer != null) { 
+			this._viewer.view(this._codons, this._iterations * this._simulationParameters._timestepDuration, this._iterations);
 		}
+		statistics.endPhase(Statistics.VIEWER);
+		statistics.endStep(this._iterations);
 
-		// Tell the viewer to draw the current state
-		if (!firstRun) { 
-			this._viewer.view(this._codons, this._iterations * SimulationParameters.TIMESTEP_DURATION, this._iterations);
+	}
+
+	/** Get the number of times the broadphase has had to rebuild its index of
+	 * the codons' positions.  Divided by getIterations(), this is the rebuild
+	 * frequency, which is what the skin should be tuned for.
+	 * @return The number of rebuilds so far. */
+	public final int getBroadphaseRebuilds() {
+		return this._broadphase.getRebuilds();
+	}
+
+	/** Get a hash of the state of every codon.  Deterministic runs of the
+	 * same scenario should have the same hash after the same number of
+	 * iterations, however many threads they used.  This should only be called
+	 * between iterations, e.g. from the viewer.
+	 * @return The hash. */
+	public final long getStateHash() {
+		long hash = this._codons.length;
+		for (int i = 0; i < this._codons.length; i++) {
+			hash = this._codons[i].hashState(hash);
 		}
+		return hash;
+	}
+
+	/** Get the number of events that couldn't be recorded, because they
+	 * happened faster than they could be written.
+	 * @return The number of events dropped so far. */
+	public final long getDroppedEvents() {
+		return this._events.getDropped();
+	}
+
+	/** Get the codons being simulated.  Like getStateHash(), this should
+	 * only be used between iterations, or once the simulation is over.
+	 * @return The codons, which must not be changed. */
+	public final Codon[] getCodons() {
+		return this._codons;
+	}
+
+	/** @return The name of the scenario being simulated. */
+	public final String getScenario() {
+		return this._scenario;
+	}
+
+	/** @return The seed that the random numbers come from.  If the scenario
+	 * didn't give one, this is the one that was made up. */
+	public final long getRandomSeed() {
+		return this._seed;
+	}
+
+	/** @return How the simulation is getting on: the time each phase of a
+	 * step takes, and counts of what happens in them.  These are also
+	 * registered with the platform's MBean server. */
+	public final Statistics getStatistics() {
+		return this._statistics;
+	}
+
+	/** @return How many codons there are in each state.  Like the codons,
+	 * this should only be read between iterations. */
+	public final Population getPopulation() {
+		return this._population;
+	}
+
+	/** @return Which codons are joined to which by their bonds, directly or
+	 * not: the chains, folded shapes and mesh.  Like the codons, these should
+	 * only be asked about between iterations. */
+	public final Components getComponents() {
+		return this._components;
+	}
+
+	/** @return The number of codons asleep, which is always 0 unless the
+	 * scenario sleeps (see Sleep). */
+	public final int getAsleep() {
+		return (this._sleep == null) ? 0 : this._sleep.getAsleep();
+	}
+
+	/** @return The number of checkpoints written so far. */
+	public final int getCheckpoints() {
+		return (this._checkpoint == null) ? 0 : this._checkpoint.getWritten();
+	}
+
+	/* package */ final CodonStore getStore() {
+		return this._store;
+	}
+
+	/* package */ final BondList getBondList() {
+		return this._bondList;
+	}
+
+	/* package */ final Noise getNoise() {
+		return this._noise;
+	}
+
+	/** @return What puts the settled parts of the mesh to sleep, or null if
+	 * the scenario doesn't. */
+	/* package */ final Sleep getSleep() {
+		return this._sleep;
+	}
+
+	/** @return How the forces on the codons work. */
+	public final SimulationParameters getSimulationParameters() {
+		return this._simulationParameters;
+	}
+
+	/** @return The sizes and strengths of the codons' arms, and so on. */
+	public final CodonParameters getCodonParameters() {
+		return this._codonParameters;
+	}
 
+	/** Get the number of iterations performed so far. 
+	 * @return The number of iterations. */
+	public final int getIterations() {
+		return this._iterations;
 	}
 
   /** Get the size of the container that the codons are in. 
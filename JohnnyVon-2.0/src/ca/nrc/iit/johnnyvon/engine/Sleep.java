@@ -0,0 +1,280 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** Puts the settled parts of the mesh to sleep, and wakes them again.  A
+ * codon is sleepy once it is settled in the mesh, with no signal passing
+ * through it, and has been quiet for the last so many timesteps: none of
+ * its states or bonds have changed, and it has hardly moved (its velocity
+ * and acceleration, taking the tip of its longest arm as the measure for
+ * the angular ones, within the scenario's thresholds).  The thresholds are
+ * meant to be above the brownian jitter of a settled mesh, so that only a
+ * collision or a signal keeps it awake.  Every so many timesteps, each
+ * sleepy codon whose bond partners are all sleepy too (or asleep already)
+ * goes to sleep, so the sleepers make up connected patches of the mesh,
+ * with a fringe of sleepy, awake codons around them.  A sleeper's
+ * velocities are zeroed and its arms put where it now is (see
+ * Codon.sleep()), and from then on it holds still: it isn't started,
+ * finished or copied, it gets no brownian kicks, and two sleepers are
+ * never interacted with each other.
+ *
+ * An awake codon still interacts with a sleeper, which acts on it like an
+ * anchor that doesn't give.  A sleeper is marked TOUCHED, holds still for
+ * the rest of the timestep, and wakes after it, if
+ * <ul>
+ * <li> an awake codon gets within reach of its fields (see
+ *   Codon.interactArms()), unless that codon is settled in the mesh too,
+ *   and was quiet in the last timestep, or
+ * <li> an awake codon that is (or was) bonded to it stops being quiet: it
+ *   moved too much, or its state or bonds changed, which is how a shatter,
+ *   an unfolding or a counter reset reaches it.  It would have read its
+ *   partner's new state in the next timestep anyway, and it does.
+ * </ul>
+ * So the awake mesh around a sleeping patch can jitter against it without
+ * waking it, but a codon arriving from outside the mesh, or anything
+ * knocked about or changing beside it, wakes it where it's touched; a woken
+ * codon that is itself knocked about wakes its own neighbours in turn, so a
+ * disturbance spreads through a sleeping patch about as far as it would
+ * have been felt.  All of this is decided from the same states
+ * however the codons are shared out among threads, and waking and sleeping
+ * happen between timesteps, on the simulation's thread, so a sleeping run
+ * comes out the same whatever the number of threads.
+ *
+ * A sleeper's counters (how long it has been out of tolerance, or since it
+ * split) stop with it, as if no time passed for it while it slept.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final strictfp class Sleep {
+
+	/** The fastest a quiet codon may be going, if the scenario doesn't say. */
+	/* package */ static final double DEFAULT_VELOCITY = 0.35;
+
+	/** The most a quiet codon may be accelerating, if the scenario doesn't
+	 * say. */
+	/* package */ static final double DEFAULT_ACCELERATION = 1.5;
+
+	private final Codon[] _codons;
+	private final CodonStore _store;
+
+	/** How many timesteps in a row a codon has to be quiet to sleep.  Codons
+	 * are put to sleep this often. */
+	private final int _steps;
+
+	/** The squares of the thresholds. */
+	private final double _velocitySquared;
+	private final double _accelerationSquared;
+
+	/** How long a codon with an up bond may have been out of tolerance,
+	 * and still sleep: half as long as it takes to unfold. */
+	private final int _outOfTolerance;
+
+	/** The length of the longest arm, which turns angular velocities and
+	 * accelerations into those of its tip. */
+	private final double _reach;
+
+	/** Whether each codon could sleep, worked out by sleep(). */
+	private final boolean[] _sleepy;
+
+	/** The number of codons asleep. */
+	private int _asleep = 0;
+
+	/** Set up sleeping for a simulation.
+	 * @param steps How many timesteps in a row a codon has to be quiet.
+	 * @param velocity The fastest a quiet codon may be going.
+	 * @param acceleration The most a quiet codon may be accelerating. */
+	/* package */ Sleep(int steps, double velocity, double acceleration, 
+			Codon[] codons, CodonStore store, CodonParameters parameters) {
+		if (steps <= 0) {
+			throw new IllegalArgumentException("Codons must be quiet for a positive number of steps to sleep, not " + steps);
+		}
+		this._codons = codons;
+		this._store = store;
+		this._steps = steps;
+		this._velocitySquared = velocity * velocity;
+		this._accelerationSquared = acceleration * acceleration;
+		this._outOfTolerance = parameters._iterationsOutOfTolerance / 2;
+
+		double reach = 0;
+		for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+			reach = Math.max(reach, parameters._armLength[i]);
+		}
+		this._reach = reach;
+
+		this._sleepy = new boolean[codons.length];
+	}
+
+	/** Fill in the kicks of the awake codons with ids from start up to (but
+	 * not including) end, as Noise.fill() does. */
+	/* package */ final void fill(Noise noise, int iteration, int start, int end) {
+		byte[] sleep = this._store._sleep;
+		int i = start;
+		while (i < end) {
+			while (i < end && sleep[i] != CodonStore.AWAKE) i++;
+			int run = i;
+			while (i < end && sleep[i] == CodonStore.AWAKE) i++;
+			if (i > run) noise.fill(iteration, run, i);
+		}
+	}
+
+	/** Note whether an awake codon was quiet in the timestep it has just
+	 * finished, and if it wasn't, wake its partners.  This is called by
+	 * whichever worker finished it, once every codon has finished (so that
+	 * any bond of its that a partner broke is seen, however the codons were
+	 * shared out), and before any codon's states are copied. */
+	/* package */ final void finished(int id) {
+		CodonStore store = this._store;
+		double reach = this._reach;
+		double w = store._nextAngularVelocity[id] * reach;
+		double velocity = store._velocityX[id] * store._velocityX[id] 
+				+ store._velocityY[id] * store._velocityY[id] + w * w;
+		double a = store._angularAcceleration[id] * reach;
+		double acceleration = store._accelerationX[id] * store._accelerationX[id] 
+				+ store._accelerationY[id] * store._accelerationY[id] + a * a;
+
+		int[] quiet = store._quiet;
+		Codon codon = this._codons[id];
+		if (velocity <= this._velocitySquared && acceleration <= this._accelerationSquared && !codon.isChanging()) {
+			if (quiet[id] < this._steps) quiet[id]++;
+		} else {
+			quiet[id] = 0;
+			if (this._asleep > 0) codon.touchBonded();
+		}
+	}
+
+	/** Wake the codons that were touched in the timestep just finished, and
+	 * every so often put the sleepy ones to sleep.  This is called by the
+	 * simulation's thread, once the bonds have been committed. */
+	/* package */ final void afterIteration(int iteration) {
+		if (this._asleep > 0) this.wake();
+		if (iteration % this._steps == 0) this.sleep();
+	}
+
+	/** Wake every TOUCHED codon. */
+	private final void wake() {
+		byte[] sleep = this._store._sleep;
+		int[] quiet = this._store._quiet;
+		for (int i = 0; i < sleep.length; i++) {
+			if (sleep[i] == CodonStore.TOUCHED) {
+				sleep[i] = CodonStore.AWAKE;
+				quiet[i] = 1;
+				this._asleep--;
+			}
+		}
+	}
+
+	/** Put to sleep every sleepy codon whose partners are all sleepy. */
+	private final void sleep() {
+		byte[] sleep = this._store._sleep;
+		boolean[] sleepy = this._sleepy;
+		int size = sleep.length;
+
+		for (int i = 0; i < size; i++) {
+			sleepy[i] = (sleep[i] != CodonStore.AWAKE) || this.isSleepy(i);
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (sleep[i] != CodonStore.AWAKE || !sleepy[i]) continue;
+
+			Codon[] bonds = this._codons[i].getState()._bonds;
+			boolean settled = true;
+			for (int k = 0; k < CodonParameters.NUM_ARMS; k++) {
+				if (bonds[k] != null && !sleepy[bonds[k].getId()]) {
+					settled = false;
+					break;
+				}
+			}
+			if (!settled) continue;
+
+			sleep[i] = CodonStore.ASLEEP;
+			this._codons[i].sleep();
+			this._asleep++;
+		}
+	}
+
+	/** @return Whether an awake codon could sleep: it has been quiet for
+	 * long enough, and it's settled in the mesh, with no signal passing
+	 * through it and no split under way.  Codons of a settled mesh are often
+	 * out of tolerance, on and off, which only leads anywhere (to unfolding)
+	 * if they have an up bond and stay out for long enough, so only those
+	 * well on the way there are kept awake.  Folded codons with up bonds can
+	 * wait in SPLIT_READY for good, so that's allowed too. */
+	private final boolean isSleepy(int id) {
+		CodonState state = this._codons[id].getState();
+		return this._store._quiet[id] >= this._steps
+				&& state._inMesh 
+				&& (state._iterationsOutOfTolerance <= this._outOfTolerance || state._bonds[CodonParameters.UP_ARM] == null)
+				&& !state._unfoldSignal 
+				&& !state._resetCounter 
+				&& (state._splittingState == CodonState.SPLIT_NONE || state._splittingState == CodonState.SPLIT_READY);
+	}
+
+	/** @return The number of codons asleep. */
+	/* package */ final int getAsleep() {
+		return this._asleep;
+	}
+
+	/** Copy the state of every codon: -1 if it's asleep, or else how many
+	 * timesteps it has been quiet.  This is only done between iterations.
+	 * @param state Where to put it, one int per codon in order of id. */
+	/* package */ final void saveState(int[] state) {
+		byte[] sleep = this._store._sleep;
+		int[] quiet = this._store._quiet;
+		for (int i = 0; i < sleep.length; i++) {
+			state[i] = (sleep[i] == CodonStore.AWAKE) ? quiet[i] : -1;
+		}
+	}
+
+	/** Set the state of every codon from what saveState() gave. */
+	/* package */ final void restoreState(int[] state) {
+		byte[] sleep = this._store._sleep;
+		int[] quiet = this._store._quiet;
+		this._asleep = 0;
+		for (int i = 0; i < sleep.length; i++) {
+			if (state[i] < 0) {
+				sleep[i] = CodonStore.ASLEEP;
+				quiet[i] = this._steps;
+				this._codons[i].sleep();
+				this._asleep++;
+			} else {
+				sleep[i] = CodonStore.AWAKE;
+				quiet[i] = Math.min(state[i], this._steps);
+			}
+		}
+	}
+
+}
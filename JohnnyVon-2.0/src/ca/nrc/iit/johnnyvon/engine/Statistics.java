@@ -0,0 +1,411 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** How a Simulator is getting on: how long each phase of a step takes, how
+ * many pairs the broadphase tests, how many arms interact, and how many
+ * bonds, folds, unfold signals and shatters there are.  Each Simulator has
+ * one, registered with the platform's MBean server (as
+ * ca.nrc.iit.johnnyvon:type=Simulator,scenario=...,id=...) for as long as
+ * the simulation runs, so that jconsole or any other JMX client can watch a
+ * long run without stopping it.
+ *
+ * Collecting these is cheap enough to leave on: a few calls to
+ * System.nanoTime() per step, and counters that are only ever touched by one
+ * thread (see CodonStore._armInteractions and CellGrid) or that count rare
+ * events.  About once a second, between steps, the simulation's thread
+ * gathers the counters into a sample, without allocating anything; the
+ * rates are worked out from the last WINDOW of them when asked for.  The
+ * step latencies are kept for the last LATENCIES steps.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Statistics implements StatisticsMBean {
+
+	// The phases of a step, in order.
+
+	/** Codon.startTimestep(), on every worker. */
+	public static final int START_TIMESTEP = 0;
+
+	/** Interacting the bonded pairs and the broadphase's pairs, and forming
+	 * the bonds proposed. */
+	public static final int INTERACT = 1;
+
+	/** Codon.finishTimestep(), and the noise, on every worker. */
+	public static final int FINISH_TIMESTEP = 2;
+
+	/** Codon.copyStates(), on every worker, after Sleep.finished() if codons
+	 * sleep. */
+	public static final int COPY_STATES = 3;
+
+	/** Committing the bond list, and the checkpoint and trajectory. */
+	public static final int COMMIT = 4;
+
+	/** Telling the viewer, if there is one. */
+	public static final int VIEWER = 5;
+
+	/** The number of phases. */
+	public static final int NUM_PHASES = 6;
+
+	private static final String[] PHASE_NAMES = {
+		"startTimestep", "interact", "finishTimestep", "copyStates", "commit", "viewer"
+	};
+
+	// The counters.
+
+	/** Pairs of codons whose distance the broadphase has tested. */
+	public static final int PAIR_TESTS = 0;
+
+	/** Pairs tested that were too far apart to interact. */
+	public static final int PAIRS_REJECTED = 1;
+
+	/** Calls to Codon.interactArms(), for each arm of the codon whose
+	 * interactPair() was called (which settles the other arm), from here up
+	 * to CodonParameters.NUM_ARMS more. */
+	public static final int ARM_INTERACTIONS = 2;
+
+	/** Bonds that have formed. */
+	public static final int BONDS_FORMED = ARM_INTERACTIONS + CodonParameters.NUM_ARMS;
+
+	/** Bonds that have broken. */
+	public static final int BONDS_BROKEN = BONDS_FORMED + 1;
+
+	/** Codons that have folded. */
+	public static final int FOLDS = BONDS_BROKEN + 1;
+
+	/** Codons that have been told to unfold, by their neighbour or their
+	 * surroundings. */
+	public static final int UNFOLD_SIGNALS = FOLDS + 1;
+
+	/** Codons that have shattered. */
+	public static final int SHATTERS = UNFOLD_SIGNALS + 1;
+
+	/** The number of counters. */
+	public static final int NUM_COUNTERS = SHATTERS + 1;
+
+	private static final String[] COUNTER_NAMES = {
+		"pairTests", "pairsRejected", 
+		"interactArms.leftRight", "interactArms.rightLeft", "interactArms.up", 
+		"interactArms.repeller", "interactArms.overlap",
+		"bondsFormed", "bondsBroken", "folds", "unfoldSignals", "shatters"
+	};
+
+	/** How often to take a sample, in nanoseconds. */
+	private static final long SAMPLE_INTERVAL = 1000000000L;
+
+	/** The number of samples that the rates are over. */
+	private static final int WINDOW = 60;
+
+	/** The number of steps whose latencies are kept.  A power of two. */
+	private static final int LATENCIES = 1 << 12;
+
+	// The fields of a sample.
+
+	private static final int TIME = 0;
+
+	private static final int ITERATIONS = 1;
+
+	private static final int PHASES = 2;
+
+	private static final int COUNTERS = PHASES + NUM_PHASES;
+
+	private static final int SAMPLE_LONGS = COUNTERS + NUM_COUNTERS;
+
+	/** Gives each registered Statistics a different name. */
+	private static int _nextId = 0;
+
+	/** The name of the scenario. */
+	private final String _scenario;
+
+	// Where the counts come from.
+
+	private final CodonStore _store;
+
+	private final Broadphase _broadphase;
+
+	private final BondList _bondList;
+
+	private final EventLog _events;
+
+	/** The time spent in each phase so far.  Only the simulation's thread
+	 * uses this. */
+	private final long[] _phaseNanos = new long[NUM_PHASES];
+
+	/** The counters, as of the last sample.  Only the simulation's thread
+	 * uses this. */
+	private final long[] _counters = new long[NUM_COUNTERS];
+
+	/** The number of iterations done, as of the last step. */
+	private int _iterations;
+
+	/** When the current step started, and when its current phase did. */
+	private long _stepStart, _phaseStart;
+
+	/** When the last sample was taken. */
+	private long _lastSample;
+
+	/** The latencies of the last LATENCIES steps, in nanoseconds, oldest
+	 * first from _steps. */
+	private final long[] _latencies = new long[LATENCIES];
+
+	/** The number of steps timed. */
+	private volatile long _steps = 0;
+
+	/** The samples, as a ring. */
+	private final long[][] _samples = new long[WINDOW + 1][SAMPLE_LONGS];
+
+	/** The number of samples taken.  Guarded by this. */
+	private long _sampled = 0;
+
+	/** The name this is registered under, or null. */
+	private ObjectName _name;
+
+	/** Create the statistics for a simulator.  They have to be registered to
+	 * be seen.
+	 * @param scenario The name of the scenario being simulated. */
+	/* package */ Statistics(String scenario, CodonStore store, Broadphase broadphase, BondList bondList, EventLog events) {
+		this._scenario = scenario;
+		this._store = store;
+		this._broadphase = broadphase;
+		this._bondList = bondList;
+		this._events = events;
+		this._lastSample = System.nanoTime();
+	}
+
+	/** Register with the platform's MBean server.  Where that isn't allowed
+	 * (in an applet, say), the statistics are still kept, just not shown. */
+	/* package */ final void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			int id;
+			synchronized (Statistics.class) {
+				id = _nextId++;
+			}
+			String scenario = this._scenario.matches("[\\w.-]+") ? this._scenario : ObjectName.quote(this._scenario);
+			ObjectName name = new ObjectName("ca.nrc.iit.johnnyvon:type=Simulator,scenario=" + scenario + ",id=" + id);
+			server.registerMBean(this, name);
+			this._name = name;
+		} catch (SecurityException se) {
+			// Not allowed to; never mind.
+		} catch (JMException jme) {
+			System.err.println("Couldn't register the statistics: " + jme);
+		}
+	}
+
+	/** Take a last sample, and unregister. */
+	/* package */ final void close() {
+		this.sample(System.nanoTime());
+		if (this._name == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+		} catch (SecurityException se) {
+			// Never mind.
+		} catch (JMException jme) {
+			System.err.println("Couldn't unregister the statistics: " + jme);
+		}
+		this._name = null;
+	}
+
+	// Timing a step.  These are called from the simulation's thread (or from
+	// worker 0, which runs on it).
+
+	/** Start timing a step, and its first phase. */
+	/* package */ final void startStep() {
+		this._stepStart = System.nanoTime();
+		this._phaseStart = this._stepStart;
+	}
+
+	/** Finish timing the given phase, and start timing the next. */
+	/* package */ final void endPhase(int phase) {
+		long now = System.nanoTime();
+		this._phaseNanos[phase] += now - this._phaseStart;
+		this._phaseStart = now;
+	}
+
+	/** Finish timing a step, and take a sample if it's time to.
+	 * @param iterations The number of iterations done, including this one. */
+	/* package */ final void endStep(int iterations) {
+		long now = this._phaseStart;
+		long steps = this._steps;
+		this._latencies[(int)steps & (LATENCIES - 1)] = now - this._stepStart;
+		this._steps = steps + 1;
+		this._iterations = iterations;
+		if (now - this._lastSample >= SAMPLE_INTERVAL) this.sample(now);
+	}
+
+	/** Gather the counters into a sample.  This has to be done between steps,
+	 * from the simulation's thread. */
+	private final synchronized void sample(long now) {
+		this._lastSample = now;
+
+		long[] counters = this._counters;
+		counters[PAIR_TESTS] = this._broadphase.getPairTests();
+		counters[PAIRS_REJECTED] = counters[PAIR_TESTS] - this._broadphase.getPairsFound();
+		this._store.drainArmInteractions(counters, ARM_INTERACTIONS);
+		counters[BONDS_FORMED] = this._bondList.getFormed();
+		counters[BONDS_BROKEN] = this._bondList.getBroken();
+		counters[FOLDS] = this._events.getCount(EventLog.FOLD);
+		counters[UNFOLD_SIGNALS] = this._events.getCount(EventLog.UNFOLD);
+		counters[SHATTERS] = this._events.getCount(EventLog.SHATTER);
+
+		long[] sample = this._samples[(int)(this._sampled % this._samples.length)];
+		sample[TIME] = now;
+		sample[ITERATIONS] = this._iterations;
+		System.arraycopy(this._phaseNanos, 0, sample, PHASES, NUM_PHASES);
+		System.arraycopy(counters, 0, sample, COUNTERS, NUM_COUNTERS);
+		this._sampled++;
+	}
+
+	/** @return The latest sample, or null if there isn't one.  The caller
+	 * must hold the lock. */
+	private final long[] getLatest() {
+		if (this._sampled == 0) return null;
+		return this._samples[(int)((this._sampled - 1) % this._samples.length)];
+	}
+
+	/** @return The oldest sample in the window, or null if there are fewer
+	 * than two samples.  The caller must hold the lock. */
+	private final long[] getOldest() {
+		if (this._sampled < 2) return null;
+		return this._samples[(int)(Math.max(0, this._sampled - this._samples.length) % this._samples.length)];
+	}
+
+	/** @return The difference in one field over the window, or 0. */
+	private final synchronized long getChange(int field) {
+		long[] oldest = this.getOldest();
+		return (oldest == null) ? 0 : this.getLatest()[field] - oldest[field];
+	}
+
+	/** @return How fast one field went up over the window, per second. */
+	private final synchronized double getRate(int field) {
+		long nanos = this.getChange(TIME);
+		return (nanos == 0) ? 0 : this.getChange(field) * 1e9 / nanos;
+	}
+
+	/** @return Some fields of the latest sample. */
+	private final synchronized long[] getLatest(int field, int length) {
+		long[] result = new long[length];
+		long[] latest = this.getLatest();
+		if (latest != null) System.arraycopy(latest, field, result, 0, length);
+		return result;
+	}
+
+	/** @return The given percentile of the latencies of the last LATENCIES
+	 * steps, in microseconds. */
+	private final double getStepLatency(double percentile) {
+		long steps = this._steps;
+		int length = (int)Math.min(steps, LATENCIES);
+		if (length == 0) return 0;
+		long[] latencies = new long[length];
+		System.arraycopy(this._latencies, 0, latencies, 0, length);
+		Arrays.sort(latencies);
+		int index = (int)Math.ceil(percentile / 100 * length) - 1;
+		return latencies[Math.max(0, Math.min(length - 1, index))] / 1e3;
+	}
+
+	// The MBean.
+
+	/** {@inheritDoc} */
+	public final String getScenario() { return this._scenario; }
+
+	/** {@inheritDoc} */
+	public final synchronized long getIterations() {
+		long[] latest = this.getLatest();
+		return (latest == null) ? 0 : latest[ITERATIONS];
+	}
+
+	/** {@inheritDoc} */
+	public final double getWindowSeconds() { return this.getChange(TIME) / 1e9; }
+
+	/** {@inheritDoc} */
+	public final double getIterationsPerSecond() { return this.getRate(ITERATIONS); }
+
+	/** {@inheritDoc} */
+	public final String[] getPhaseNames() { return PHASE_NAMES.clone(); }
+
+	/** {@inheritDoc} */
+	public final long[] getPhaseNanos() { return this.getLatest(PHASES, NUM_PHASES); }
+
+	/** {@inheritDoc} */
+	public final synchronized double[] getPhaseNanosPerStep() {
+		double[] result = new double[NUM_PHASES];
+		long iterations = this.getChange(ITERATIONS);
+		for (int phase = 0; phase < NUM_PHASES && iterations > 0; phase++) {
+			result[phase] = (double)this.getChange(PHASES + phase) / iterations;
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public final double getStepLatencyMedian() { return this.getStepLatency(50); }
+
+	/** {@inheritDoc} */
+	public final double getStepLatency90th() { return this.getStepLatency(90); }
+
+	/** {@inheritDoc} */
+	public final double getStepLatency99th() { return this.getStepLatency(99); }
+
+	/** {@inheritDoc} */
+	public final double getStepLatency999th() { return this.getStepLatency(99.9); }
+
+	/** {@inheritDoc} */
+	public final double getStepLatencyMax() { return this.getStepLatency(100); }
+
+	/** {@inheritDoc} */
+	public final String[] getCounterNames() { return COUNTER_NAMES.clone(); }
+
+	/** {@inheritDoc} */
+	public final long[] getCounters() { return this.getLatest(COUNTERS, NUM_COUNTERS); }
+
+	/** {@inheritDoc} */
+	public final synchronized double[] getCounterRates() {
+		double[] result = new double[NUM_COUNTERS];
+		for (int counter = 0; counter < NUM_COUNTERS; counter++) {
+			result[counter] = this.getRate(COUNTERS + counter);
+		}
+		return result;
+	}
+
+}
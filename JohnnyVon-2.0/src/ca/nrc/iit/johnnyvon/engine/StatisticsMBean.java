@@ -0,0 +1,90 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** What a Simulator's Statistics show over JMX.  The totals are as of the
+ * last sample, which is taken about once a second; the rates, and the time
+ * spent in each phase, are over the samples of the last minute or so.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public interface StatisticsMBean {
+
+	/** @return The name of the scenario being simulated. */
+	public String getScenario();
+
+	/** @return The number of iterations done, as of the last sample. */
+	public long getIterations();
+
+	/** @return The number of seconds that the rates are over. */
+	public double getWindowSeconds();
+
+	public double getIterationsPerSecond();
+
+	/** @return The names of the phases of a step, in order. */
+	public String[] getPhaseNames();
+
+	/** @return The total time spent in each phase, in nanoseconds. */
+	public long[] getPhaseNanos();
+
+	/** @return The mean time per step spent in each phase, over the window,
+	 * in nanoseconds. */
+	public double[] getPhaseNanosPerStep();
+
+	// The time that whole steps took, over the most recent ones, in
+	// microseconds.
+
+	public double getStepLatencyMedian();
+
+	public double getStepLatency90th();
+
+	public double getStepLatency99th();
+
+	public double getStepLatency999th();
+
+	public double getStepLatencyMax();
+
+	/** @return The names of the counters. */
+	public String[] getCounterNames();
+
+	/** @return The counters' totals. */
+	public long[] getCounters();
+
+	/** @return How fast each counter went up over the window, per second. */
+	public double[] getCounterRates();
+
+}
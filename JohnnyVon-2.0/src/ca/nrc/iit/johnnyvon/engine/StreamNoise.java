@@ -0,0 +1,93 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** Brownian kicks drawn from a RandomStream for each codon.  Each codon's
+ * kicks follow on from its kicks in the previous timestep, so a run can only
+ * be repeated from the start.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class StreamNoise implements Noise {
+
+	/** Where the kicks go. */
+	private final CodonStore _store;
+
+	/** The stream of each codon. */
+	private final RandomStream[] _streams;
+
+	/** Create the streams for every codon in the store.
+	 * @param store Where the kicks go.
+	 * @param random The stream that the codons' streams are split off from,
+	 * in order of id. */
+	/* package */ StreamNoise(CodonStore store, RandomStream random) {
+		this._store = store;
+		this._streams = new RandomStream[store.getSize()];
+		for (int i = 0; i < this._streams.length; i++) {
+			this._streams[i] = random.split();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void fill(int iteration, int start, int end) {
+		double[] kicks = this._store._kicks;
+		for (int i = start; i < end; i++) {
+			RandomStream stream = this._streams[i];
+			for (int k = i * KICKS; k < (i + 1) * KICKS; k++) {
+				kicks[k] = stream.nextDouble();
+			}
+		}
+	}
+
+	/** {@inheritDoc}  Each codon's stream is two longs. */
+	public final int getStateLongs() { return 2; }
+
+	/** {@inheritDoc} */
+	public final void saveState(long[] state) {
+		for (int i = 0; i < this._streams.length; i++) {
+			this._streams[i].save(state, 2 * i);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void restoreState(long[] state) {
+		for (int i = 0; i < this._streams.length; i++) {
+			this._streams[i] = RandomStream.load(state, 2 * i);
+		}
+	}
+
+}
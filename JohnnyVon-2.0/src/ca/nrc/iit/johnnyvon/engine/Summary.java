@@ -0,0 +1,138 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** How a run of a scenario turned out (or how it was doing, part way
+ * through): how long it took, how many of its codons were free, bonded and
+ * folded, and the hash of their states.  Written out as a line of tab
+ * separated values, with HEADER as the column names.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Summary {
+
+	/** The names of the columns in toString(). */
+	public static final String HEADER = "scenario\trun\tseed\titeration\tseconds\titerations/s"
+		+ "\tcodons\tfree\tbonded\tfolded\thash\tdroppedEvents\tfailure";
+
+	private final String _scenario;
+	private final int _run;
+	private final long _seed;
+	private final int _iterations;
+	private final double _seconds;
+	private final int _codons;
+	private final int _free;
+	private final int _bonded;
+	private final int _folded;
+	private final long _hash;
+	private final long _droppedEvents;
+	private final Throwable _failure;
+
+	/** Summarise a simulation.  This should only be done between its
+	 * iterations, or once it's over.
+	 * @param simulator The simulation, or null if it couldn't be created.
+	 * @param seconds How long it has been running.
+	 * @param failure What went wrong with it, or null if nothing did. */
+	public Summary(String scenario, int run, long seed, Simulator simulator, double seconds, Throwable failure) {
+		this._scenario = scenario;
+		this._run = run;
+		this._seed = seed;
+		this._seconds = seconds;
+		this._failure = failure;
+
+		int free = 0, bonded = 0, folded = 0;
+		if (simulator != null) {
+			Codon[] codons = simulator.getCodons();
+			Population population = simulator.getPopulation();
+			free = population.getFree();
+			bonded = population.getReplicating();
+			folded = population.getFolded();
+			this._iterations = simulator.getIterations();
+			this._codons = codons.length;
+			this._hash = simulator.getStateHash();
+			this._droppedEvents = simulator.getDroppedEvents();
+		} else {
+			this._iterations = 0;
+			this._codons = 0;
+			this._hash = 0;
+			this._droppedEvents = 0;
+		}
+		this._free = free;
+		this._bonded = bonded;
+		this._folded = folded;
+	}
+
+	public String getScenario() { return this._scenario; }
+
+	/** @return Which of the runs of the scenario this was, from 0. */
+	public int getRun() { return this._run; }
+
+	/** @return The RandomSeed the run was given. */
+	public long getSeed() { return this._seed; }
+
+	public int getIterations() { return this._iterations; }
+
+	public double getSeconds() { return this._seconds; }
+
+	public int getCodons() { return this._codons; }
+
+	/** @return The number of codons that were neither bonded nor folded. */
+	public int getFree() { return this._free; }
+
+	/** @return The number of codons that were bonded, but not folded. */
+	public int getBonded() { return this._bonded; }
+
+	public int getFolded() { return this._folded; }
+
+	/** @return The hash of the codons' states; see Simulator.getStateHash(). */
+	public long getHash() { return this._hash; }
+
+	public long getDroppedEvents() { return this._droppedEvents; }
+
+	/** @return What went wrong with the run, or null if nothing did. */
+	public Throwable getFailure() { return this._failure; }
+
+	public String toString() {
+		return this._scenario + "\t" + this._run + "\t" + this._seed + "\t" + this._iterations 
+			+ "\t" + this._seconds + "\t" + (int)(this._iterations / Math.max(this._seconds, 0.001))
+			+ "\t" + this._codons + "\t" + this._free + "\t" + this._bonded + "\t" + this._folded
+			+ "\t" + Long.toHexString(this._hash) + "\t" + this._droppedEvents 
+			+ "\t" + ((this._failure == null) ? "" : this._failure.toString().replace('\t', ' ').replace('\n', ' '));
+	}
+
+}
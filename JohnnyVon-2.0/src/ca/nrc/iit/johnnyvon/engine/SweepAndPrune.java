@@ -0,0 +1,256 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.util.Arrays;
+
+/** A sweep-and-prune broadphase.  Each codon covers the interval x +/-
+ * the codons' interaction radius, and two codons can only interact if
+ * their intervals overlap, i.e. if their centres are no more than the
+ * interaction diameter apart in x.  The codons are kept sorted by x, and
+ * each one only has to be compared with the codons after it in the order,
+ * up to the first one that is too far away.  Those are then pruned by their
+ * distance in y.
+ *
+ * The sweep is actually along whichever of x and y the codons are more
+ * spread out in (by the variance of their positions), so that a mesh
+ * stretched along one wall of the container is swept along its length,
+ * rather than across it, where every pair of it would overlap.  The axis is
+ * chosen when the order is started, and checked again every AXIS_INTERVAL
+ * timesteps, since meshes take a while to grow.  A dense clump that is
+ * spread out in neither direction still has to have all of its pairs
+ * tested.
+ *
+ * The order is kept from one timestep to the next and re-sorted with an
+ * insertion sort.  Codons barely move in a timestep, so the order barely
+ * changes, and the insertion sort is close to linear.  When the order is
+ * started again (on the first timestep, when the number of codons changes,
+ * or when the axis does), it is sorted from scratch first.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class SweepAndPrune implements Broadphase {
+
+	/** How many timesteps between checks on which axis to sweep along. */
+	private static final int AXIS_INTERVAL = 1000;
+
+	/** How many times the variance along the current axis the other one's
+	 * has to be before the sweep changes to it, so that it doesn't keep
+	 * changing back and forth when they're about the same. */
+	private static final double AXIS_HYSTERESIS = 1.5;
+
+	/** The indices of the codons, sorted along the sweep axis. */
+	private final int[] _order;
+
+	/** The position along the sweep axis of the codon in each position of
+	 * _order. */
+	private final double[] _along;
+
+	/** The number of codons in _order.  If we're asked about a different
+	 * number of codons, the order is started again from scratch. */
+	private int _numCodons = -1;
+
+	/** The codons' positions along the sweep axis (the store's x or y), and
+	 * across it (the other one). */
+	private double[] _sweep, _cross;
+
+	/** The number of timesteps for which the order has been updated. */
+	private int _rebuilds = 0;
+
+	/** The number of pairs that have overlapped along the sweep axis, and the
+	 * number of those found close enough to interact. */
+	private long _tests = 0, _found = 0;
+
+	/** Where the positions of the codons are kept. */
+	private final CodonStore _store;
+
+	/** The square of the largest distance between two codons that can
+	 * interact. */
+	private final double _maxDistanceSquared;
+
+	/** Create a sweep-and-prune broadphase.
+	 * @param interactionDistance The largest distance between two codons
+	 * that can interact (twice their interaction radius).
+	 * @param store Where the positions of the codons are kept.
+	 */
+	/* package */ SweepAndPrune(double interactionDistance, CodonStore store) {
+		int maxCodons = store.getSize();
+		this._store = store;
+		this._maxDistanceSquared = interactionDistance * interactionDistance;
+		this._order = new int[maxCodons];
+		this._along = new double[maxCodons];
+		this._sweep = store._x;
+		this._cross = store._y;
+	}
+
+	/** {@inheritDoc} */
+	public final void interactNeighbours(Codon[] codons, int numCodons, boolean firstRun) {
+
+		this.sort(codons, numCodons);
+
+		final double maxDistanceSquared = this._maxDistanceSquared;
+
+		double[] cross = this._cross;
+		int tests = 0, found = 0;
+
+		for (int k = 0; k < numCodons; k++) {
+			int i = this._order[k];
+			Codon codon = codons[i];
+			double ai = this._along[k];
+			double ci = cross[i];
+
+			for (int m = k + 1; m < numCodons; m++) {
+				// These are the same differences that the full test squares and
+				// adds, so nothing is pruned here that it would let through.
+				double da = ai - this._along[m];
+				if (da * da > maxDistanceSquared) break;
+				tests++;
+
+				int j = this._order[m];
+				double dc = ci - cross[j];
+				if (dc * dc > maxDistanceSquared) continue;
+
+				Codon other = codons[j];
+				if (da * da + dc * dc <= maxDistanceSquared) {
+					found++;
+					if (i > j) {
+						if (!codon.isBondedTo(other)) codon.interactPair(other, firstRun);
+					} else {
+						if (!other.isBondedTo(codon)) other.interactPair(codon, firstRun);
+					}
+				}
+			}
+		}
+
+		this._tests += tests;
+		this._found += found;
+	}
+
+	/** {@inheritDoc} */
+	public final int getRebuilds() { return this._rebuilds; }
+
+	/** {@inheritDoc}  These are the pairs that overlap along the sweep axis;
+	 * the rest are pruned without a test. */
+	public final long getPairTests() { return this._tests; }
+
+	/** {@inheritDoc} */
+	public final long getPairsFound() { return this._found; }
+
+	/** Bring the order up to date with the codons' current positions. */
+	private final void sort(Codon[] codons, int numCodons) {
+
+		this._rebuilds++;
+
+		if (numCodons != this._numCodons) {
+			this._numCodons = numCodons;
+			this.chooseAxis(numCodons, 1.0);
+			this.sortFully(numCodons);
+		} else if (this._rebuilds % AXIS_INTERVAL == 0 && this.chooseAxis(numCodons, AXIS_HYSTERESIS)) {
+			this.sortFully(numCodons);
+		}
+
+		double[] sweep = this._sweep;
+		for (int k = 0; k < numCodons; k++) {
+			this._along[k] = sweep[this._order[k]];
+		}
+
+		// Insertion sort.
+		for (int k = 1; k < numCodons; k++) {
+			double along = this._along[k];
+			int index = this._order[k];
+			int m = k - 1;
+			while (m >= 0 && this._along[m] > along) {
+				this._along[m + 1] = this._along[m];
+				this._order[m + 1] = this._order[m];
+				m--;
+			}
+			this._along[m + 1] = along;
+			this._order[m + 1] = index;
+		}
+	}
+
+	/** Sweep along whichever of x and y the codons are more spread out in.
+	 * @param hysteresis How many times the variance along the current axis
+	 * the other one's has to be to change to it.
+	 * @return Whether the axis changed. */
+	private final boolean chooseAxis(int numCodons, double hysteresis) {
+		double along = this.getVariance(this._sweep, numCodons);
+		double across = this.getVariance(this._cross, numCodons);
+		if (across <= along * hysteresis) return false;
+
+		double[] sweep = this._sweep;
+		this._sweep = this._cross;
+		this._cross = sweep;
+		return true;
+	}
+
+	/** @return The variance of the first numCodons of the given positions. */
+	private final double getVariance(double[] positions, int numCodons) {
+		if (numCodons == 0) return 0;
+		double sum = 0, sumOfSquares = 0;
+		for (int i = 0; i < numCodons; i++) {
+			sum += positions[i];
+			sumOfSquares += positions[i] * positions[i];
+		}
+		double mean = sum / numCodons;
+		return sumOfSquares / numCodons - mean * mean;
+	}
+
+	/** Sort the order from scratch, rather than from the last timestep's
+	 * order, which is no help (or isn't there) when it is started again.  An
+	 * insertion sort of codons in no particular order takes time quadratic in
+	 * their number.  This sorts them by their positions rounded to floats, with
+	 * their indices in the low bits of each key, and the insertion sort in
+	 * sort() then puts right the few that were too close to tell apart. */
+	private final void sortFully(int numCodons) {
+		double[] sweep = this._sweep;
+		long[] keys = new long[numCodons];
+		for (int i = 0; i < numCodons; i++) {
+			// Floats' bits compare as ints in the same order as the floats, once
+			// the negative ones have their other bits flipped.
+			int bits = Float.floatToIntBits((float)sweep[i]);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			keys[i] = ((long)bits << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int k = 0; k < numCodons; k++) {
+			this._order[k] = (int)keys[k];
+		}
+	}
+
+}
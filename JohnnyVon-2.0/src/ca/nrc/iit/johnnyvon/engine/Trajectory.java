@@ -0,0 +1,448 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A recorded trajectory: every so many iterations of a run, the position,
+ * angle, state and bond partners of every codon.  TrajectoryRecorder writes
+ * these; this reads them back, a frame at a time, in any order.
+ *
+ * The positions and angles are quantised: positions to 1/POSITION_SCALE
+ * of a unit, and angles to 1/65536 of a turn.  Every KEY_INTERVAL'th frame
+ * is a key frame, with everything in it.  The frames in between only have
+ * the changes since the frame before: the moves (as zigzag varints), and
+ * the codons whose states or bonds changed.  Reading a frame means reading
+ * its key frame, and the frames after it up to the one wanted; reading the
+ * frames in order only reads each frame once.
+ *
+ * The file is big-endian.  It starts with MAGIC, VERSION, the number of
+ * codons, the container size, POSITION_SCALE, KEY_INTERVAL, the number of
+ * iterations between frames, the scenario's name, and each codon's type.
+ * The frames follow, each with its kind (KEY or DELTA), iteration and
+ * length.  When the recording is closed, an index of where each frame starts
+ * is added, followed by where the index starts and MAGIC again.  A recording
+ * that wasn't closed (because the JVM died, say) has no index, and its
+ * frames are found by reading through them all.
+ * 
+ * A Trajectory is not thread-safe.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public final class Trajectory {
+
+	/** The first int of every trajectory file ("JVTR"). */
+	public static final int MAGIC = 0x4A565452;
+
+	/** The version of the file format. */
+	public static final int VERSION = 1;
+
+	/** How many steps a unit of distance is divided into. */
+	public static final int POSITION_SCALE = 256;
+
+	/** How many steps a radian is divided into. */
+	/* package */ static final double ANGLE_SCALE = 32768 / Math.PI;
+
+	/** How many frames apart the key frames are. */
+	public static final int KEY_INTERVAL = 64;
+
+	/** The kind of a frame with everything in it. */
+	/* package */ static final byte KEY = 1;
+
+	/** The kind of a frame with only the changes since the frame before. */
+	/* package */ static final byte DELTA = 2;
+
+	/** The size of a frame's kind, iteration and length. */
+	/* package */ static final int FRAME_HEADER = 9;
+
+	// The bits of a codon's state in a frame.  The lowest two bits are its
+	// splitting state, the next two its chain position state.
+
+	public static final int FOLDED = 0x10;
+	public static final int HAS_SPLIT = 0x20;
+	public static final int IN_MESH = 0x40;
+	public static final int UNFOLD_SIGNAL = 0x80;
+
+	/** The state of every codon at one frame.  Trajectory.read() fills it
+	 * in. */
+	public static final class Frame {
+
+		/** The frame this is, or -1 before it is first read. */
+		private int _frame = -1;
+
+		private int _iteration;
+
+		/** The quantised positions and angles. */
+		private final int[] _x, _y;
+		private final short[] _angle;
+
+		/** The states, as bits. */
+		private final byte[] _state;
+
+		/** The bond partners, CodonParameters.NUM_ARMS per codon, or -1. */
+		private final int[] _bonds;
+
+		/** Create an empty frame for a trajectory's codons. */
+		public Frame(Trajectory trajectory) {
+			int codons = trajectory.getCodons();
+			this._x = new int[codons];
+			this._y = new int[codons];
+			this._angle = new short[codons];
+			this._state = new byte[codons];
+			this._bonds = new int[codons * CodonParameters.NUM_ARMS];
+		}
+
+		/** @return Which frame of the trajectory this is. */
+		public int getFrame() { return this._frame; }
+
+		public int getIteration() { return this._iteration; }
+
+		public int getCodons() { return this._x.length; }
+
+		public double getX(int codon) { return this._x[codon] / (double)POSITION_SCALE; }
+
+		public double getY(int codon) { return this._y[codon] / (double)POSITION_SCALE; }
+
+		/** @return The angle, between -PI and PI. */
+		public double getAngle(int codon) { return this._angle[codon] / ANGLE_SCALE; }
+
+		/** @return The state of the codon, as FOLDED, HAS_SPLIT and so on. */
+		public int getState(int codon) { return this._state[codon] & 0xFF; }
+
+		public boolean isFolded(int codon) { return (this._state[codon] & FOLDED) != 0; }
+
+		public boolean hasSplit(int codon) { return (this._state[codon] & HAS_SPLIT) != 0; }
+
+		public boolean isInMesh(int codon) { return (this._state[codon] & IN_MESH) != 0; }
+
+		public int getSplittingState(int codon) { return this._state[codon] & 0x3; }
+
+		public int getChainPositionState(int codon) { return (this._state[codon] >> 2) & 0x3; }
+
+		/** @return The id of the codon bonded to the given arm, or -1. */
+		public int getBondPartner(int codon, int arm) {
+			return this._bonds[codon * CodonParameters.NUM_ARMS + arm];
+		}
+
+		/** @return Whether the codon has any bonds. */
+		public boolean isBonded(int codon) {
+			for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+				if (this._bonds[codon * CodonParameters.NUM_ARMS + arm] >= 0) return true;
+			}
+			return false;
+		}
+
+		/** Strictly for drawing.  The arms aren't recorded, so this works them
+		 * out (as Codon does) from the position and angle.
+		 * @param parameters The recorded scenario's arm lengths.
+		 * @return The position of the tip of the given arm. */
+		public Pair getArmPosition(int codon, int arm, CodonParameters parameters) {
+			double angle = this.getAngle(codon);
+			double cos = StrictMath.cos(angle);
+			double sin = StrictMath.sin(angle);
+			double armCos = cos * CodonParameters.ARM_COS[arm] - sin * CodonParameters.ARM_SIN[arm];
+			double armSin = sin * CodonParameters.ARM_COS[arm] + cos * CodonParameters.ARM_SIN[arm];
+			return new Pair(this.getX(codon) + armCos * parameters._armLength[arm],
+					this.getY(codon) + armSin * parameters._armLength[arm]);
+		}
+
+		/** @return The position of the tip of the arm that the given arm is
+		 * bonded to, or null if it isn't bonded. */
+		public Pair getBondPartnerLocation(int codon, int arm, CodonParameters parameters) {
+			int partner = this.getBondPartner(codon, arm);
+			if (partner < 0) return null;
+			return this.getArmPosition(partner, CodonParameters.BOND_ARM[arm], parameters);
+		}
+
+	}
+
+	/** The file. */
+	private final RandomAccessFile _file;
+	private final FileChannel _channel;
+
+	private final int _codons;
+	private final int _containerSize;
+	private final int _interval;
+	private final String _scenario;
+
+	/** The type of each codon. */
+	private final byte[] _types;
+
+	/** Where each frame starts in the file.  There is one extra, for where
+	 * the last one ends. */
+	private long[] _offsets;
+
+	/** The iteration of each frame. */
+	private int[] _iterations;
+
+	/** The number of frames. */
+	private int _frames;
+
+	/** The bytes of the frame being decoded. */
+	private byte[] _bytes = new byte[1024];
+
+	/** How far through _bytes the decoding has got. */
+	private int _position;
+
+	/** Open a recorded trajectory.
+	 * @throws IOException If it isn't a trajectory, or not one that this
+	 * version can read. */
+	public Trajectory(String fileName) throws IOException {
+		this._file = new RandomAccessFile(fileName, "r");
+		this._channel = this._file.getChannel();
+		try {
+			if (this._file.readInt() != MAGIC) throw new IOException("Not a trajectory: " + fileName);
+			int version = this._file.readInt();
+			if (version != VERSION) throw new IOException("Can't read version " + version + " trajectories.");
+			this._codons = this._file.readInt();
+			this._containerSize = this._file.readInt();
+			if (this._file.readInt() != POSITION_SCALE || this._file.readInt() != KEY_INTERVAL) {
+				throw new IOException("Unexpected quantisation in " + fileName);
+			}
+			this._interval = this._file.readInt();
+			this._scenario = this._file.readUTF();
+			this._types = new byte[this._codons];
+			this._file.readFully(this._types);
+
+			long first = this._file.getFilePointer();
+			if (!this.readIndex()) {
+				this.findFrames(first);
+			}
+		} catch (IOException ioe) {
+			this._file.close();
+			throw ioe;
+		}
+	}
+
+	/** Read the index at the end of the file, if there is one.
+	 * @return Whether there was. */
+	private final boolean readIndex() throws IOException {
+		long length = this._file.length();
+		if (length < 12) return false;
+		this._file.seek(length - 12);
+		long start = this._file.readLong();
+		if (this._file.readInt() != MAGIC || start < 0 || start > length - 16) return false;
+
+		this._file.seek(start);
+		int frames = this._file.readInt();
+		if (frames < 0 || start + 4 + frames * 12L != length - 12) return false;
+
+		ByteBuffer buffer = ByteBuffer.allocate(frames * 12);
+		this._channel.read(buffer, start + 4);
+		buffer.flip();
+		this._offsets = new long[frames + 1];
+		this._iterations = new int[frames];
+		for (int f = 0; f < frames; f++) {
+			this._offsets[f] = buffer.getLong();
+			this._iterations[f] = buffer.getInt();
+		}
+		this._offsets[frames] = start;
+		this._frames = frames;
+		return true;
+	}
+
+	/** Find the frames by reading through them, as far as the last complete
+	 * one. */
+	private final void findFrames(long offset) throws IOException {
+		long length = this._file.length();
+		this._offsets = new long[64];
+		this._iterations = new int[64];
+		this._frames = 0;
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+		while (offset + FRAME_HEADER <= length) {
+			header.clear();
+			this._channel.read(header, offset);
+			byte kind = header.get(0);
+			int bytes = header.getInt(5);
+			boolean key = (this._frames % KEY_INTERVAL == 0);
+			if (kind != (key ? KEY : DELTA) || bytes < 0 || offset + FRAME_HEADER + bytes > length) break;
+
+			if (this._frames + 1 == this._offsets.length) {
+				long[] offsets = new long[this._offsets.length * 2];
+				int[] iterations = new int[this._offsets.length * 2];
+				System.arraycopy(this._offsets, 0, offsets, 0, this._frames);
+				System.arraycopy(this._iterations, 0, iterations, 0, this._frames);
+				this._offsets = offsets;
+				this._iterations = iterations;
+			}
+			this._offsets[this._frames] = offset;
+			this._iterations[this._frames] = header.getInt(1);
+			this._frames++;
+			offset += FRAME_HEADER + bytes;
+		}
+		this._offsets[this._frames] = offset;
+	}
+
+	public final void close() throws IOException {
+		this._file.close();
+	}
+
+	public final int getCodons() { return this._codons; }
+
+	public final int getContainerSize() { return this._containerSize; }
+
+	/** @return The name of the scenario that was recorded. */
+	public final String getScenario() { return this._scenario; }
+
+	/** @return How many iterations apart the frames were recorded. */
+	public final int getInterval() { return this._interval; }
+
+	public final int getType(int codon) { return this._types[codon]; }
+
+	/** @return The number of frames. */
+	public final int getFrames() { return this._frames; }
+
+	/** @return The iteration of the given frame. */
+	public final int getIteration(int frame) { return this._iterations[frame]; }
+
+	/** Find the last frame at or before the given iteration.
+	 * @return The frame, or 0 if the iteration is before the first. */
+	public final int findFrame(int iteration) {
+		int low = 0;
+		int high = this._frames - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this._iterations[middle] <= iteration) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/** Read a frame.  If the given Frame already holds an earlier frame
+	 * since the last key frame, it carries on from there; otherwise it starts
+	 * again from the key frame.
+	 * @param frame Which frame to read.
+	 * @param into Where to put it. */
+	public final void read(int frame, Frame into) throws IOException {
+		if (frame < 0 || frame >= this._frames) {
+			throw new IndexOutOfBoundsException("No frame " + frame + " of " + this._frames);
+		}
+		int key = frame - frame % KEY_INTERVAL;
+		int start = (into._frame >= key && into._frame <= frame) ? into._frame + 1 : key;
+		for (int f = start; f <= frame; f++) {
+			this.decode(f, into);
+		}
+	}
+
+	/** Decode a frame on top of the frame before it (unless it's a key
+	 * frame). */
+	private final void decode(int frame, Frame into) throws IOException {
+		long offset = this._offsets[frame];
+		int length = (int)(this._offsets[frame + 1] - offset);
+		if (this._bytes.length < length) {
+			this._bytes = new byte[Math.max(length, this._bytes.length * 2)];
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(this._bytes, 0, length);
+		while (buffer.hasRemaining()) {
+			if (this._channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Trajectory ends in the middle of frame " + frame);
+			}
+		}
+		this._position = FRAME_HEADER;
+
+		int[] x = into._x, y = into._y;
+		short[] angle = into._angle;
+		int codons = this._codons;
+		if (this._bytes[0] == KEY) {
+			for (int i = 0; i < codons; i++) {
+				x[i] = this.readInt();
+				y[i] = this.readInt();
+				angle[i] = (short)this.readVarint();
+				this.readState(i, into);
+			}
+		} else {
+			for (int i = 0; i < codons; i++) {
+				x[i] += unzigzag(this.readVarint());
+				y[i] += unzigzag(this.readVarint());
+				angle[i] += unzigzag(this.readVarint());
+			}
+			int i = -1;
+			for (int changes = this.readVarint(); changes > 0; changes--) {
+				i += this.readVarint();
+				this.readState(i, into);
+			}
+		}
+		into._frame = frame;
+		into._iteration = this._iterations[frame];
+	}
+
+	/** Read a codon's state and bonds. */
+	private final void readState(int codon, Frame into) {
+		into._state[codon] = this._bytes[this._position++];
+		for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+			into._bonds[codon * CodonParameters.NUM_ARMS + arm] = this.readVarint() - 1;
+		}
+	}
+
+	private final int readInt() {
+		byte[] b = this._bytes;
+		int p = this._position;
+		this._position += 4;
+		return (b[p] << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+	}
+
+	/** Read an unsigned varint: seven bits per byte, least significant
+	 * first, with the top bit set on all but the last. */
+	private final int readVarint() {
+		int result = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = this._bytes[this._position++];
+			result |= (b & 0x7F) << shift;
+			if (b >= 0) return result;
+		}
+	}
+
+	/** Undo zigzag encoding, which maps small negative numbers to small
+	 * positive ones. */
+	/* package */ static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/* package */ static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+}
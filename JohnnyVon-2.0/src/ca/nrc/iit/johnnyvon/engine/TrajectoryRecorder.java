@@ -0,0 +1,436 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.LinkedList;
+
+/** Records a Trajectory: a frame every so many iterations.
+ *
+ * Between iterations, the simulation's thread copies the codons'
+ * positions, angles, states and bonds into a spare snapshot and hands it to
+ * a background thread, which encodes it (see Trajectory) and appends it to
+ * the file.  The file is written through memory-mapped windows, so appending
+ * a frame is a copy into memory; the operating system writes it out.  If the
+ * background thread falls behind by SNAPSHOTS frames, the simulation waits
+ * for it, rather than lose a frame.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class TrajectoryRecorder {
+
+	/** How many iterations apart the frames are, if the scenario doesn't
+	 * say. */
+	/* package */ static final int DEFAULT_INTERVAL = 100;
+
+	/** How many frames can be waiting to be written. */
+	private static final int SNAPSHOTS = 3;
+
+	/** The size of each mapped window of the file. */
+	private static final int WINDOW_SIZE = 1 << 26;
+
+	/** A copy of the codons, taken between iterations. */
+	private static final class Snapshot {
+		int _iteration;
+		final double[] _x, _y, _angle;
+		final byte[] _state;
+		final int[] _bonds;
+
+		Snapshot(int codons) {
+			this._x = new double[codons];
+			this._y = new double[codons];
+			this._angle = new double[codons];
+			this._state = new byte[codons];
+			this._bonds = new int[codons * CodonParameters.NUM_ARMS];
+		}
+	}
+
+	/** How many iterations apart the frames are. */
+	private final int _interval;
+
+	private final Codon[] _codons;
+	private final CodonStore _store;
+
+	/** Snapshots that can be filled in.  Guarded by this. */
+	private final LinkedList<Snapshot> _free = new LinkedList<Snapshot>();
+
+	/** Snapshots waiting to be written, oldest first.  Guarded by this. */
+	private final LinkedList<Snapshot> _full = new LinkedList<Snapshot>();
+
+	/** Set once no more frames will be recorded.  Guarded by this. */
+	private boolean _closed = false;
+
+	/** The first problem the writer had, if any. */
+	private volatile IOException _failure;
+
+	// Used only by the writer.
+
+	private final RandomAccessFile _file;
+	private final FileChannel _channel;
+
+	/** The part of the file being written. */
+	private MappedByteBuffer _window;
+
+	/** Where in the file the window starts. */
+	private long _windowStart;
+
+	/** Where the next byte goes. */
+	private long _position;
+
+	/** The quantised positions and angles, and the states and bonds, of the
+	 * last frame written. */
+	private final int[] _x, _y;
+	private final short[] _angle;
+	private final byte[] _state;
+	private final int[] _bonds;
+
+	/** The frame being encoded. */
+	private byte[] _bytes = new byte[1 << 16];
+	private int _length;
+
+	/** Where each frame starts, and its iteration. */
+	private long[] _offsets = new long[1024];
+	private int[] _iterations = new int[1024];
+	private int _frames = 0;
+
+	/** Writes the frames. */
+	private final Thread _writer;
+
+	/** Start recording.
+	 * @param fileName The file to write to.  It is replaced.
+	 * @param interval How many iterations apart the frames are.
+	 * @param scenario The name of the scenario. */
+	/* package */ TrajectoryRecorder(String fileName, int interval, String scenario, int containerSize, 
+			Codon[] codons, CodonStore store) throws IOException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("The trajectory interval must be positive, not " + interval);
+		}
+		this._interval = interval;
+		this._codons = codons;
+		this._store = store;
+
+		int size = codons.length;
+		for (int i = 0; i < SNAPSHOTS; i++) {
+			this._free.add(new Snapshot(size));
+		}
+		this._x = new int[size];
+		this._y = new int[size];
+		this._angle = new short[size];
+		this._state = new byte[size];
+		this._bonds = new int[size * CodonParameters.NUM_ARMS];
+
+		this._file = new RandomAccessFile(fileName, "rw");
+		this._file.setLength(0);
+		this._channel = this._file.getChannel();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(Trajectory.MAGIC);
+		out.writeInt(Trajectory.VERSION);
+		out.writeInt(size);
+		out.writeInt(containerSize);
+		out.writeInt(Trajectory.POSITION_SCALE);
+		out.writeInt(Trajectory.KEY_INTERVAL);
+		out.writeInt(interval);
+		out.writeUTF(scenario);
+		for (int i = 0; i < size; i++) {
+			out.writeByte(codons[i].getType());
+		}
+		out.close();
+		this.append(bytes.toByteArray(), bytes.size());
+
+		this._writer = new Thread("JohnnyVon Trajectory Writer") {
+			public void run() { TrajectoryRecorder.this.write(); }
+		};
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/** Record a frame, if one is due.  This is called by the simulation's
+	 * thread after every iteration. */
+	/* package */ final void afterIteration(int iteration) {
+		if (iteration % this._interval != 0) return;
+
+		Snapshot snapshot;
+		synchronized (this) {
+			while (this._free.isEmpty()) {
+				try {
+					this.wait();
+				} catch (InterruptedException ie) { }
+			}
+			snapshot = this._free.removeFirst();
+		}
+
+		int size = this._codons.length;
+		snapshot._iteration = iteration;
+		System.arraycopy(this._store._x, 0, snapshot._x, 0, size);
+		System.arraycopy(this._store._y, 0, snapshot._y, 0, size);
+		System.arraycopy(this._store._angle, 0, snapshot._angle, 0, size);
+		for (int i = 0; i < size; i++) {
+			CodonState state = this._codons[i].getState();
+			snapshot._state[i] = (byte)(state._splittingState 
+					| (state._chainPositionState << 2)
+					| (state._folded ? Trajectory.FOLDED : 0)
+					| (state._hasSplit ? Trajectory.HAS_SPLIT : 0)
+					| (state._inMesh ? Trajectory.IN_MESH : 0)
+					| (state._unfoldSignal ? Trajectory.UNFOLD_SIGNAL : 0));
+			for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+				snapshot._bonds[i * CodonParameters.NUM_ARMS + arm] = this._codons[i].getBondPartnerID(arm);
+			}
+		}
+
+		synchronized (this) {
+			this._full.addLast(snapshot);
+			this.notifyAll();
+		}
+	}
+
+	/** The writer's loop. */
+	private final void write() {
+		while (true) {
+			Snapshot snapshot;
+			synchronized (this) {
+				while (this._full.isEmpty() && !this._closed) {
+					try {
+						this.wait();
+					} catch (InterruptedException ie) { }
+				}
+				if (this._full.isEmpty()) return;
+				snapshot = this._full.getFirst();
+			}
+
+			if (this._failure == null) {
+				try {
+					this.encode(snapshot);
+				} catch (IOException ioe) {
+					this._failure = ioe;
+				}
+			}
+
+			synchronized (this) {
+				this._full.removeFirst();
+				this._free.add(snapshot);
+				this.notifyAll();
+			}
+		}
+	}
+
+	/** Encode a frame and append it to the file. */
+	private final void encode(Snapshot snapshot) throws IOException {
+		boolean key = (this._frames % Trajectory.KEY_INTERVAL == 0);
+		int size = this._codons.length;
+
+		this._length = Trajectory.FRAME_HEADER;
+		if (key) {
+			for (int i = 0; i < size; i++) {
+				this._x[i] = quantise(snapshot._x[i]);
+				this._y[i] = quantise(snapshot._y[i]);
+				this._angle[i] = (short)Math.round(snapshot._angle[i] * Trajectory.ANGLE_SCALE);
+				this.ensure(16 + 5 * CodonParameters.NUM_ARMS);
+				this.putInt(this._x[i]);
+				this.putInt(this._y[i]);
+				this.putVarint(this._angle[i] & 0xFFFF);
+				this.putState(snapshot, i);
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				int x = quantise(snapshot._x[i]);
+				int y = quantise(snapshot._y[i]);
+				short angle = (short)Math.round(snapshot._angle[i] * Trajectory.ANGLE_SCALE);
+				this.ensure(15);
+				this.putVarint(Trajectory.zigzag(x - this._x[i]));
+				this.putVarint(Trajectory.zigzag(y - this._y[i]));
+				this.putVarint(Trajectory.zigzag((short)(angle - this._angle[i])));
+				this._x[i] = x;
+				this._y[i] = y;
+				this._angle[i] = angle;
+			}
+
+			// Then the codons whose states or bonds have changed, each as how
+			// far on it is from the one before.
+			int changes = 0;
+			for (int i = 0; i < size; i++) {
+				if (this.hasChanged(snapshot, i)) changes++;
+			}
+			this.ensure(5);
+			this.putVarint(changes);
+			int last = -1;
+			for (int i = 0; changes > 0; i++) {
+				if (this.hasChanged(snapshot, i)) {
+					this.ensure(6 + 5 * CodonParameters.NUM_ARMS);
+					this.putVarint(i - last);
+					this.putState(snapshot, i);
+					last = i;
+					changes--;
+				}
+			}
+		}
+
+		byte[] b = this._bytes;
+		b[0] = key ? Trajectory.KEY : Trajectory.DELTA;
+		putInt(b, 1, snapshot._iteration);
+		putInt(b, 5, this._length - Trajectory.FRAME_HEADER);
+
+		if (this._frames == this._offsets.length) {
+			long[] offsets = new long[this._frames * 2];
+			int[] iterations = new int[this._frames * 2];
+			System.arraycopy(this._offsets, 0, offsets, 0, this._frames);
+			System.arraycopy(this._iterations, 0, iterations, 0, this._frames);
+			this._offsets = offsets;
+			this._iterations = iterations;
+		}
+		this._offsets[this._frames] = this._position;
+		this._iterations[this._frames] = snapshot._iteration;
+		this._frames++;
+
+		this.append(this._bytes, this._length);
+	}
+
+	/** Check whether a codon's state or bonds differ from the last frame's. */
+	private final boolean hasChanged(Snapshot snapshot, int codon) {
+		if (snapshot._state[codon] != this._state[codon]) return true;
+		int a = codon * CodonParameters.NUM_ARMS;
+		for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+			if (snapshot._bonds[a + arm] != this._bonds[a + arm]) return true;
+		}
+		return false;
+	}
+
+	/** Write a codon's state and bonds, and remember them. */
+	private final void putState(Snapshot snapshot, int codon) {
+		this._state[codon] = snapshot._state[codon];
+		this._bytes[this._length++] = snapshot._state[codon];
+		int a = codon * CodonParameters.NUM_ARMS;
+		for (int arm = 0; arm < CodonParameters.NUM_ARMS; arm++) {
+			this._bonds[a + arm] = snapshot._bonds[a + arm];
+			this.putVarint(snapshot._bonds[a + arm] + 1);
+		}
+	}
+
+	private static int quantise(double position) {
+		return (int)Math.round(position * Trajectory.POSITION_SCALE);
+	}
+
+	/** Make sure there's room for the given number of bytes more. */
+	private final void ensure(int bytes) {
+		if (this._length + bytes > this._bytes.length) {
+			byte[] grown = new byte[Math.max(this._bytes.length * 2, this._length + bytes)];
+			System.arraycopy(this._bytes, 0, grown, 0, this._length);
+			this._bytes = grown;
+		}
+	}
+
+	private final void putInt(int value) {
+		putInt(this._bytes, this._length, value);
+		this._length += 4;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)(value >>> 24);
+		bytes[offset + 1] = (byte)(value >>> 16);
+		bytes[offset + 2] = (byte)(value >>> 8);
+		bytes[offset + 3] = (byte)value;
+	}
+
+	/** Write an unsigned varint (see Trajectory.readVarint()). */
+	private final void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			this._bytes[this._length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this._bytes[this._length++] = (byte)value;
+	}
+
+	/** Append bytes to the file, mapping more of it as needed. */
+	private final void append(byte[] bytes, int length) throws IOException {
+		for (int done = 0; done < length; ) {
+			if (this._window == null || !this._window.hasRemaining()) {
+				this._windowStart = this._position;
+				this._window = this._channel.map(FileChannel.MapMode.READ_WRITE, this._windowStart, WINDOW_SIZE);
+			}
+			int n = Math.min(length - done, this._window.remaining());
+			this._window.put(bytes, done, n);
+			done += n;
+			this._position += n;
+		}
+	}
+
+	/** Write out the frames still waiting, then the index, and close the
+	 * file.
+	 * @throws IOException If the recording couldn't be written. */
+	/* package */ final void close() throws IOException {
+		synchronized (this) {
+			this._closed = true;
+			this.notifyAll();
+		}
+		try {
+			this._writer.join();
+		} catch (InterruptedException ie) { }
+
+		try {
+			if (this._failure != null) throw this._failure;
+
+			long start = this._position;
+			this._length = 0;
+			this.ensure(4 + this._frames * 12 + 12);
+			this.putInt(this._frames);
+			for (int f = 0; f < this._frames; f++) {
+				this.putInt((int)(this._offsets[f] >>> 32));
+				this.putInt((int)this._offsets[f]);
+				this.putInt(this._iterations[f]);
+			}
+			this.putInt((int)(start >>> 32));
+			this.putInt((int)start);
+			this.putInt(Trajectory.MAGIC);
+			this.append(this._bytes, this._length);
+			this._window.force();
+		} finally {
+			// Cut off the rest of the last window.
+			this._window = null;
+			this._file.setLength(this._position);
+			this._file.close();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.engine;
+
+/** A fixed set of threads that all run the same task at once, and can wait
+ * for each other part way through it.  The threads are started once, and
+ * then reused for every phase of every timestep, so handing them work costs
+ * only a couple of barrier waits.  The thread that calls execute() does its
+ * share of the work as worker 0, so a pool of one thread never starts any
+ * threads at all.
+ * The threads are daemons, but should be stopped with shutdown() once
+ * there's no more work for them.
+ * 
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class WorkerPool {
+
+	/** Some work to be shared among the workers. */
+	/* package */ interface Task {
+		/** Do this worker's share of the work.
+		 * @param worker Which worker this is, from 0 to getSize() - 1. */
+		public void run(int worker);
+	}
+
+	/** The number of workers, including the calling thread. */
+	private final int _size;
+
+	/** The barrier that all of the workers wait at, both between tasks and
+	 * inside them. */
+	private final PhaseBarrier _barrier;
+
+	/** The threads that do the work, other than the calling thread. */
+	private Thread[] _threads;
+
+	/** The task that the workers should run next.  Only written before the
+	 * workers are released from the barrier, which makes it visible to them.
+	 */
+	private Task _task;
+
+	/** Set when the workers should stop. */
+	private boolean _shutdown;
+
+	/** The first thing that went wrong in a worker during the current task. */
+	private volatile Throwable _failure;
+
+	/** Create a pool.  No threads are started until start() is called.
+	 * @param size The number of workers, including the thread that will call
+	 * execute(). */
+	/* package */ WorkerPool(int size) {
+		if (size < 1) throw new IllegalArgumentException("A pool needs at least one worker.");
+		this._size = size;
+		this._barrier = new PhaseBarrier(size);
+	}
+
+	/** @return The number of workers, including the calling thread. */
+	/* package */ final int getSize() { return this._size; }
+
+	/** Split a range of items evenly among the workers.
+	 * @return The first of the given number of items that the given worker
+	 * should handle.  It should stop at the first item of the next worker. */
+	/* package */ final int getStart(int worker, int items) {
+		return (int)(((long)items * worker) / this._size);
+	}
+
+	/** Start the worker threads.  execute() does this if it hasn't been done.
+	 */
+	/* package */ final synchronized void start() {
+		if (this._threads != null) return;
+		this._shutdown = false;
+		this._threads = new Thread[this._size - 1];
+		for (int i = 0; i < this._threads.length; i++) {
+			final int worker = i + 1;
+			this._threads[i] = new Thread("JohnnyVon Worker " + worker) {
+				public void run() { WorkerPool.this.work(worker); }
+			};
+			this._threads[i].setDaemon(true);
+			this._threads[i].start();
+		}
+	}
+
+	/** Stop the worker threads, once they've finished what they're doing. */
+	/* package */ final synchronized void shutdown() {
+		if (this._threads == null) return;
+		this._shutdown = true;
+		this.barrier(0);
+		for (int i = 0; i < this._threads.length; i++) {
+			try {
+				this._threads[i].join();
+			} catch (InterruptedException ie) { }
+		}
+		this._threads = null;
+	}
+
+	/** Run the given task on every worker, and wait until they have all
+	 * finished it.  If the task threw anything on any worker, it is thrown
+	 * again here. */
+	/* package */ final void execute(Task task) {
+		if (this._size == 1) {
+			task.run(0);
+			return;
+		}
+
+		if (this._threads == null) this.start();
+
+		this._task = task;
+		this._failure = null;
+
+		this.barrier(0);
+		this.runTask(0);
+		this.barrier(0);
+
+		Throwable failure = this._failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+		if (failure instanceof Error) throw (Error)failure;
+	}
+
+	/** Wait until every worker has reached this point.  Tasks can use this to
+	 * separate phases of their work; every worker has to call it the same
+	 * number of times. 
+	 * @param worker Which worker is waiting. */
+	/* package */ final void barrier(int worker) {
+		if (this._size == 1) return;
+		this._barrier.await(worker);
+	}
+
+	/** Record a failure on a worker, so that it's thrown from execute().  A
+	 * task that uses barrier() must catch what it throws and pass it here, and
+	 * keep going to the barriers, otherwise the other workers will wait
+	 * forever. */
+	/* package */ final void fail(Throwable failure) {
+		if (this._failure == null) this._failure = failure;
+	}
+
+	private final void runTask(int worker) {
+		try {
+			this._task.run(worker);
+		} catch (Throwable t) {
+			this.fail(t);
+		}
+	}
+
+	/** The loop run by each worker thread. */
+	private final void work(int worker) {
+		while (true) {
+			this.barrier(worker);
+			if (this._shutdown) return;
+			this.runTask(worker);
+			this.barrier(worker);
+		}
+	}
+
+}
@@ -36,6 +36,7 @@ package ca.nrc.iit.johnnyvon.gui;
 import java.awt.*;
 import java.awt.geom.*;
 import javax.swing.*;
+import javax.swing.event.*;
 import java.awt.image.*;
 import java.io.OutputStream;
 import java.io.IOException;
@@ -47,6 +48,12 @@ import ca.nrc.iit.johnnyvon.engine.*;
 /** A panel that will draw Codons, their fields, arms and the forces that 
  * were most recently applied to them.
  *
+ * It can also play back a recorded Trajectory instead, at any speed, and
+ * jump to any frame of it.  Only the frames that are shown are decoded
+ * (along with the deltas leading up to them from their key frame), into a
+ * single Trajectory.Frame, so playback takes the same memory however long
+ * the recording is.
+ *
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
  * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
@@ -71,6 +78,9 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 	/** Amount to zoom out when zoomOut() is called */
 	private static final double ZOOM_OUT_FACTOR = 1 / ZOOM_IN_FACTOR;
 
+	/** Milliseconds to wait between the frames of a trajectory. */
+	private static final long PLAYBACK_DELAY = 40;
+
 	/** Number of steps to wait between drawing requests. */
 	public int stepsPerDraw = 500;
 
@@ -94,8 +104,48 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 	/** An object to lock on while we're updating thei codons.  */
 	private final Object _lock = new Object();
 
-	/** An object to wait on when we're paused. */
-	private final Object _pauseObject = new Object();
+	/** The simulator we're viewing. */
+	private Simulator _simulator;
+
+	/** The trajectory we're playing back, or null if we're viewing a
+	 * simulator.  Set only while holding this. */
+	private volatile Trajectory _trajectory;
+
+	/** The frame of the trajectory that is on screen, or null.  Guarded by
+	 * _lock. */
+	private Trajectory.Frame _frame;
+
+	/** The recorded scenario's arm lengths and field radii. */
+	private CodonParameters _parameters;
+
+	/** The frame that has been asked for by seek() or step(), or -1.
+	 * Guarded by this. */
+	private int _seek = -1;
+
+	/** The slider that shows (and sets) where we are in the trajectory, if
+	 * any. */
+	private JSlider _scrubber;
+
+	/** Set while we move the scrubber ourselves, so that it isn't taken as a
+	 * seek.  Only used on the event thread. */
+	private boolean _scrubbing = false;
+
+	/** Seeks when the scrubber is moved. */
+	private final ChangeListener _scrubberListener = new ChangeListener() {
+		public void stateChanged(ChangeEvent e) {
+			if (!CodonViewer.this._scrubbing) {
+				CodonViewer.this.seek(CodonViewer.this._scrubber.getValue());
+			}
+		}
+	};
+
+	/** Met once we've just drawn.  Pausing and stepping run the simulator
+	 * until this, so that what's on screen is where it stopped. */
+	private final Simulator.Condition _drawn = new Simulator.Condition() {
+		public boolean isMet(Simulator simulator) {
+			return CodonViewer.this.stepsSinceLastDraw == 0;
+		}
+	};
 	
 	/** The size of the container we are drawing. */
 	private int containerSize;
@@ -189,6 +239,11 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 	}
 	
 	public synchronized void setSimulator(Simulator sim) {
+		this.stopPlaying();
+		this._simulator = sim;
+		// A new simulator starts paused if we are, once it has something to
+		// show.
+		if (this.paused) sim.runUntil(this._drawn);
 		this.containerSize = sim.getContainerSize();
 //		this.steps = 0;
 		this.stepsSinceLastDraw = this.stepsPerDraw;
@@ -199,6 +254,9 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 
 	public void view(Codon[] codons, double time, int iterations) {
 
+		// A simulator that is still shutting down mustn't draw over playback.
+		if (this._trajectory != null) return;
+
 		if (++this.stepsSinceLastDraw >= this.stepsPerDraw) {
 
 			// This bit of code used to copy the entire array, so that we were
@@ -209,15 +267,11 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 
 			this.updateDrawCodons();
 
-			int free = 0;
-			int chain = 0;
-			int folded = 0;
-			
-			for (int i = 0; i < this.codons.length; i++) {
-				if (codons[i].isFolded()) { folded++; } 
-				else if (codons[i].isBonded()) { chain++; }
-				else { free++; }
-			}
+			// The simulator keeps count as the codons change state.
+			Population population = this._simulator.getPopulation();
+			int free = population.getFree();
+			int chain = population.getReplicating();
+			int folded = population.getFolded();
 
 			StringBuffer display = new StringBuffer();
 			/*display.append("Steps: ");
@@ -240,23 +294,186 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 
 			this.repaint();
 			this.stepsSinceLastDraw = 0;
+		}
+
+	}
+
+	// If not paused, do nothing.  If paused, lets one redraw occur.
+	public synchronized void step() {
+		if (this.paused && this._trajectory != null) {
+			int shown = (this._seek >= 0) ? this._seek : this.getShownFrame();
+			this.seek(shown + this.getFramesPerDraw());
+		} else if (this.paused && this._simulator != null) {
+			this._simulator.runUntil(this._drawn);
+		}
+	}
 
-			synchronized (this._pauseObject) {
-				if (this.paused) {
-					try {
-						this._pauseObject.wait();
-					} catch (InterruptedException ie) { }
+	/** Play back a recorded trajectory rather than view a simulator.  It
+	 * starts from its first frame, and plays if we're not paused.  The
+	 * trajectory is closed once something else is viewed.
+	 * @param parameters The recorded scenario's arm lengths and field radii.
+	 * @param scrubber A slider to show (and set) the frame being shown, if
+	 * any. */
+	public synchronized void setTrajectory(Trajectory trajectory, CodonParameters parameters, JSlider scrubber) {
+		this.stopPlaying();
+		this._trajectory = trajectory;
+		this._parameters = parameters;
+		this._seek = 0;
+		this.containerSize = trajectory.getContainerSize();
+
+		final Trajectory.Frame frame = new Trajectory.Frame(trajectory);
+		synchronized (this._lock) { 
+			this.codons = null; 
+			this._frame = frame;
+		}
+
+		this._scrubber = scrubber;
+		if (scrubber != null) {
+			this._scrubbing = true;
+			scrubber.setMinimum(0);
+			scrubber.setMaximum(Math.max(trajectory.getFrames() - 1, 0));
+			scrubber.setValue(0);
+			this._scrubbing = false;
+			scrubber.removeChangeListener(this._scrubberListener);
+			scrubber.addChangeListener(this._scrubberListener);
+			scrubber.setVisible(true);
+		}
+
+		final Trajectory playing = trajectory;
+		Thread player = new Thread("JohnnyVon Player") {
+			public void run() { CodonViewer.this.play(playing, frame); }
+		};
+		player.setDaemon(true);
+		player.start();
+
+		this.zoomToFit();
+		this.repaint();
+	}
+
+	/** Stop playing back the trajectory, if there is one.  Its player
+	 * notices, and closes it. */
+	private synchronized void stopPlaying() {
+		if (this._trajectory == null) return;
+		this._trajectory = null;
+		this.notifyAll();
+		synchronized (this._lock) { this._frame = null; }
+		if (this._scrubber != null) {
+			this._scrubber.removeChangeListener(this._scrubberListener);
+			this._scrubber.setVisible(false);
+			this._scrubber = null;
+		}
+	}
+
+	/** @return Whether we're playing back a trajectory (even if paused). */
+	public boolean isPlayingBack() { return this._trajectory != null; }
+
+	/** Show the given frame of the trajectory next, whether paused or not.
+	 * This does nothing if there's no trajectory. */
+	public synchronized void seek(int frame) {
+		if (this._trajectory == null) return;
+		this._seek = Math.max(0, Math.min(frame, this._trajectory.getFrames() - 1));
+		this.notifyAll();
+	}
+
+	/** Show the last frame of the trajectory at or before the given
+	 * iteration. */
+	public synchronized void seekIteration(int iteration) {
+		if (this._trajectory == null) return;
+		this.seek(this._trajectory.findFrame(iteration));
+	}
+
+	/** @return The frame of the trajectory on screen, or -1. */
+	public int getShownFrame() {
+		synchronized (this._lock) {
+			return (this._frame == null) ? -1 : this._frame.getFrame();
+		}
+	}
+
+	/** @return How many frames of the trajectory make up stepsPerDraw
+	 * iterations (at least one). */
+	private int getFramesPerDraw() {
+		int interval = this._trajectory.getInterval();
+		return Math.max(1, (this.stepsPerDraw + interval / 2) / interval);
+	}
+
+	/** The player's loop: show a frame, wait, and move on, until the
+	 * trajectory is stopped. */
+	private void play(Trajectory trajectory, Trajectory.Frame frame) {
+		try {
+			while (true) {
+				int next;
+				synchronized (this) {
+					int last = trajectory.getFrames() - 1;
+					while (this._trajectory == trajectory && this._seek < 0 
+							&& (this.paused || frame.getFrame() >= last)) {
+						this.wait();
+					}
+					if (this._trajectory != trajectory) break;
+					if (this._seek >= 0) {
+						next = this._seek;
+						this._seek = -1;
+					} else {
+						next = Math.min(frame.getFrame() + this.getFramesPerDraw(), last);
+					}
 				}
+				this.show(trajectory, frame, next);
+				Thread.sleep(PLAYBACK_DELAY);
 			}
+		} catch (InterruptedException ie) {
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			this._statusLabel.setText(" Couldn't read the trajectory: " + ioe);
+		} finally {
+			try {
+				trajectory.close();
+			} catch (IOException ioe) { }
 		}
-
 	}
 
-	// If not paused, do nothing.  If paused, lets one redraw occur.
-	public void step() {
-		synchronized (this._pauseObject) {
-			this._pauseObject.notifyAll();
+	/** Decode a frame of the trajectory, and show it. */
+	private void show(Trajectory trajectory, Trajectory.Frame frame, final int number) throws IOException {
+		int free = 0;
+		int chain = 0;
+		int folded = 0;
+		synchronized (this._lock) {
+			// Don't touch the frame once something else is being viewed.
+			if (this._frame != frame) return;
+			trajectory.read(number, frame);
+			this.updateDrawCodons();
+			for (int i = 0; i < frame.getCodons(); i++) {
+				if (frame.isFolded(i)) { folded++; }
+				else if (frame.isBonded(i)) { chain++; }
+				else { free++; }
+			}
+		}
+
+		StringBuffer display = new StringBuffer();
+		display.append(" Iteration: ");
+		display.append(frame.getIteration());
+		display.append(" of ");
+		display.append(trajectory.getIteration(trajectory.getFrames() - 1));
+		display.append(" Free: ");
+		display.append(free);
+		display.append(" Replicating: ");
+		display.append(chain);
+		display.append(" Folded: ");
+		display.append(folded);
+		display.append(" Iterations per Draw: ");
+		display.append(this.getFramesPerDraw() * trajectory.getInterval());
+		this._statusLabel.setText(display.toString());
+
+		final JSlider scrubber = this._scrubber;
+		if (scrubber != null) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					CodonViewer.this._scrubbing = true;
+					scrubber.setValue(number);
+					CodonViewer.this._scrubbing = false;
+				}
+			});
 		}
+
+		this.repaint();
 	}
 
 	/** @return The preferred size.  We want the scroll view to be as big as
@@ -328,11 +545,16 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 		this.setPaused(!this.paused);
 	}
 
+	/** Pause (once the next iteration has been drawn) or carry on. */
 	public synchronized void setPaused(boolean paused) {
-		synchronized (this._pauseObject) {
-			this.paused = paused; 
-			if (!this.paused) {
-				this._pauseObject.notifyAll();
+		this.paused = paused; 
+		if (this._trajectory != null) {
+			this.notifyAll();
+		} else if (this._simulator != null) {
+			if (paused) {
+				this._simulator.runUntil(this._drawn);
+			} else {
+				this._simulator.resume();
 			}
 		}
 	}
@@ -367,19 +589,33 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 
 	private final void updateDrawCodons() {
 
+		Trajectory.Frame frame = this._frame;
+		if (frame == null && this.codons == null) return;
+		int length = (frame != null) ? frame.getCodons() : this.codons.length;
+
 		// Create the boolean array if necessary.
-		if (this.drawCodon == null || this.drawCodon.length != codons.length) {
-			this.drawCodon = new boolean[this.codons.length];
+		if (this.drawCodon == null || this.drawCodon.length != length) {
+			this.drawCodon = new boolean[length];
 		}
 
-		for (int i = 0; i < codons.length; i++) {
-			Codon cur = this.codons[i];
-			this.drawCodon[i] = (!this.drawOnlyReplicating || (cur.isBonded() && !cur.isFolded()))
-				&& (!this.drawOnlyFolded || cur.isFolded())
-				&& (!this.drawOnlySplit || cur.hasSplit());
+		for (int i = 0; i < length; i++) {
+			if (frame != null) {
+				this.drawCodon[i] = this.isDrawn(frame.isBonded(i), frame.isFolded(i), frame.hasSplit(i));
+			} else {
+				Codon cur = this.codons[i];
+				this.drawCodon[i] = this.isDrawn(cur.isBonded(), cur.isFolded(), cur.hasSplit());
+			}
 		}
 	}
 
+	/** @return Whether a codon should be drawn in detail, rather than
+	 * dimmed. */
+	private final boolean isDrawn(boolean bonded, boolean folded, boolean split) {
+		return (!this.drawOnlyReplicating || (bonded && !folded))
+			&& (!this.drawOnlyFolded || folded)
+			&& (!this.drawOnlySplit || split);
+	}
+
 	public void toggleForces() { 
 		this.drawForces = !this.drawForces;
 		this.repaint();
@@ -445,6 +681,11 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 		graphics.draw(container);
 
 		synchronized (this._lock) {
+			if (this._frame != null) {
+				this.drawFrame(graphics);
+				return;
+			}
+
 			// Abort if we don't ahve codons yet.
 			if (this.codons == null) return;
 
@@ -616,4 +857,59 @@ public class CodonViewer extends JPanel implements Viewer, Scrollable {
 		}
 	}
 
+	/** Draw the frame of the trajectory.  Forces and tolerances aren't
+	 * recorded, so they're never shown. */
+	private void drawFrame(Graphics2D graphics) {
+		Trajectory.Frame frame = this._frame;
+		// Abort if we haven't read a frame yet.
+		if (frame.getFrame() < 0) return;
+
+		for (int i = 0; i < frame.getCodons(); i++) {
+			Pair center = new Pair(frame.getX(i), frame.getY(i));
+			if (!this.drawArms) {
+				graphics.setColor(this.armColor);
+				graphics.draw(new Line2D.Double(center.x, center.y, center.x, center.y));
+				continue;
+			}
+			graphics.setColor(this.drawCodon[i] ? this.armColor : this.dimArmColor);
+			for (int j = 0; j < CodonParameters.NUM_ARMS; j++) {
+				Pair arm = frame.getArmPosition(i, j, this._parameters);
+				graphics.draw(new Line2D.Double(center.x, center.y, arm.x, arm.y));
+			}
+		}
+
+		if (this.drawFields) {
+			graphics.setStroke(this.fieldStroke);
+			Ellipse2D.Double field = new Ellipse2D.Double();
+			for (int i = 0; i < CodonParameters.NUM_ARMS; i++) {
+				double r = Math.max(this._parameters.getFieldRadius(i), 0.1);
+				for (int j = 0; j < frame.getCodons(); j++) {
+					if (!this.drawCodon[j]) continue;
+					graphics.setColor(FIELD_COLORS[this._trajectory.getType(j)][i]);
+					Pair center = frame.getArmPosition(j, i, this._parameters);
+					field.x = center.x - r;
+					field.y = center.y - r;
+					field.width = 2 * r;
+					field.height = 2 * r;
+					graphics.draw(field);
+				}
+			}
+			graphics.setStroke(this.stroke);
+		}
+
+		if (this.drawBonds) {
+			graphics.setColor(this.bondsColor);
+			for (int i = 0; i < frame.getCodons(); i++) {
+				for (int j = 0; j < CodonParameters.NUM_ARMS; j++) {
+					// Draw only towards higher-numbered codons, as drawBonds() does.
+					if (frame.getBondPartner(i, j) > i) {
+						Pair myTip = frame.getArmPosition(i, j, this._parameters);
+						Pair otherTip = frame.getBondPartnerLocation(i, j, this._parameters);
+						graphics.draw(new Line2D.Double(myTip.x, myTip.y, otherTip.x, otherTip.y));
+					}
+				}
+			}
+		}
+	}
+
 }
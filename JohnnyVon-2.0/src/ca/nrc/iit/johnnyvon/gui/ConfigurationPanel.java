@@ -55,7 +55,7 @@ import ca.nrc.iit.johnnyvon.engine.*;
 public class ConfigurationPanel extends JPanel {
 
 	/** This is the simulator logic, for applying configuration changes. */
-	private Simulator _simulator;
+	private volatile Simulator _simulator;
 
 	/** This is the viewer system, for applying visual changes */
 	private final CodonViewer _viewer;
@@ -159,7 +159,7 @@ public class ConfigurationPanel extends JPanel {
 	private ComboBoxModel getChoices() throws IOException {
 		DefaultComboBoxModel results = new DefaultComboBoxModel();
 
-		Iterator keys = this._properties.keySet().iterator();
+		Iterator<Object> keys = this._properties.keySet().iterator();
 		
 		while (keys.hasNext()) {
 			String name = (String)keys.next();
@@ -195,4 +195,8 @@ public class ConfigurationPanel extends JPanel {
 		if (this._simulator != null) { this._simulator.shutdown(); }
 	}
 
+	/** @return The simulator that is currently running, or null if there
+	 * isn't one yet. */
+	public Simulator getSimulator() { return this._simulator; }
+
 }
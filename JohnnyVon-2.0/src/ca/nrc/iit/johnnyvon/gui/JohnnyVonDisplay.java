@@ -42,7 +42,10 @@ import java.io.*;
 import java.net.*;
 import java.util.Properties;
 
+import ca.nrc.iit.johnnyvon.engine.CodonParameters;
+import ca.nrc.iit.johnnyvon.engine.SimulationParameters;
 import ca.nrc.iit.johnnyvon.engine.Simulator;
+import ca.nrc.iit.johnnyvon.engine.Trajectory;
 
 /** A window that contains a CodonViewer and a ConfigurationPanel on two
  * different tabs.  It also has a menu for controlling various options, and
@@ -87,6 +90,13 @@ public class JohnnyVonDisplay extends JFrame {
 	private final ConfigurationPanel configPane;
 
 	private final JSlider stepsSlider;
+
+	/** Shows (and sets) where we are in a trajectory being played back.  It's
+	 * hidden unless there is one. */
+	private final JSlider frameSlider;
+
+	/** The scenarios, for the physics of a trajectory's scenario. */
+	private final Properties properties;
 	private final JButton playPauseButton;
 	private final JButton stopButton;
 	private final JButton stepButton;
@@ -101,6 +111,8 @@ public class JohnnyVonDisplay extends JFrame {
 	public JohnnyVonDisplay(Properties properties, Closer closer) throws IOException {
 		super("JohnnyVon");		
 
+		this.properties = properties;
+
 		this.status = new JLabel("Initializing...");
 		
 		this.viewerPane = new JScrollPane(viewport, 
@@ -203,6 +215,12 @@ public class JohnnyVonDisplay extends JFrame {
 		bottom.add(this.playPauseButton);
 		bottom.add(this.stopButton);
 		bottom.add(this.stepButton);
+
+		this.frameSlider = new JSlider(JSlider.HORIZONTAL, 0, 0, 0);
+		this.frameSlider.setPreferredSize(new Dimension(300, this.frameSlider.getPreferredSize().height));
+		this.frameSlider.setVisible(false);
+		bottom.add(this.frameSlider);
+
 		bottom.add(status);
 
 		this.menu = new JMenuBar();
@@ -225,6 +243,7 @@ public class JohnnyVonDisplay extends JFrame {
 		
 		this.addMenuItem(file, new AboutAction(), KeyEvent.VK_A, KeyEvent.VK_H);
 		this.addMenuItem(file, new CaptureAction(), KeyEvent.VK_E, KeyEvent.VK_E);
+		this.addMenuItem(file, new OpenTrajectoryAction(), KeyEvent.VK_T, KeyEvent.VK_T);
 		file.add(new JSeparator());
 		this.addMenuItem(file, new CloseAction(closer), KeyEvent.VK_C, KeyEvent.VK_X);
 
@@ -238,6 +257,7 @@ public class JohnnyVonDisplay extends JFrame {
 		this.addMenuItem(viewMenu, new ZoomToFitAction(), KeyEvent.VK_Z, KeyEvent.VK_0);
 		viewMenu.add(new JSeparator());
 		this.addMenuItem(viewMenu, playPauseAction, KeyEvent.VK_P, KeyEvent.VK_P);
+		this.addMenuItem(viewMenu, new GoToIterationAction(), KeyEvent.VK_G, KeyEvent.VK_G);
 		viewMenu.add(new JSeparator());
 		this.addMenuItem(viewMenu, new ToggleShowArmsAction(), KeyEvent.VK_A, KeyEvent.VK_1).setSelected(true);
 		this.addMenuItem(viewMenu, new ToggleShowFieldsAction(), KeyEvent.VK_E, KeyEvent.VK_2).setSelected(true);
@@ -268,6 +288,27 @@ public class JohnnyVonDisplay extends JFrame {
 		return item;
 	}
 
+	/** @return The simulator that is currently running, or null if there
+	 * isn't one yet. */
+	public Simulator getSimulator() { return this.configPane.getSimulator(); }
+
+	/** Stop the simulator, and play back a recorded trajectory instead.
+	 * Applying a scenario from the Setup tab goes back to simulating.
+	 * @throws IOException If it can't be read. */
+	public void openTrajectory(String fileName) throws IOException {
+		Trajectory trajectory = new Trajectory(fileName);
+
+		// The arms are drawn as long as the recorded scenario had them, if we
+		// have it.
+		String scenario = trajectory.getScenario();
+		CodonParameters parameters = new CodonParameters(this.properties, scenario, 
+				new SimulationParameters(this.properties, scenario));
+
+		this.configPane.shutdown();
+		this.viewer.setTrajectory(trajectory, parameters, this.frameSlider);
+		this.status.setText(" Playing " + fileName);
+	}
+
 	public void setPaused(boolean paused) { 
 		this.paused = paused;
 		if (this.playIcon != null) {
@@ -309,7 +350,26 @@ public class JohnnyVonDisplay extends JFrame {
 		public StopAction() { super("Stop"); }
 		public void actionPerformed(ActionEvent ae) { 
 			JohnnyVonDisplay.this.setPaused(true);
-			JohnnyVonDisplay.this.configPane.applyCurrent();
+			// Stopping a trajectory rewinds it.
+			if (viewer.isPlayingBack()) viewer.seek(0);
+			else JohnnyVonDisplay.this.configPane.applyCurrent();
+		}
+	}
+
+	private class GoToIterationAction extends AbstractAction {
+		public GoToIterationAction() { super("Go To Iteration..."); }
+		public void actionPerformed(ActionEvent ae) { 
+			if (!viewer.isPlayingBack()) {
+				JOptionPane.showMessageDialog(JohnnyVonDisplay.this, "Only a trajectory being played back can go to an iteration.", "Go To Iteration", JOptionPane.INFORMATION_MESSAGE);
+				return;
+			}
+			String value = JOptionPane.showInputDialog(JohnnyVonDisplay.this, "Iteration:");
+			if (value == null) return;
+			try {
+				viewer.seekIteration(Integer.parseInt(value.trim()));
+			} catch (NumberFormatException nfe) {
+				JOptionPane.showMessageDialog(JohnnyVonDisplay.this, "Not an iteration: " + value, "Go To Iteration", JOptionPane.ERROR_MESSAGE);
+			}
 		}
 	}
 
@@ -444,6 +504,21 @@ public class JohnnyVonDisplay extends JFrame {
 		}
 	}
 
+	private class OpenTrajectoryAction extends AbstractAction {
+		public OpenTrajectoryAction() { super("Open Trajectory..."); }
+		public void actionPerformed(ActionEvent ae) { 
+			JFileChooser chooser = new JFileChooser();
+			int result = chooser.showOpenDialog(JohnnyVonDisplay.this);
+			if(result == JFileChooser.APPROVE_OPTION) {
+				try {
+					openTrajectory(chooser.getSelectedFile().getPath());
+				} catch (IOException ioe) {
+					JOptionPane.showMessageDialog(JohnnyVonDisplay.this, "Error reading trajectory: " + ioe, "Error reading trajectory", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
 	private class CaptureAction extends AbstractAction {
 		public CaptureAction() { super("Capture..."); }
 		public void actionPerformed(ActionEvent ae) { 
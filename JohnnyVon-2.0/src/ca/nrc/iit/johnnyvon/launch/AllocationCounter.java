@@ -0,0 +1,99 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/** Counts the bytes allocated by the current thread.  This uses
+ * com.sun.management.ThreadMXBean, which isn't part of every JVM, hence the
+ * reflection.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+/* package */ final class AllocationCounter {
+
+	/** The platform's thread bean. */
+	private final Object _bean;
+
+	/** com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long). */
+	private final Method _allocatedBytes;
+
+	/** What reading the counter allocates by itself. */
+	private final long _overhead;
+
+	/** The count when start() was called. */
+	private long _start;
+
+	/* package */ AllocationCounter() throws Exception {
+		this._bean = ManagementFactory.getThreadMXBean();
+		Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+		if (!beanClass.isInstance(this._bean)) {
+			throw new UnsupportedOperationException("This JVM doesn't count allocated bytes.");
+		}
+		this._allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", new Class<?>[] { long.class });
+
+		// Reading the counter goes through reflection, which allocates a
+		// little.  Warm it up, then see how much.
+		long overhead = 0;
+		for (int i = 0; i < 100; i++) {
+			long before = this.read();
+			overhead = this.read() - before;
+		}
+		this._overhead = overhead;
+	}
+
+	/* package */ final void start() {
+		this._start = this.read();
+	}
+
+	/** @return The number of bytes allocated since start(). */
+	/* package */ final long stop() {
+		return this.read() - this._start - this._overhead;
+	}
+
+	private final long read() {
+		try {
+			Object[] args = { Long.valueOf(Thread.currentThread().getId()) };
+			return ((Long)this._allocatedBytes.invoke(this._bean, args)).longValue();
+		} catch (Exception e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+}
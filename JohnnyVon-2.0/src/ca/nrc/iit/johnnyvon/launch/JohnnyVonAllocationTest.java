@@ -0,0 +1,149 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+import ca.nrc.iit.johnnyvon.gui.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.util.Properties;
+
+import java.net.URL;
+
+/** Checks that, once it has warmed up, a timestep doesn't allocate anything
+ * on the heap.  Runs a scenario on a single thread, and uses the thread
+ * allocation counter (com.sun.management.ThreadMXBean, which isn't part of
+ * every JVM, hence the reflection) to measure how many bytes the
+ * simulation's thread allocates over a number of timesteps.  Exits with a
+ * non-zero status if that isn't zero.
+ *
+ * Some of the arrays that the simulation keeps grow as they need to (e.g.
+ * when an unusually large number of codons are close together), so the
+ * warmup should be long enough for them to have reached their size.
+ *
+ * Usage: JohnnyVonAllocationTest [scenario [warmup [iterations
+ * [property=value ...]]]]
+ *
+ * The properties are set on the scenario before it is run, e.g.
+ * EventLog=events.bin.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonAllocationTest {
+
+	/** The seed used if the scenario doesn't have one. */
+	private static final String DEFAULT_SEED = "1";
+
+	public static void main(String[] args) {
+		String scenario = (args.length >= 1) ? args[0] : "BigSoup";
+		int warmup = (args.length >= 2) ? Integer.parseInt(args[1]) : 5000;
+		int iterations = (args.length >= 3) ? Integer.parseInt(args[2]) : 1000;
+
+		try {
+			Properties properties = loadProperties();
+			for (int i = 3; i < args.length; i++) {
+				int equals = args[i].indexOf('=');
+				properties.setProperty(scenario + "." + args[i].substring(0, equals), args[i].substring(equals + 1));
+			}
+			properties.setProperty(scenario + ".Threads", "1");
+			if (properties.getProperty(scenario + ".RandomSeed") == null) {
+				properties.setProperty(scenario + ".RandomSeed", DEFAULT_SEED);
+			}
+
+			AllocationCounter counter = new AllocationCounter();
+			long bytes = run(properties, scenario, warmup, iterations, counter);
+			System.out.println(scenario + ": " + bytes + " bytes allocated in " + iterations + " iterations after " + warmup + " to warm up");
+
+			boolean passed = (bytes == 0);
+			System.out.println(passed ? "Passed." : "FAILED: the timesteps allocated.");
+			System.exit(passed ? 0 : 1);
+
+		} catch (Exception e) {
+			System.out.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	/** Load the scenarios the same way JohnnyVonApplication does, without
+	 * standard in. */
+	private static Properties loadProperties() throws Exception {
+		URL url = JohnnyVonAllocationTest.class.getClassLoader().getResource("support/input.txt"); 
+		if (url == null) {
+			return JohnnyVonDisplay.DEFAULTS;
+		}
+		Properties properties = new Properties();
+		properties.load(url.openStream());
+		return properties;
+	}
+
+	/** Run a scenario, counting what is allocated between the end of the
+	 * warmup and the end of the run.
+	 * @return The number of bytes allocated. */
+	private static long run(Properties properties, String scenario, final int warmup, final int iterations, final AllocationCounter counter) throws Exception {
+		final Simulator simulator = new Simulator(properties, scenario);
+		final long[] bytes = new long[1];
+
+		simulator.setViewer(new Viewer() {
+			public void view(Codon[] codons, double time, int iteration) {
+				if (iteration == warmup) {
+					counter.start();
+				} else if (iteration == warmup + iterations) {
+					bytes[0] = counter.stop();
+					simulator.shutdown();
+				}
+			}
+			public void setSimulator(Simulator sim) { }
+		});
+
+		// Anything the simulator says on standard out is just noise here.
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+			public void write(byte[] b, int off, int len) { }
+		}));
+		try {
+			simulator.simulate();
+		} finally {
+			System.setOut(out);
+		}
+		return bytes[0];
+	}
+
+}
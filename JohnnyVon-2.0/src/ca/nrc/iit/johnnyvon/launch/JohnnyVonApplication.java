@@ -38,6 +38,7 @@ import ca.nrc.iit.johnnyvon.gui.*;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.Reader;
@@ -54,6 +55,13 @@ import java.net.URL;
  * then tries to load the input from a default location, lastly falling back
  * onto a compiled-in default configuration.  
  *
+ * With "--play file", it plays back a recorded trajectory (see the
+ * scenarios' Trajectory property) instead of simulating.
+ *
+ * Unless the input was read from standard in, each line typed on standard
+ * in is a command for the simulator: "pause", "resume", "step [n]", "quit",
+ * or (anything else, including a blank line) dump the state of the codons.
+ *
  * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
  * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
  * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
@@ -65,6 +73,11 @@ public class JohnnyVonApplication {
 		try {
 			Properties properties;
 			boolean stdin = false;
+			String trajectory = null;
+
+			if (args.length >= 2 && args[0].equals("--play")) {
+				trajectory = args[1];
+			}
 			
 			if (args.length >= 1 && (args[0].equals("--read"))) {
 				System.out.print("Reading data from standard in..");
@@ -94,12 +107,25 @@ public class JohnnyVonApplication {
 
 			if (stdin) System.out.println(".done.");
 
+			if (trajectory != null) {
+				((JohnnyVonDisplay)frame).openTrajectory(trajectory);
+			}
+
 			frame.addWindowListener(new WindowAdapter() {
 					public void windowClosing(WindowEvent we) {
 						System.exit(0);
 					}
 				} );
 
+			if (!stdin) {
+				final JohnnyVonDisplay display = (JohnnyVonDisplay)frame;
+				Thread commands = new Thread("JohnnyVon Commands") {
+					public void run() { readCommands(display); }
+				};
+				commands.setDaemon(true);
+				commands.start();
+			}
+
 		} catch (Exception e) {
 			System.out.println("Failed.  See below for details. (" + e + ")");
 			e.printStackTrace();
@@ -107,4 +133,34 @@ public class JohnnyVonApplication {
 
 	}
 
+	/** Pass the commands typed on standard in to the display's simulator,
+	 * until standard in is closed. */
+	private static void readCommands(JohnnyVonDisplay display) {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Simulator simulator = display.getSimulator();
+				if (simulator == null) continue;
+
+				String[] words = line.trim().split("\\s+");
+				if (words[0].equalsIgnoreCase("pause")) {
+					simulator.pause();
+				} else if (words[0].equalsIgnoreCase("resume")) {
+					simulator.resume();
+				} else if (words[0].equalsIgnoreCase("step")) {
+					try {
+						simulator.step((words.length > 1) ? Integer.parseInt(words[1]) : 1);
+					} catch (NumberFormatException nfe) {
+						System.out.println("Not a number of steps: " + words[1]);
+					}
+				} else if (words[0].equalsIgnoreCase("quit")) {
+					System.exit(0);
+				} else {
+					simulator.dump();
+				}
+			}
+		} catch (IOException ioe) { }
+	}
+
 }
@@ -0,0 +1,254 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+import ca.nrc.iit.johnnyvon.gui.JohnnyVonDisplay;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import java.net.URL;
+
+/** Runs scenarios without a display, as fast as they will go.  Each of the
+ * given scenarios is run in turn for the given number of iterations, and a
+ * line summarising how it ended up is written out.  This is meant for long
+ * runs (overnight, say) where nobody is watching, so nothing can pause it.
+ *
+ * Usage: JohnnyVonBatch [-input file] [-output file] [-report n] [-runs n
+ * [-seed n] [-pool n]] [property=value ...] iterations scenario [scenario ...]
+ * <br>or: JohnnyVonBatch [-output file] [-report n] -restore checkpoint
+ * [property=value ...] iterations
+ *
+ * The input is read the same way as with JohnnyVonApplication's --read,
+ * from the given file, or else support/input.txt, or else the compiled-in
+ * defaults.  The properties are set on every scenario before it is run,
+ * e.g. Threads=4 or Deterministic=true.  The summaries are tab separated, one
+ * per line (see Summary), and go to standard out unless an output file is
+ * given.  With -report, a summary is also written every n iterations along
+ * the way.
+ *
+ * With -runs, each scenario is run that many times, as an Ensemble: at most
+ * -pool runs at once (by default, as many as there are processors for).
+ * The runs are seeded from -seed onwards, or else from the scenario's own
+ * RandomSeed, or else from the clock.  Their summaries come out as they
+ * finish.  Each run writes its own event log, checkpoint and so on: the
+ * number of the run is added to the end of their names, e.g. events.bin.3.
+ *
+ * With -restore, the run saved in the given Checkpoint file is carried on
+ * until it has done the given number of iterations in all.  The properties
+ * are set on its scenario, e.g. Threads=4; set a scenario's Checkpoint (and
+ * CheckpointInterval) property to have its run saved every so often.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonBatch {
+
+	private static final String USAGE = "Usage: JohnnyVonBatch [-input file] [-output file] [-report n] "
+		+ "[-runs n [-seed n] [-pool n]] [property=value ...] iterations scenario [scenario ...]\n"
+		+ "   or: JohnnyVonBatch [-output file] [-report n] -restore checkpoint [property=value ...] iterations";
+
+	public static void main(String[] args) {
+		String input = null;
+		String output = null;
+		int report = 0;
+		int runs = 1;
+		Long seed = null;
+		int pool = 0;
+		String restore = null;
+		ArrayList<String> overrides = new ArrayList<String>();
+
+		int i = 0;
+		int iterations = 0;
+		try {
+			for (; i < args.length; i++) {
+				if (args[i].equals("-input") && i + 1 < args.length) {
+					input = args[++i];
+				} else if (args[i].equals("-output") && i + 1 < args.length) {
+					output = args[++i];
+				} else if (args[i].equals("-report") && i + 1 < args.length) {
+					report = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-runs") && i + 1 < args.length) {
+					runs = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-seed") && i + 1 < args.length) {
+					seed = Long.valueOf(args[++i]);
+				} else if (args[i].equals("-pool") && i + 1 < args.length) {
+					pool = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-restore") && i + 1 < args.length) {
+					restore = args[++i];
+				} else if (args[i].indexOf('=') > 0) {
+					overrides.add(args[i]);
+				} else {
+					break;
+				}
+			}
+			if (args.length - i < ((restore == null) ? 2 : 1) || runs < 1) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			iterations = Integer.parseInt(args[i]);
+		} catch (NumberFormatException nfe) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		PrintStream out = System.out;
+		try {
+			Properties properties = loadProperties(input);
+			if (output != null) {
+				out = new PrintStream(new FileOutputStream(output), true);
+			}
+			out.println(Summary.HEADER);
+
+			if (restore != null) {
+				Properties restored = new Properties();
+				for (int k = 0; k < overrides.size(); k++) {
+					String override = overrides.get(k);
+					int equals = override.indexOf('=');
+					restored.setProperty(override.substring(0, equals), override.substring(equals + 1));
+				}
+				boolean failed = !resume(restore, restored, iterations, report, out);
+				if (out != System.out) out.close();
+				System.exit(failed ? 1 : 0);
+			}
+
+			final PrintStream summaries = out;
+			Ensemble ensemble = new Ensemble(pool);
+			ensemble.setListener(new Ensemble.Listener() {
+				public void report(Summary summary, boolean finished) {
+					summaries.println(summary);
+				}
+			}, report);
+
+			boolean failed = false;
+			for (int j = i + 1; j < args.length; j++) {
+				String scenario = args[j];
+				for (int k = 0; k < overrides.size(); k++) {
+					String override = overrides.get(k);
+					int equals = override.indexOf('=');
+					properties.setProperty(scenario + "." + override.substring(0, equals), override.substring(equals + 1));
+				}
+
+				String randomSeed = properties.getProperty(scenario + ".RandomSeed");
+				long firstSeed = (seed != null) ? seed.longValue() 
+					: (randomSeed != null) ? Long.parseLong(randomSeed.trim()) 
+					: System.currentTimeMillis() ^ System.nanoTime();
+
+				Summary[] results = ensemble.run(properties, scenario, runs, firstSeed, iterations);
+				for (int k = 0; k < results.length; k++) {
+					if (results[k].getFailure() != null) {
+						failed = true;
+						System.err.println(scenario + " run " + k + " failed:");
+						results[k].getFailure().printStackTrace();
+					}
+				}
+			}
+
+			if (out != System.out) out.close();
+			System.exit(failed ? 1 : 0);
+
+		} catch (Exception e) {
+			System.err.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	/** Carry on a run from a checkpoint, writing summaries as for the other
+	 * runs.
+	 * @return Whether it got to the end without failing. */
+	private static boolean resume(String fileName, Properties overrides, final int iterations, 
+			final int report, final PrintStream out) throws Exception {
+		final long start = System.currentTimeMillis();
+		final Simulator simulator = Checkpoint.restore(fileName, overrides);
+		if (report > 0) {
+			simulator.setViewer(new Viewer() {
+				public void view(Codon[] codons, double time, int iteration) {
+					if (iteration % report == 0 && iteration < iterations) {
+						out.println(new Summary(simulator.getScenario(), 0, simulator.getRandomSeed(), simulator, 
+									(System.currentTimeMillis() - start) / 1000.0, null));
+					}
+				}
+				public void setSimulator(Simulator sim) { }
+			});
+		}
+
+		Throwable failure = null;
+		try {
+			simulator.simulate(iterations);
+		} catch (Throwable t) {
+			failure = t;
+		}
+		out.println(new Summary(simulator.getScenario(), 0, simulator.getRandomSeed(), simulator, 
+					(System.currentTimeMillis() - start) / 1000.0, failure));
+		if (failure != null) {
+			System.err.println(simulator.getScenario() + " failed:");
+			failure.printStackTrace();
+		}
+		return failure == null;
+	}
+
+	/** Load the scenarios from the given file, or if there isn't one, the
+	 * same way JohnnyVonApplication does. */
+	private static Properties loadProperties(String fileName) throws Exception {
+		Properties properties = new Properties();
+		if (fileName != null) {
+			InputStream in = new FileInputStream(fileName);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			return properties;
+		}
+
+		URL url = JohnnyVonBatch.class.getClassLoader().getResource("support/input.txt"); 
+		if (url == null) {
+			return JohnnyVonDisplay.DEFAULTS;
+		}
+		properties.load(url.openStream());
+		return properties;
+	}
+
+}
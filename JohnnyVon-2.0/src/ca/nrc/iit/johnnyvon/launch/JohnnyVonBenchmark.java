@@ -0,0 +1,198 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+import ca.nrc.iit.johnnyvon.gui.JohnnyVonDisplay;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import java.net.URL;
+
+/** Measures how fast scenarios run, without a display.  Each scenario is
+ * run (with a fixed seed) for some iterations to let the JIT compiler settle
+ * down, and then timed over several trials of the same number of
+ * iterations.  The median and best rates are printed; the median is the one
+ * to compare between versions, since the best can be a fluke.  Both are
+ * given by the clock and by the CPU time of the JVM's threads; on a busy
+ * machine, the CPU time is the steadier of the two.
+ *
+ * Usage: JohnnyVonBenchmark [warmup=3000 [iterations=1000 [trials=10
+ * [property=value ...]]]] scenario [scenario ...]
+ *
+ * The properties are set on every scenario before it is run, e.g.
+ * Broadphase=grid.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonBenchmark {
+
+	/** The seed used if the scenario doesn't have one. */
+	private static final String DEFAULT_SEED = "1";
+
+	public static void main(String[] args) {
+		int[] numbers = { 3000, 1000, 10 };
+		int i = 0;
+		for (; i < args.length && i < numbers.length; i++) {
+			try {
+				numbers[i] = Integer.parseInt(args[i]);
+			} catch (NumberFormatException nfe) {
+				break;
+			}
+		}
+		// The viewer first hears from the simulator after iteration 2.
+		int warmup = Math.max(numbers[0], 2);
+		int iterations = numbers[1];
+		int trials = numbers[2];
+
+		try {
+			Properties properties = loadProperties();
+			int first = i;
+			while (first < args.length && args[first].indexOf('=') > 0) first++;
+			if (first == args.length || iterations < 1 || trials < 1) {
+				System.err.println("Usage: JohnnyVonBenchmark [warmup [iterations [trials [property=value ...]]]] scenario [scenario ...]");
+				System.exit(1);
+			}
+
+			for (int j = first; j < args.length; j++) {
+				String scenario = args[j];
+				for (int k = i; k < first; k++) {
+					int equals = args[k].indexOf('=');
+					properties.setProperty(scenario + "." + args[k].substring(0, equals), args[k].substring(equals + 1));
+				}
+				if (properties.getProperty(scenario + ".RandomSeed") == null) {
+					properties.setProperty(scenario + ".RandomSeed", DEFAULT_SEED);
+				}
+
+				long[][] times = run(properties, scenario, warmup, iterations, trials);
+				Arrays.sort(times[0]);
+				Arrays.sort(times[1]);
+				System.out.println(scenario + ": " + trials + " trials of " + iterations + " iterations after " + warmup 
+						+ ": median " + rate(iterations, times[0][trials / 2]) 
+						+ " iterations/s, best " + rate(iterations, times[0][0]) 
+						+ " iterations/s; by CPU time, median " + rate(iterations, times[1][trials / 2])
+						+ " iterations/s, best " + rate(iterations, times[1][0]) + " iterations/s");
+			}
+			System.exit(0);
+
+		} catch (Exception e) {
+			System.out.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	/** Load the scenarios the same way JohnnyVonApplication does, without
+	 * standard in. */
+	private static Properties loadProperties() throws Exception {
+		URL url = JohnnyVonBenchmark.class.getClassLoader().getResource("support/input.txt"); 
+		if (url == null) {
+			return JohnnyVonDisplay.DEFAULTS;
+		}
+		Properties properties = new Properties();
+		properties.load(url.openStream());
+		return properties;
+	}
+
+	/** Run a scenario, timing each trial after the warm-up.
+	 * @return How long each trial took, in nanoseconds: by the clock, and in
+	 * CPU time. */
+	private static long[][] run(Properties properties, String scenario, final int warmup, 
+			final int iterations, final int trials) throws Exception {
+		final Simulator simulator = new Simulator(properties, scenario);
+		final long[][] times = new long[2][trials];
+		final long[] start = new long[2];
+
+		// The viewer is only there to read the clocks between iterations.
+		simulator.setViewer(new Viewer() {
+			public void view(Codon[] codons, double time, int iteration) {
+				int done = iteration - warmup;
+				if (done >= 0 && done % iterations == 0) {
+					long now = System.nanoTime();
+					long cpu = getCpuTime();
+					if (done > 0) {
+						times[0][done / iterations - 1] = now - start[0];
+						times[1][done / iterations - 1] = cpu - start[1];
+					}
+					start[0] = now;
+					start[1] = cpu;
+				}
+			}
+			public void setSimulator(Simulator sim) { }
+		});
+
+		// Anything the simulator says on standard out is just noise here.
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+		}));
+		try {
+			simulator.simulate(warmup + iterations * trials);
+		} finally {
+			System.setOut(out);
+		}
+		return times;
+	}
+
+	/** @return The CPU time used so far by all of the threads that are still
+	 * running, in nanoseconds. */
+	private static long getCpuTime() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		long[] ids = bean.getAllThreadIds();
+		long total = 0;
+		for (int i = 0; i < ids.length; i++) {
+			long time = bean.getThreadCpuTime(ids[i]);
+			if (time > 0) total += time;
+		}
+		return total;
+	}
+
+	/** @return The number of iterations per second. */
+	private static long rate(int iterations, long nanos) {
+		return (long)(iterations * 1e9 / Math.max(nanos, 1));
+	}
+
+}
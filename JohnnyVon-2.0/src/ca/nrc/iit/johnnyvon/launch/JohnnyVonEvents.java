@@ -0,0 +1,88 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+
+/** Prints an event log (see the EventLog property of a scenario) as text,
+ * one event per line: the iteration, the type of event, the codon (and arm)
+ * it happened to, the other codon (and arm) involved, and why.
+ *
+ * Usage: JohnnyVonEvents file
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonEvents {
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("Usage: JohnnyVonEvents file");
+			System.exit(2);
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+			try {
+				EventLog.readHeader(in);
+				int[] record = new int[EventLog.RECORD_INTS];
+				while (true) {
+					try {
+						record[0] = in.readInt();
+					} catch (EOFException eofe) {
+						break;
+					}
+					for (int i = 1; i < record.length; i++) {
+						record[i] = in.readInt();
+					}
+					System.out.println(EventLog.toString(record));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+import ca.nrc.iit.johnnyvon.gui.JohnnyVonDisplay;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import java.net.URL;
+
+/** Times the engine's kernels one at a time (see Microbenchmarks): each
+ * kind of interaction, each per-codon phase of a timestep, copying a
+ * CodonState, projecting Pairs, and whole steps of SmallTriangles, Soup and
+ * BigSoup.  It prints how long one operation takes, and how much it
+ * allocates, so that a change to one of them can be measured by itself.
+ *
+ * Each benchmark is calibrated to run in batches of about BATCH_MILLIS,
+ * warmed up (so that the JIT has compiled it) for some timed iterations
+ * that are thrown away, and then timed over more.  The time per operation
+ * is the mean over the timed iterations, with their standard deviation.
+ * The allocation is measured on the same thread, with AllocationCounter.
+ * All the benchmarks run in the same JVM, so the JIT's view of the code
+ * they share depends on which ran before; for the steadiest figures, time
+ * one benchmark (or one group) per run.
+ *
+ * Usage: JohnnyVonMicrobenchmark [-warmup iterations=3] [-iterations n=5]
+ * [-time milliseconds=1000] [name ...]
+ *
+ * A name selects every benchmark that starts with it, e.g. "interact" or
+ * "step.Soup"; with none, they all run.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonMicrobenchmark {
+
+	/** About how long a batch of operations should take. */
+	private static final long BATCH_MILLIS = 10;
+
+	/** The most operations in a batch. */
+	private static final int MAX_BATCH = 1 << 30;
+
+	public static void main(String[] args) {
+		int warmup = 3;
+		int iterations = 5;
+		long time = 1000;
+		List<String> names = new ArrayList<String>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-warmup") && i + 1 < args.length) {
+					warmup = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-iterations") && i + 1 < args.length) {
+					iterations = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-time") && i + 1 < args.length) {
+					time = Long.parseLong(args[++i]);
+				} else if (args[i].startsWith("-")) {
+					usage();
+				} else {
+					names.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+		}
+		if (warmup < 0 || iterations < 1 || time < 1) usage();
+
+		String[] all = Microbenchmarks.getNames();
+		List<String> selected = new ArrayList<String>();
+		for (int i = 0; i < all.length; i++) {
+			boolean wanted = names.isEmpty();
+			for (int j = 0; j < names.size() && !wanted; j++) {
+				wanted = all[i].startsWith(names.get(j));
+			}
+			if (wanted) selected.add(all[i]);
+		}
+		if (selected.isEmpty()) {
+			System.err.println("No such benchmarks.  There are:");
+			for (int i = 0; i < all.length; i++) System.err.println("  " + all[i]);
+			System.exit(1);
+		}
+
+		// Anything the simulator says on standard out is just noise here.
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+			public void write(byte[] b, int off, int len) { }
+		}));
+
+		try {
+			Properties properties = loadProperties();
+			AllocationCounter counter;
+			try {
+				counter = new AllocationCounter();
+			} catch (Exception e) {
+				out.println("Not measuring allocation: " + e);
+				counter = null;
+			}
+
+			out.println(pad("Benchmark", -30) + pad("ns/op", 14) + pad("+/-", 12) + pad("B/op", 12) + pad("MB/s", 10));
+			for (int i = 0; i < selected.size(); i++) {
+				Microbenchmarks.Benchmark benchmark = Microbenchmarks.create(selected.get(i), properties);
+				try {
+					out.println(measure(benchmark, warmup, iterations, time * 1000000L, counter));
+				} finally {
+					benchmark.close();
+				}
+			}
+			System.exit(0);
+
+		} catch (Exception e) {
+			out.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: JohnnyVonMicrobenchmark [-warmup iterations] [-iterations n] [-time milliseconds] [name ...]");
+		System.exit(1);
+	}
+
+	/** Load the scenarios the same way JohnnyVonApplication does, without
+	 * standard in. */
+	private static Properties loadProperties() throws Exception {
+		URL url = JohnnyVonMicrobenchmark.class.getClassLoader().getResource("support/input.txt"); 
+		if (url == null) {
+			return JohnnyVonDisplay.DEFAULTS;
+		}
+		Properties properties = new Properties();
+		properties.load(url.openStream());
+		return properties;
+	}
+
+	/** Time a benchmark.
+	 * @param nanos How long each iteration should run for.
+	 * @param counter Counts what is allocated, or null.
+	 * @return A line of the report. */
+	private static String measure(Microbenchmarks.Benchmark benchmark, int warmup, int iterations, 
+			long nanos, AllocationCounter counter) {
+		// Double the batch until it takes long enough to time.
+		int batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			benchmark.run(batch);
+			if (System.nanoTime() - start >= BATCH_MILLIS * 1000000L || batch >= MAX_BATCH) break;
+			batch *= 2;
+		}
+
+		for (int i = 0; i < warmup; i++) {
+			runFor(benchmark, batch, nanos);
+		}
+
+		double[] times = new double[iterations];
+		long operations = 0;
+		long elapsed = 0;
+		long bytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			if (counter != null) counter.start();
+			long start = System.nanoTime();
+			long done = runFor(benchmark, batch, nanos);
+			long took = System.nanoTime() - start;
+			if (counter != null) bytes += counter.stop();
+			times[i] = (double)took / done;
+			operations += done;
+			elapsed += took;
+		}
+
+		double mean = 0;
+		for (int i = 0; i < iterations; i++) mean += times[i];
+		mean /= iterations;
+		double variance = 0;
+		for (int i = 0; i < iterations; i++) variance += (times[i] - mean) * (times[i] - mean);
+		double deviation = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+		String allocation = (counter == null) ? "?" : String.valueOf(round((double)bytes / operations));
+		String rate = (counter == null) ? "?" : String.valueOf(round(bytes * 1e9 / elapsed / (1 << 20)));
+		return pad(benchmark.getName(), -30) + pad(String.valueOf(round(mean)), 14) 
+			+ pad(String.valueOf(round(deviation)), 12) + pad(allocation, 12) + pad(rate, 10);
+	}
+
+	/** Run batches until the given time has passed.
+	 * @return How many operations were done. */
+	private static long runFor(Microbenchmarks.Benchmark benchmark, int batch, long nanos) {
+		long start = System.nanoTime();
+		long operations = 0;
+		do {
+			benchmark.run(batch);
+			operations += batch;
+		} while (System.nanoTime() - start < nanos);
+		return operations;
+	}
+
+	/** @return The number, to three decimal places. */
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	/** Pad a string with spaces to the given width: on the left if it's
+	 * positive, or on the right if it's negative. */
+	private static String pad(String value, int width) {
+		StringBuffer result = new StringBuffer();
+		int spaces = Math.abs(width) - value.length();
+		if (width < 0) result.append(value);
+		for (int i = 0; i < spaces; i++) result.append(' ');
+		if (width > 0) result.append(value);
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,255 @@
+/* JohnnyVon -- An implementation of self-replicating automata 
+   in two-dimensional continuous space.
+   Copyright (C) 2002-2004 National Research Council Canada
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+
+Authors:
+	Robert Ewaschuk - rob@infinitepigeons.org
+	Arnold Smith - arnold.smith@nrc.ca
+	Peter Turney - peter.turney@nrc.ca
+
+Postal Contact:
+	Peter Turney
+	Institute for Information Technology
+	National Research Council Canada
+	M-50, Montreal Road
+	Ottawa, ON, Canada
+	K1A 0R6
+
+*/
+
+
+package ca.nrc.iit.johnnyvon.launch;
+
+import ca.nrc.iit.johnnyvon.engine.*;
+import ca.nrc.iit.johnnyvon.gui.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.util.Properties;
+
+import java.net.URL;
+
+/** Checks that deterministic runs come out the same however many threads
+ * they use.  Runs a scenario deterministically with each of the given
+ * numbers of threads, and compares the hashes of the codons' states at the
+ * end, and of the events recorded in the EventLog on the way (in whatever
+ * order the threads recorded them).  Then runs it again, stopping half way
+ * and carrying on from a Checkpoint, which should make no difference
+ * either.  Exits with a non-zero status if any of them differ.
+ *
+ * Usage: JohnnyVonSelfTest [scenario [iterations [threads,threads,...
+ * [property=value ...]]]]
+ *
+ * The properties are set on the scenario before it is run, e.g. Noise=counter.
+ * With no arguments, Hexagons is checked, and then SmallTriangles with
+ * Sleep on, which is the smallest mesh that gets far enough in a few
+ * seconds for some of it to sleep.
+ *
+ * @author <a href="mailto:rob@infinitepigeons.org">Rob Ewaschuk</a>, 
+ * <a href="mailto:arnold.smith@nrc.ca">Arnold Smith</a>, 
+ * <a href="mailto:peter.turney@nrc.ca">Peter Turney</a>
+ * @version 2.0  Copyright &copy; 2002-2004 National Research Council Canada
+ */
+public class JohnnyVonSelfTest {
+
+	/** The seed used if the scenario doesn't have one. */
+	private static final String DEFAULT_SEED = "1";
+
+	/** The numbers of threads tried if none are given. */
+	private static final String DEFAULT_THREADS = "1,2,4";
+
+	public static void main(String[] args) {
+		try {
+			boolean passed;
+			if (args.length == 0) {
+				passed = check("Hexagons", 2000, DEFAULT_THREADS, new String[0]);
+				passed &= check("SmallTriangles", 10000, DEFAULT_THREADS, new String[] { "Sleep=50" });
+			} else {
+				int iterations = (args.length >= 2) ? Integer.parseInt(args[1]) : 2000;
+				String threads = (args.length >= 3) ? args[2] : DEFAULT_THREADS;
+				String[] settings = new String[Math.max(args.length - 3, 0)];
+				System.arraycopy(args, args.length - settings.length, settings, 0, settings.length);
+				passed = check(args[0], iterations, threads, settings);
+			}
+
+			System.out.println(passed ? "Passed." : "FAILED: the runs differ.");
+			System.exit(passed ? 0 : 1);
+
+		} catch (Exception e) {
+			System.out.println("Failed.  See below for details. (" + e + ")");
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	/** Run a scenario on each of the given numbers of threads, and from a
+	 * checkpoint, and print the hashes.
+	 * @param threadList The numbers of threads, separated by commas.
+	 * @param settings Properties to set on the scenario, as property=value.
+	 * @return Whether they all came out the same. */
+	private static boolean check(String scenario, int iterations, String threadList, String[] settings) throws Exception {
+		String[] threads = threadList.split(",");
+
+		Properties properties = loadProperties();
+		for (int i = 0; i < settings.length; i++) {
+			int equals = settings[i].indexOf('=');
+			properties.setProperty(scenario + "." + settings[i].substring(0, equals), settings[i].substring(equals + 1));
+		}
+		properties.setProperty(scenario + ".Deterministic", "true");
+		if (properties.getProperty(scenario + ".RandomSeed") == null) {
+			properties.setProperty(scenario + ".RandomSeed", DEFAULT_SEED);
+		}
+
+		boolean passed = true;
+		long expected = 0, expectedEvents = 0;
+		for (int i = 0; i < threads.length; i++) {
+			properties.setProperty(scenario + ".Threads", threads[i].trim());
+			long[] hashes = run(properties, scenario, iterations);
+			System.out.println(scenario + ": " + iterations + " iterations on " + threads[i].trim() + " thread(s): " 
+					+ Long.toHexString(hashes[0]) + ", events " + Long.toHexString(hashes[1]));
+			if (i == 0) {
+				expected = hashes[0];
+				expectedEvents = hashes[1];
+			} else if (hashes[0] != expected || hashes[1] != expectedEvents) {
+				passed = false;
+			}
+		}
+
+		properties.setProperty(scenario + ".Threads", threads[0].trim());
+		long hash = runFromCheckpoint(properties, scenario, iterations);
+		System.out.println(scenario + ": " + iterations + " iterations, restored from a checkpoint after " 
+				+ Math.max(iterations / 2, 1) + ": " + Long.toHexString(hash));
+		return passed && hash == expected;
+	}
+
+	/** Load the scenarios the same way JohnnyVonApplication does, without
+	 * standard in. */
+	private static Properties loadProperties() throws Exception {
+		URL url = JohnnyVonSelfTest.class.getClassLoader().getResource("support/input.txt"); 
+		if (url == null) {
+			return JohnnyVonDisplay.DEFAULTS;
+		}
+		Properties properties = new Properties();
+		properties.load(url.openStream());
+		return properties;
+	}
+
+	/** Run a scenario for the given number of iterations, with an event log.
+	 * @return The hash of the codons' states at the end, and the hash of the
+	 * events. */
+	private static long[] run(Properties defaults, String scenario, final int iterations) throws Exception {
+		File events = File.createTempFile("johnnyvon", ".events");
+		Properties properties = new Properties();
+		properties.putAll(defaults);
+		properties.setProperty(scenario + ".EventLog", events.getPath());
+		properties.setProperty(scenario + ".Events", "all");
+
+		final Simulator simulator = new Simulator(properties, scenario);
+		final long[] hash = new long[2];
+
+		simulator.setViewer(new Viewer() {
+			public void view(Codon[] codons, double time, int iteration) {
+				if (iteration >= iterations) {
+					hash[0] = simulator.getStateHash();
+					simulator.shutdown();
+				}
+			}
+			public void setSimulator(Simulator sim) { }
+		});
+
+		// Anything the simulator says on standard out is just noise here.
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+		}));
+		try {
+			simulator.simulate();
+			if (simulator.getDroppedEvents() > 0) {
+				throw new IllegalStateException(simulator.getDroppedEvents() + " events were dropped, so they can't be compared.");
+			}
+			hash[1] = hashEvents(events);
+		} finally {
+			System.setOut(out);
+			events.delete();
+		}
+		return hash;
+	}
+
+	/** Hash the records in an event log.  Each record is hashed on its own,
+	 * and the hashes added up, so that the order they were written in (which
+	 * depends on the threads) makes no difference. */
+	private static long hashEvents(File file) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			EventLog.readHeader(in);
+			long sum = 0;
+			while (true) {
+				long hash;
+				try {
+					hash = mix(0, in.readInt());
+				} catch (EOFException eofe) {
+					break;
+				}
+				for (int i = 1; i < EventLog.RECORD_INTS; i++) {
+					hash = mix(hash, in.readInt());
+				}
+				sum += hash;
+			}
+			return sum;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Mix a value into a hash. */
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	/** Run a scenario half way with a checkpoint, then restore it from the
+	 * checkpoint and run it the rest of the way.
+	 * @return The hash of the codons' states at the end. */
+	private static long runFromCheckpoint(Properties defaults, String scenario, int iterations) throws Exception {
+		File file = File.createTempFile("johnnyvon", ".checkpoint");
+		Properties properties = new Properties();
+		properties.putAll(defaults);
+		properties.setProperty(scenario + ".Checkpoint", file.getPath());
+		properties.setProperty(scenario + ".CheckpointInterval", Integer.toString(Math.max(iterations / 2, 1)));
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) { }
+		}));
+		try {
+			new Simulator(properties, scenario).simulate(Math.max(iterations / 2, 1));
+			Simulator simulator = Checkpoint.restore(file.getPath(), null);
+			simulator.simulate(iterations);
+			return simulator.getStateHash();
+		} finally {
+			System.setOut(out);
+			file.delete();
+		}
+	}
+
+}